@@ -0,0 +1,185 @@
+package com.pinktwins.elephant;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pinktwins.elephant.data.Note;
+import com.pinktwins.elephant.util.RtfUtil;
+import com.pinktwins.elephant.util.Thumbnailer;
+
+// Markdown and RTF conversions of a note's text, and thumbnails of a large
+// JPEG or PNG. Texts are the same words as in the generated benchmark vaults.
+// The getScaledInstance benchmarks are the thumbnail path before Thumbnailer,
+// for comparison.
+//
+// Run with: gradle jmh -Pjmh=RenderBenchmark
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+
+	private static final String[] WORDS = { "elephant", "note", "meeting", "travel", "lorem", "ipsum", "dolor", "sit", "amet", "consectetur",
+			"adipiscing", "elit", "sed", "eiusmod", "tempor", "quis", "nostrud", "kahvi", "mökki" };
+
+	// Card view thumbnail width on Retina
+	private static final int THUMBNAIL_WIDTH = (196 - 12 - 4) * 2;
+
+	@State(Scope.Benchmark)
+	public static class Text {
+		@Param({ "200", "5000" })
+		int words;
+
+		String markdown;
+		String rtf;
+		DefaultStyledDocument doc;
+
+		final MarkdownRenderer renderer = new MarkdownRenderer();
+
+		@Setup
+		public void setup() throws IOException, BadLocationException {
+			Random r = new Random(words);
+
+			StringBuilder md = new StringBuilder("# Heading\n\n");
+			StringBuilder text = new StringBuilder();
+			for (int n = 0; n < words; n++) {
+				String w = WORDS[r.nextInt(WORDS.length)];
+				text.append(w).append(n % 12 == 11 ? ".\n" : " ");
+
+				switch (n % 40) {
+				case 0:
+					md.append("\n\n## ").append(w).append("\n\n");
+					break;
+				case 13:
+					md.append("\n- **").append(w).append("**\n- ");
+					break;
+				case 27:
+					md.append("[").append(w).append("](http://example.com/").append(n).append(") ");
+					break;
+				default:
+					md.append(n % 7 == 0 ? "*" + w + "* " : w + " ");
+				}
+			}
+			markdown = md.toString();
+
+			doc = new DefaultStyledDocument();
+			doc.insertString(0, text.toString(), null);
+			rtf = RtfUtil.getRtf(doc);
+		}
+	}
+
+	// A 12 megapixel photo-like image, in memory and as a file.
+	@State(Scope.Benchmark)
+	public static class Image {
+		@Param({ "jpg", "png" })
+		String format;
+
+		File file;
+		BufferedImage image;
+
+		@Setup
+		public void setup() throws IOException {
+			Random r = new Random(1);
+
+			image = new BufferedImage(4000, 3000, BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = image.createGraphics();
+			g.setPaint(new GradientPaint(0, 0, Color.ORANGE, 4000, 3000, Color.BLUE));
+			g.fillRect(0, 0, 4000, 3000);
+			for (int n = 0; n < 500; n++) {
+				g.setColor(new Color(r.nextInt(0xffffff)));
+				g.fillOval(r.nextInt(4000), r.nextInt(3000), 20 + r.nextInt(200), 20 + r.nextInt(200));
+			}
+			g.dispose();
+
+			file = File.createTempFile("elephant-benchmark", "." + format);
+			ImageIO.write(image, format, file);
+		}
+
+		@TearDown
+		public void tearDown() {
+			file.delete();
+		}
+	}
+
+	// Rendering as the editor does on each change to a note.
+	@Benchmark
+	public String markdownToHtml(Text t) {
+		t.renderer.clear();
+		return t.renderer.toHtml(t.markdown);
+	}
+
+	// Same note again, from the renderer's cache.
+	@Benchmark
+	public String markdownToHtmlCached(Text t) {
+		return t.renderer.toHtml(t.markdown);
+	}
+
+	@Benchmark
+	public String rtfPlainText(Text t) {
+		return Note.plainTextContents(t.rtf);
+	}
+
+	@Benchmark
+	public String rtfWrite(Text t) {
+		return RtfUtil.getRtf(t.doc);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public BufferedImage thumbnail(Image i) throws IOException {
+		return Thumbnailer.thumbnail(i.file, THUMBNAIL_WIDTH, -1);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public BufferedImage thumbnailGetScaledInstance(Image i) throws IOException {
+		return scaledInstance(ImageIO.read(i.file));
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public BufferedImage scale(Image i) {
+		return Thumbnailer.scale(i.image, THUMBNAIL_WIDTH, -1);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public BufferedImage scaleGetScaledInstance(Image i) {
+		return scaledInstance(i.image);
+	}
+
+	private static BufferedImage scaledInstance(BufferedImage i) {
+		java.awt.Image scaled = i.getScaledInstance(THUMBNAIL_WIDTH, -1, java.awt.Image.SCALE_AREA_AVERAGING);
+
+		BufferedImage b = new BufferedImage(scaled.getWidth(null), scaled.getHeight(null), BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = b.createGraphics();
+		g.drawImage(scaled, 0, 0, null);
+		g.dispose();
+		return b;
+	}
+}
@@ -0,0 +1,89 @@
+package com.pinktwins.elephant.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.pinktwins.elephant.Elephant;
+import com.pinktwins.elephant.util.Factory;
+
+// Vault for the JMH benchmarks, made by VaultGenerator. The same size always
+// gives the same notebooks, notes, tags and dates, so runs can be compared.
+//
+// Settings, the Lucene index and the Dropbox folder are all found through
+// user.home, so it's pointed at a temporary folder before anything reads
+// settings. The folder is removed on exit.
+
+public class BenchmarkVault {
+
+	private static File home;
+	private static int opened = -1;
+
+	private BenchmarkVault() {
+	}
+
+	// Generate a vault with this many notes and load it. Once per JVM, JMH
+	// forks a new one for each @Param value.
+	public static synchronized File open(int notes) throws IOException {
+		if (home != null) {
+			if (opened != notes) {
+				throw new IllegalStateException("Vault of " + opened + " notes already open");
+			}
+			return home;
+		}
+
+		final File root = Files.createTempDirectory("elephant-benchmark").toFile();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				FileUtils.deleteQuietly(root);
+			}
+		});
+
+		System.setProperty("user.home", root.getAbsolutePath());
+
+		File dropbox = new File(root, "Dropbox");
+		new File(dropbox, "Apps" + File.separator + "Elephant").mkdirs();
+		try {
+			JSONObject personal = new JSONObject();
+			personal.put("path", dropbox.getAbsolutePath());
+			JSONObject info = new JSONObject();
+			info.put("personal", personal);
+			write(new File(root, ".dropbox" + File.separator + "info.json"), info.toString());
+		} catch (JSONException e) {
+			throw new IOException(e);
+		}
+
+		home = new File(root, "Vault");
+		VaultGenerator.generate(home, notes, VaultGenerator.DEFAULT_SEED);
+		opened = notes;
+
+		Vault.getInstance().setLocation(home.getAbsolutePath());
+		for (Notebook nb : Vault.getInstance().getNotebooks()) {
+			Elephant.settings.setSyncSelection(nb.name(), true);
+		}
+
+		return home;
+	}
+
+	public static List<Note> notes() {
+		List<Note> list = Factory.newArrayList();
+		for (Notebook nb : Vault.getInstance().getNotebooks()) {
+			if (!nb.isTrash()) {
+				list.addAll(nb.notes);
+			}
+		}
+		return list;
+	}
+
+	private static void write(File f, String s) throws IOException {
+		f.getParentFile().mkdirs();
+		FileUtils.writeStringToFile(f, s, Charset.forName("UTF-8"));
+	}
+}
@@ -0,0 +1,118 @@
+package com.pinktwins.elephant.data;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.pinktwins.elephant.data.Note.Meta;
+import com.pinktwins.elephant.util.Factory;
+
+// Note metadata, sorting, tag resolving and the mobile search index export,
+// on generated vaults.
+//
+// Run with: gradle jmh -Pjmh=NoteBenchmark
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Vault's folder watcher thread never ends, don't wait for it at fork exit.
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Djmh.shutdownTimeout=1" })
+public class NoteBenchmark {
+
+	@Param({ "1000", "10000" })
+	int notes;
+
+	List<Note> all;
+	Notebook notebook;
+
+	// Tags of every tagged note, as ids and as names.
+	List<List<String>> tagIds = Factory.newArrayList();
+	List<List<String>> tagNames = Factory.newArrayList();
+
+	@Setup
+	public void setup() throws IOException {
+		BenchmarkVault.open(notes);
+		all = BenchmarkVault.notes();
+		notebook = Vault.getInstance().getNotebooks().get(0);
+
+		for (Note n : all) {
+			List<String> ids = n.getMeta().tags();
+			if (!ids.isEmpty()) {
+				tagIds.add(ids);
+				tagNames.add(Vault.getInstance().resolveTagIds(ids));
+			}
+		}
+	}
+
+	// Shuffled notes for each sort, sorting sorted notes would flatter it.
+	@State(Scope.Benchmark)
+	public static class Shuffled {
+		final Random random = new Random(1);
+
+		@Setup(Level.Invocation)
+		public void shuffle(NoteBenchmark b) {
+			Collections.shuffle(b.notebook.notes, random);
+		}
+	}
+
+	@Benchmark
+	public void getMeta(Blackhole bh) {
+		for (Note n : all) {
+			Meta m = n.getMeta();
+			bh.consume(m.title());
+			bh.consume(m.tags());
+		}
+	}
+
+	@Benchmark
+	public List<Note> sortNotes(Shuffled shuffled) {
+		notebook.sortNotes();
+		return notebook.notes;
+	}
+
+	@Benchmark
+	public void resolveTagIds(Blackhole bh) {
+		for (List<String> ids : tagIds) {
+			bh.consume(Vault.getInstance().resolveTagIds(ids));
+		}
+	}
+
+	@Benchmark
+	public void resolveTagNames(Blackhole bh) {
+		for (List<String> names : tagNames) {
+			bh.consume(Vault.getInstance().resolveTagNames(names));
+		}
+	}
+
+	@Benchmark
+	public List<List<String>> resolveTagIdLists() {
+		return Vault.getInstance().resolveTagIdLists(tagIds);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public void exportSearchIndex() {
+		Sync.exportSearchIndex();
+	}
+}
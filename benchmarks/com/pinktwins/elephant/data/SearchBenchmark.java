@@ -0,0 +1,136 @@
+package com.pinktwins.elephant.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.pinktwins.elephant.util.Factory;
+
+// Search index building and queries, memory and Lucene, on generated vaults.
+//
+// Run with: gradle jmh -Pjmh=SearchBenchmark
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Vault's folder watcher thread never ends, don't wait for it at fork exit.
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Djmh.shutdownTimeout=1" })
+public class SearchBenchmark {
+
+	static final String[] QUERIES = { "lorem", "tag:travel", "nostrud", "notebook:work", "kahvi", "xyzzy" };
+
+	@Param({ "1000", "10000" })
+	int notes;
+
+	List<Note> all;
+
+	// Title and plain text contents, read up front so digest timings don't
+	// include disk reads.
+	Map<Note, String> titles = Factory.newHashMap();
+	Map<Note, String> contents = Factory.newHashMap();
+
+	MemorySearchIndex memory;
+	LuceneSearchIndex lucene;
+
+	@Setup
+	public void setup() throws IOException {
+		BenchmarkVault.open(notes);
+		all = BenchmarkVault.notes();
+
+		for (Note n : all) {
+			titles.put(n, n.getMeta().title());
+			String s = n.contentsIncludingRawHtml();
+			if (s.startsWith("{\\rtf")) {
+				s = Note.plainTextContents(s);
+			}
+			contents.put(n, s);
+		}
+
+		memory = digestAll();
+
+		SearchIndexer.useLucene = true;
+		lucene = new LuceneSearchIndex();
+		for (Note n : all) {
+			lucene.digestText(n, null);
+		}
+		lucene.commit();
+	}
+
+	private MemorySearchIndex digestAll() {
+		MemorySearchIndex msi = new MemorySearchIndex();
+		for (Note n : all) {
+			String title = titles.get(n);
+			msi.digestText(n, title);
+			msi.digestText(n, "title:" + title);
+			msi.digestText(n, contents.get(n));
+		}
+		return msi;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public MemorySearchIndex memoryDigest() {
+		return digestAll();
+	}
+
+	@Benchmark
+	public void memorySearch(Blackhole bh) {
+		for (String q : QUERIES) {
+			bh.consume(memory.search(q));
+		}
+	}
+
+	@Benchmark
+	public void luceneSearch(Blackhole bh) {
+		for (String q : QUERIES) {
+			bh.consume(lucene.search(q));
+		}
+	}
+
+	// Empty Lucene index for each iteration, so every note is indexed anew.
+	@State(Scope.Benchmark)
+	public static class EmptyLuceneIndex {
+		LuceneSearchIndex index;
+
+		@Setup(Level.Iteration)
+		public void setup() {
+			FileUtils.deleteQuietly(new File(Vault.getInstance().getLuceneIndexPath()));
+			index = new LuceneSearchIndex();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public LuceneSearchIndex luceneIndex(EmptyLuceneIndex empty) {
+		for (Note n : all) {
+			empty.index.digestText(n, null);
+		}
+		empty.index.commit();
+		return empty.index;
+	}
+}
@@ -0,0 +1,130 @@
+package com.pinktwins.elephant.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pinktwins.elephant.util.Factory;
+
+// Writing and reading the sync journal, as done after each sync pass and at
+// startup. Setup checks that a written journal reads back the same, notes
+// and attachments both.
+//
+// Run with: gradle jmh -Pjmh=SyncJournalBenchmark
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SyncJournalBenchmark {
+
+	private static final int NOTEBOOKS = 20;
+	private static final int ATTACHMENTS = 3;
+
+	@Param({ "1000", "10000" })
+	int notes;
+
+	File vaultFile, dropboxFile;
+
+	SyncJournal journal = new SyncJournal();
+	SyncJournal readBack = new SyncJournal();
+	byte[] written;
+
+	@Setup
+	public void setup() throws IOException {
+		vaultFile = File.createTempFile("elephant-benchmark", ".txt");
+		dropboxFile = File.createTempFile("elephant-benchmark", ".txt");
+		dropboxFile.setLastModified(vaultFile.lastModified() - 1000);
+
+		for (int n = 0; n < NOTEBOOKS; n++) {
+			journal.notebookListed("Notebook " + n);
+		}
+
+		for (int n = 0; n < notes; n++) {
+			String notebook = "Notebook " + n % NOTEBOOKS;
+			String name = n + ".txt";
+			journal.record(notebook, name, vaultFile, dropboxFile, "hash" + n, n);
+
+			// Every fourth note has attachments
+			if (n % 4 == 0) {
+				Map<String, SyncJournal.Attachment> files = Factory.newHashMap();
+				for (int a = 0; a < ATTACHMENTS; a++) {
+					files.put("images/" + a + ".jpg", new SyncJournal.Attachment(n * 1000L + a, n, a == 0 ? "" : "hash" + a));
+				}
+				journal.recordAttachments(notebook, name, files);
+			}
+		}
+
+		written = write();
+		read();
+		check();
+	}
+
+	@TearDown
+	public void tearDown() {
+		vaultFile.delete();
+		dropboxFile.delete();
+	}
+
+	private void check() {
+		for (int n = 0; n < notes; n++) {
+			String notebook = "Notebook " + n % NOTEBOOKS;
+			String name = n + ".txt";
+
+			if (!readBack.isKnownNotebook(notebook)) {
+				throw new IllegalStateException("Notebook not read back: " + notebook);
+			}
+
+			SyncJournal.Entry a = journal.get(notebook, name);
+			SyncJournal.Entry b = readBack.get(notebook, name);
+			if (b == null || a.vaultLength != b.vaultLength || a.vaultModified != b.vaultModified || a.dropboxLength != b.dropboxLength
+					|| a.dropboxModified != b.dropboxModified || !a.hash.equals(b.hash) || a.synced != b.synced) {
+				throw new IllegalStateException("Entry not read back: " + notebook + "/" + name);
+			}
+
+			Map<String, SyncJournal.Attachment> files = journal.getAttachments(notebook, name);
+			Map<String, SyncJournal.Attachment> filesBack = readBack.getAttachments(notebook, name);
+			if (!files.keySet().equals(filesBack.keySet())) {
+				throw new IllegalStateException("Attachments not read back: " + notebook + "/" + name);
+			}
+			for (Map.Entry<String, SyncJournal.Attachment> e : files.entrySet()) {
+				SyncJournal.Attachment f = e.getValue();
+				SyncJournal.Attachment g = filesBack.get(e.getKey());
+				if (f.length != g.length || f.modified != g.modified || !f.hash.equals(g.hash)) {
+					throw new IllegalStateException("Attachment not read back: " + notebook + "/" + name + " " + e.getKey());
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public byte[] write() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		journal.write(bytes);
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public SyncJournal read() throws IOException {
+		readBack.read(new ByteArrayInputStream(written));
+		return readBack;
+	}
+}
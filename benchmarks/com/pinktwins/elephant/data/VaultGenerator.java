@@ -0,0 +1,670 @@
+package com.pinktwins.elephant.data;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.pinktwins.elephant.util.Factory;
+import com.pinktwins.elephant.util.RtfUtil;
+
+// Synthetic vaults for load and scale testing.
+//
+// generate() writes a vault of txt, md, rtf and html notes over a number of
+// notebooks, with .meta files (title, created time, tags, attachment
+// positions), a .tags file, image and PDF attachments, and notes in Trash.
+// The same seed and size give the same vault, down to file times.
+//
+// replay() then changes a vault the way other programs do: edits, new notes,
+// moves between notebooks, deletes to Trash and retitles, and, given a Dropbox
+// folder, moves and new notebooks done by Elephant mobile along with their
+// .events files. Same seed, same starting vault: same changes, in the same
+// order. File times are real time, so WatchDir and Sync see them as new.
+//
+// Neither touches Elephant's settings or the Vault instance, so both run
+// headless against any folder:
+//
+//   VaultGenerator generate <folder> [small|medium|large|huge|<notes>] [seed]
+//   VaultGenerator replay <vault> [<changes> [seed [delayMs [dropboxFolder]]]]
+//
+// Run with: gradle vaultGenerator -Pvg="generate /tmp/vault large"
+
+public class VaultGenerator {
+
+	public static final long DEFAULT_SEED = 1;
+
+	// 2015-01-01, notes are created from here on.
+	private static final long BASE_TIME = 1420070400000L;
+	private static final long NOTE_INTERVAL = 10 * 60 * 1000;
+
+	private static final String[] PROFILES = { "small", "medium", "large", "huge" };
+	private static final int[] PROFILE_NOTES = { 200, 5000, 20000, 50000 };
+
+	private static final String[] WORDS = { "elephant", "note", "meeting", "travel", "recipe", "garden", "invoice", "project", "budget", "draft",
+			"idea", "call", "review", "plan", "list", "book", "weekend", "flight", "hotel", "address", "lorem", "ipsum", "dolor", "sit", "amet",
+			"consectetur", "adipiscing", "elit", "sed", "do", "eiusmod", "tempor", "incididunt", "labore", "dolore", "magna", "aliqua", "quis",
+			"nostrud", "exercitation", "ullamco", "laboris", "nisi", "aliquip", "commodo", "consequat", "duis", "aute", "irure", "voluptate", "velit",
+			"esse", "cillum", "fugiat", "nulla", "pariatur", "excepteur", "sint", "occaecat", "cupidatat", "proident", "sunt", "culpa", "officia",
+			"deserunt", "mollit", "anim", "laborum", "kahvi", "mökki", "sauna", "järvi", "café", "naïve", "straße" };
+
+	private static final String[] NOTEBOOK_NAMES = { "Work", "Personal", "Recipes", "Travel", "Reading", "Projects", "Journal", "Archive", "Ideas",
+			"Finance", "Health", "Music", "Family", "Garden", "Clippings" };
+
+	private static final String[] TAG_NAMES = { "todo", "later", "important", "work", "home", "travel", "recipes", "reading", "ideas", "finance",
+			"health", "music", "family", "waiting", "someday", "reference" };
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static class Result {
+		public int notebooks, notes, trashed, attachments, tags;
+		public long bytes;
+
+		@Override
+		public String toString() {
+			return String.format("VaultGenerator: %d notebooks, %d notes, %d in Trash, %d attachments, %d tags, %d KB", notebooks, notes, trashed,
+					attachments, tags, bytes / 1024);
+		}
+	}
+
+	private VaultGenerator() {
+	}
+
+	// Note count of a named size profile, or the number itself.
+	public static int profileNotes(String profile) {
+		int n = Arrays.asList(PROFILES).indexOf(profile);
+		if (n >= 0) {
+			return PROFILE_NOTES[n];
+		}
+		return Integer.parseInt(profile);
+	}
+
+	// About 250 notes per notebook, 4 to 60 notebooks. Notes are spread
+	// unevenly, the first notebooks get the most.
+	public static Result generate(File folder, int notes, long seed) throws IOException {
+		if (folder.exists() && folder.list().length > 0) {
+			throw new IOException("Not an empty folder: " + folder);
+		}
+
+		Random r = new Random(seed);
+		Result result = new Result();
+
+		File trash = new File(folder, "Trash");
+		trash.mkdirs();
+
+		List<File> notebooks = Factory.newArrayList();
+		notebooks.add(new File(folder, "Inbox"));
+		int notebookCount = Math.max(4, Math.min(60, notes / 250));
+		for (int n = 1; n < notebookCount; n++) {
+			String name = NOTEBOOK_NAMES[(n - 1) % NOTEBOOK_NAMES.length];
+			if (n > NOTEBOOK_NAMES.length) {
+				name += " " + ((n - 1) / NOTEBOOK_NAMES.length + 1);
+			}
+			notebooks.add(new File(folder, name));
+		}
+		for (File nb : notebooks) {
+			nb.mkdirs();
+		}
+		result.notebooks = notebooks.size();
+
+		List<String> tagIds = Factory.newArrayList();
+		List<String> tagNames = Factory.newArrayList();
+		int tagCount = Math.max(8, Math.min(400, notes / 50));
+		for (int n = 0; n < tagCount; n++) {
+			// Same form as ids of new tags
+			tagIds.add(Long.toString(BASE_TIME + n * 1000L, 36) + "_" + r.nextInt(1000));
+			String name = TAG_NAMES[n % TAG_NAMES.length];
+			tagNames.add(n < TAG_NAMES.length ? name : name + (n / TAG_NAMES.length + 1));
+		}
+		File tagsFile = new File(folder, ".tags");
+		result.bytes += writeTags(tagsFile, tagIds, tagNames);
+		tagsFile.setLastModified(BASE_TIME);
+		result.tags = tagCount;
+
+		for (int n = 0; n < notes; n++) {
+			long created = BASE_TIME + n * NOTE_INTERVAL + r.nextInt((int) NOTE_INTERVAL);
+
+			File nb;
+			if (r.nextInt(100) < 3) {
+				nb = trash;
+				result.trashed++;
+			} else {
+				double d = r.nextDouble();
+				nb = notebooks.get((int) (d * d * notebooks.size()));
+			}
+
+			String ext = extension(r);
+			String title = words(r, 1 + r.nextInt(6), false);
+			String body = body(r, ext, title, 20 + (int) Math.abs(r.nextGaussian() * 300));
+
+			File note = new File(nb, Long.toString(created, 36) + ext);
+			write(note, body);
+
+			Map<String, String> meta = Factory.newHashMap();
+			meta.put("title", title);
+			meta.put("created", String.valueOf(created));
+
+			int noteTags = r.nextInt(10) < 4 ? 1 + r.nextInt(4) : 0;
+			if (noteTags > 0) {
+				StringBuilder ids = new StringBuilder(), names = new StringBuilder();
+				for (int t = 0; t < noteTags; t++) {
+					int tag = r.nextInt(tagCount);
+					ids.append(t > 0 ? "," : "").append(tagIds.get(tag));
+					names.append(t > 0 ? "," : "").append(tagNames.get(tag));
+				}
+				meta.put("tagIds", ids.toString());
+				meta.put("tagNames", names.toString());
+			}
+
+			List<File> attachments = Factory.newArrayList();
+			if (r.nextInt(100) < 8 && !ext.equals(".html")) {
+				File folderForAttachments = new File(note.getAbsolutePath() + ".attachments");
+				for (int a = 1 + r.nextInt(3); a > 0; a--) {
+					File attachment = attachment(r, folderForAttachments, a);
+					attachments.add(attachment);
+					meta.put("attachment:" + attachment.getName() + ":position", String.valueOf(r.nextInt(body.length() + 1)));
+					result.bytes += attachment.length();
+					result.attachments++;
+				}
+			}
+
+			File metaFile = metaFile(folder, note);
+			write(metaFile, metaJson(meta));
+
+			// Last edit some time after creation, most soon after.
+			long modified = created + (long) (Math.pow(r.nextDouble(), 4) * 365 * 24 * 3600 * 1000L);
+			note.setLastModified(modified);
+			metaFile.setLastModified(modified);
+			for (File attachment : attachments) {
+				attachment.setLastModified(created);
+			}
+
+			result.bytes += note.length() + metaFile.length();
+			result.notes++;
+		}
+
+		return result;
+	}
+
+	// Changes to make in replay(), with weights.
+	private static enum Change {
+		edit(35), create(12), move(12), trash(8), retitle(8), retag(10), mobileMove(10), mobileNotebook(5);
+
+		final int weight;
+
+		Change(int weight) {
+			this.weight = weight;
+		}
+
+		static Change pick(Random r) {
+			int total = 0;
+			for (Change c : values()) {
+				total += c.weight;
+			}
+			int n = r.nextInt(total);
+			for (Change c : values()) {
+				n -= c.weight;
+				if (n < 0) {
+					return c;
+				}
+			}
+			throw new IllegalStateException();
+		}
+	}
+
+	// Make count changes to vault, delayMs apart. Mobile changes are done in
+	// dropbox, Elephant's folder in Dropbox (Apps/Elephant), where Sync reads
+	// .events from. Without it, they're left out.
+	public static void replay(File vault, File dropbox, int count, long seed, long delayMs) throws IOException {
+		Random r = new Random(seed);
+
+		List<File> notebooks = notebooks(vault);
+		if (notebooks.isEmpty()) {
+			throw new IOException("No notebooks in " + vault);
+		}
+		List<File> notes = notes(notebooks);
+
+		List<File> mobileNotebooks = dropbox == null ? null : notebooks(dropbox);
+		List<File> mobileNotes = dropbox == null ? null : notes(mobileNotebooks);
+
+		File trash = new File(vault, "Trash");
+		trash.mkdirs();
+
+		for (int n = 0; n < count; n++) {
+			Change change = Change.pick(r);
+			if ((change == Change.mobileMove || change == Change.mobileNotebook) && dropbox == null) {
+				change = Change.edit;
+			}
+			if (change == Change.mobileMove && (mobileNotes.isEmpty() || mobileNotebooks.size() < 2)) {
+				change = Change.mobileNotebook;
+			}
+			if (notes.isEmpty() && change != Change.mobileNotebook) {
+				change = Change.create;
+			}
+
+			File note = notes.isEmpty() ? null : notes.get(r.nextInt(notes.size()));
+			String what;
+
+			switch (change) {
+			case edit: {
+				String ext = "." + FilenameUtils.getExtension(note.getName());
+				String text = FileUtils.readFileToString(note, UTF8);
+				if (ext.equals(".txt") || ext.equals(".md")) {
+					text += "\n" + words(r, 5 + r.nextInt(30), true);
+				} else {
+					text = body(r, ext, words(r, 3, false), 20 + r.nextInt(300));
+				}
+				write(note, text);
+				what = "edited " + note;
+				break;
+			}
+			case create: {
+				File nb = notebooks.get(r.nextInt(notebooks.size()));
+				String ext = extension(r);
+				String title = words(r, 1 + r.nextInt(6), false);
+				note = new File(nb, Long.toString(System.currentTimeMillis(), 36) + "_" + n + ext);
+				write(note, body(r, ext, title, 20 + r.nextInt(300)));
+
+				Map<String, String> meta = Factory.newHashMap();
+				meta.put("title", title);
+				meta.put("created", String.valueOf(System.currentTimeMillis()));
+				write(metaFile(vault, note), metaJson(meta));
+
+				notes.add(note);
+				what = "created " + note;
+				break;
+			}
+			case move:
+			case trash: {
+				File nb = change == Change.trash ? trash : notebooks.get(r.nextInt(notebooks.size()));
+				if (nb.equals(note.getParentFile())) {
+					what = "skipped move of " + note + ", same notebook";
+					break;
+				}
+				File dest = moveNote(vault, note, nb);
+				notes.remove(note);
+				if (change == Change.move) {
+					notes.add(dest);
+				}
+				what = (change == Change.trash ? "trashed " : "moved ") + note + " to " + dest;
+				break;
+			}
+			case retitle:
+			case retag: {
+				File metaFile = metaFile(vault, note);
+				Map<String, String> meta = readMeta(metaFile);
+				if (change == Change.retitle) {
+					meta.put("title", words(r, 1 + r.nextInt(6), false));
+				} else {
+					String tags = meta.get("tagIds");
+					if (tags == null || tags.isEmpty()) {
+						what = "skipped retag of " + note + ", no tags";
+						break;
+					}
+					// Drop the last tag
+					int comma = tags.lastIndexOf(',');
+					meta.put("tagIds", comma < 0 ? "" : tags.substring(0, comma));
+				}
+				write(metaFile, metaJson(meta));
+				what = (change == Change.retitle ? "retitled " : "retagged ") + note;
+				break;
+			}
+			case mobileMove: {
+				File source = mobileNotes.get(r.nextInt(mobileNotes.size()));
+				File nb = mobileNotebooks.get(r.nextInt(mobileNotebooks.size()));
+				if (nb.equals(source.getParentFile())) {
+					what = "skipped mobile move of " + source + ", same notebook";
+					break;
+				}
+
+				String hash = ContentHashCache.compute(source);
+				File dest = moveNote(dropbox, source, nb);
+				mobileNotes.remove(source);
+				mobileNotes.add(dest);
+
+				JSONObject event = new JSONObject();
+				try {
+					event.put("op", "move");
+					event.put("sourceNote", "/" + relativePath(dropbox, source));
+					event.put("destNote", "/" + relativePath(dropbox, dest));
+					event.put("sourceMeta", "/" + relativePath(dropbox, metaFile(dropbox, source)));
+					event.put("destMeta", "/" + relativePath(dropbox, metaFile(dropbox, dest)));
+					event.put("contentHash", hash);
+				} catch (JSONException e) {
+					throw new IOException(e);
+				}
+				writeEvent(dropbox, seed, n, event);
+				what = "mobile moved " + source + " to " + dest;
+				break;
+			}
+			case mobileNotebook: {
+				String name = "Mobile " + words(r, 1, false) + " " + n;
+				File nb = new File(dropbox, name);
+				nb.mkdirs();
+				mobileNotebooks.add(nb);
+
+				JSONObject event = new JSONObject();
+				try {
+					event.put("op", "newnotebook");
+					event.put("name", name);
+				} catch (JSONException e) {
+					throw new IOException(e);
+				}
+				writeEvent(dropbox, seed, n, event);
+				what = "mobile created notebook " + nb;
+				break;
+			}
+			default:
+				throw new IllegalStateException();
+			}
+
+			System.out.println((n + 1) + "/" + count + " " + what);
+
+			if (delayMs > 0) {
+				try {
+					Thread.sleep(delayMs);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	private static String extension(Random r) {
+		int n = r.nextInt(100);
+		if (n < 50) {
+			return ".txt";
+		}
+		if (n < 75) {
+			return ".md";
+		}
+		if (n < 90) {
+			return ".rtf";
+		}
+		return ".html";
+	}
+
+	private static String words(Random r, int count, boolean sentences) {
+		StringBuilder sb = new StringBuilder();
+		for (int n = 0; n < count; n++) {
+			String w = WORDS[r.nextInt(WORDS.length)];
+			if (sentences && (n == 0 || sb.charAt(sb.length() - 1) == '\n')) {
+				w = Character.toUpperCase(w.charAt(0)) + w.substring(1);
+			}
+			sb.append(w);
+			if (n < count - 1) {
+				sb.append(sentences && r.nextInt(12) == 0 ? ".\n" : " ");
+			}
+		}
+		return sb.toString();
+	}
+
+	// Note contents in the format of ext.
+	private static String body(Random r, String ext, String title, int wordCount) throws IOException {
+		String text = words(r, wordCount, true);
+
+		if (ext.equals(".md")) {
+			StringBuilder sb = new StringBuilder("# " + title + "\n\n");
+			for (String line : text.split("\n")) {
+				switch (r.nextInt(6)) {
+				case 0:
+					sb.append("## ").append(line).append("\n\n");
+					break;
+				case 1:
+					sb.append("- ").append(line).append("\n- **").append(WORDS[r.nextInt(WORDS.length)]).append("**\n\n");
+					break;
+				case 2:
+					sb.append("[").append(line).append("](http://example.com/").append(r.nextInt(1000)).append(")\n\n");
+					break;
+				case 3:
+					sb.append("```\n").append(line).append("\n```\n\n");
+					break;
+				default:
+					sb.append(line).append(" *").append(WORDS[r.nextInt(WORDS.length)]).append("*\n\n");
+				}
+			}
+			return sb.toString();
+		}
+
+		if (ext.equals(".rtf")) {
+			// As the editor saves it
+			DefaultStyledDocument doc = new DefaultStyledDocument();
+			try {
+				doc.insertString(0, text, null);
+			} catch (BadLocationException e) {
+				throw new IOException(e);
+			}
+			return RtfUtil.getRtf(doc);
+		}
+
+		if (ext.equals(".html")) {
+			StringBuilder sb = new StringBuilder("<html><head><title>" + title + "</title></head><body>\n<h1>" + title + "</h1>\n");
+			for (String line : text.split("\n")) {
+				sb.append("<p>").append(line).append("</p>\n");
+			}
+			return sb.append("</body></html>\n").toString();
+		}
+
+		return text;
+	}
+
+	// An image or PDF, named by index in the note's attachment folder.
+	private static File attachment(Random r, File folder, int index) throws IOException {
+		folder.mkdirs();
+
+		int kind = r.nextInt(10);
+		if (kind < 3) {
+			File f = new File(folder, "document " + index + ".pdf");
+			FileUtils.writeByteArrayToFile(f, pdf(words(r, 10 + r.nextInt(40), false)));
+			return f;
+		}
+
+		// Photos are large, screenshots smaller PNGs.
+		boolean photo = kind < 7;
+		int w = photo ? 800 + r.nextInt(2400) : 300 + r.nextInt(900);
+		int h = w * (photo ? 3 : 2 + r.nextInt(2)) / 4;
+
+		BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setPaint(new GradientPaint(0, 0, new Color(r.nextInt(0xffffff)), w, h, new Color(r.nextInt(0xffffff))));
+		g.fillRect(0, 0, w, h);
+		for (int n = 0; n < 40; n++) {
+			g.setColor(new Color(r.nextInt(0xffffff)));
+			g.fillOval(r.nextInt(w), r.nextInt(h), 10 + r.nextInt(w / 4), 10 + r.nextInt(h / 4));
+		}
+		g.dispose();
+
+		File f = new File(folder, (photo ? "photo " : "screenshot ") + index + (photo ? ".jpg" : ".png"));
+		ImageIO.write(image, photo ? "jpg" : "png", f);
+		return f;
+	}
+
+	// One page PDF showing text.
+	private static byte[] pdf(String text) throws IOException {
+		String stream = "BT /F1 12 Tf 72 720 Td (" + text.replaceAll("[^a-zA-Z0-9 ]", "") + ") Tj ET";
+		String[] objects = { "<< /Type /Catalog /Pages 2 0 R >>", "<< /Type /Pages /Kids [3 0 R] /Count 1 >>",
+				"<< /Type /Page /Parent 2 0 R /MediaBox [0 0 612 792] /Contents 4 0 R /Resources << /Font << /F1 5 0 R >> >> >>",
+				"<< /Length " + stream.length() + " >>\nstream\n" + stream + "\nendstream",
+				"<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica >>" };
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write("%PDF-1.4\n".getBytes("US-ASCII"));
+
+		int[] offsets = new int[objects.length];
+		for (int n = 0; n < objects.length; n++) {
+			offsets[n] = out.size();
+			out.write(((n + 1) + " 0 obj\n" + objects[n] + "\nendobj\n").getBytes("US-ASCII"));
+		}
+
+		int xref = out.size();
+		StringBuilder sb = new StringBuilder("xref\n0 " + (objects.length + 1) + "\n0000000000 65535 f \n");
+		for (int offset : offsets) {
+			sb.append(String.format("%010d 00000 n \n", offset));
+		}
+		sb.append("trailer\n<< /Size " + (objects.length + 1) + " /Root 1 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+		out.write(sb.toString().getBytes("US-ASCII"));
+
+		return out.toByteArray();
+	}
+
+	private static long writeTags(File f, List<String> ids, List<String> names) throws IOException {
+		JSONArray arr = new JSONArray();
+		try {
+			for (int n = 0; n < ids.size(); n++) {
+				JSONObject t = new JSONObject();
+				t.put("id", ids.get(n));
+				t.put("name", names.get(n));
+				t.put("parentId", "");
+				arr.put(t);
+			}
+			JSONObject o = new JSONObject();
+			o.put("tags", arr);
+			write(f, o.toString(4));
+		} catch (JSONException e) {
+			throw new IOException(e);
+		}
+		return f.length();
+	}
+
+	// Same place as Note keeps it: .meta/<notebook>_<file>
+	private static File metaFile(File home, File note) {
+		return new File(home, ".meta" + File.separator + note.getParentFile().getName() + "_" + note.getName());
+	}
+
+	private static String metaJson(Map<String, String> meta) throws IOException {
+		try {
+			return new JSONObject(meta).toString(4);
+		} catch (JSONException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static Map<String, String> readMeta(File f) throws IOException {
+		Map<String, String> map = Factory.newHashMap();
+		if (f.exists()) {
+			try {
+				JSONObject o = new JSONObject(FileUtils.readFileToString(f, UTF8));
+				@SuppressWarnings("unchecked")
+				Iterator<String> i = o.keys();
+				while (i.hasNext()) {
+					String key = i.next();
+					map.put(key, o.optString(key));
+				}
+			} catch (JSONException e) {
+				throw new IOException(e);
+			}
+		}
+		return map;
+	}
+
+	// Move note, meta and attachments to notebook, as a file manager would.
+	private static File moveNote(File home, File note, File notebook) throws IOException {
+		File dest = new File(notebook, note.getName());
+		if (dest.exists()) {
+			dest = new File(notebook, FilenameUtils.getBaseName(note.getName()) + "_" + System.nanoTime() + "." + FilenameUtils.getExtension(note.getName()));
+		}
+		FileUtils.moveFile(note, dest);
+
+		File meta = metaFile(home, note);
+		if (meta.exists()) {
+			FileUtils.moveFile(meta, metaFile(home, dest));
+		}
+
+		File attachments = new File(note.getAbsolutePath() + ".attachments");
+		if (attachments.exists()) {
+			FileUtils.moveDirectory(attachments, new File(dest.getAbsolutePath() + ".attachments"));
+		}
+
+		return dest;
+	}
+
+	private static void writeEvent(File dropbox, long seed, int n, JSONObject event) throws IOException {
+		File f = new File(dropbox, ".events" + File.separator + String.format("replay-%d-%06d.json", seed, n));
+		write(f, event.toString());
+	}
+
+	private static String relativePath(File home, File f) {
+		return f.getAbsolutePath().substring(home.getAbsolutePath().length() + 1).replace(File.separatorChar, '/');
+	}
+
+	private static List<File> notebooks(File home) {
+		List<File> list = Factory.newArrayList();
+		File[] files = home.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				if (f.isDirectory() && f.getName().charAt(0) != '.' && !f.getName().equals("Trash")) {
+					list.add(f);
+				}
+			}
+		}
+		// listFiles() order varies, replay must not.
+		Collections.sort(list);
+		return list;
+	}
+
+	private static List<File> notes(List<File> notebooks) {
+		List<File> list = Factory.newArrayList();
+		for (File nb : notebooks) {
+			for (File f : nb.listFiles()) {
+				if (f.isFile() && f.getName().charAt(0) != '.' && Notebook.isNoteExtension(FilenameUtils.getExtension(f.getName()))) {
+					list.add(f);
+				}
+			}
+		}
+		Collections.sort(list);
+		return list;
+	}
+
+	private static void write(File f, String s) throws IOException {
+		f.getParentFile().mkdirs();
+		FileUtils.writeStringToFile(f, s, UTF8);
+	}
+
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+
+		if (args.length >= 2 && args[0].equals("generate")) {
+			int notes = profileNotes(args.length > 2 ? args[2] : "medium");
+			long seed = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_SEED;
+
+			long start = System.currentTimeMillis();
+			Result result = generate(new File(args[1]), notes, seed);
+			System.out.println(result + " in " + (System.currentTimeMillis() - start) + " ms");
+			return;
+		}
+
+		if (args.length >= 2 && args[0].equals("replay")) {
+			int count = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+			long seed = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_SEED;
+			long delayMs = args.length > 4 ? Long.parseLong(args[4]) : 0;
+			File dropbox = args.length > 5 ? new File(args[5]) : null;
+
+			replay(new File(args[1]), dropbox, count, seed, delayMs);
+			return;
+		}
+
+		System.out.println("Usage:");
+		System.out.println("  VaultGenerator generate <folder> [small|medium|large|huge|<notes>] [seed]");
+		System.out.println("  VaultGenerator replay <vault> [<changes> [seed [delayMs [dropboxFolder]]]]");
+	}
+}
@@ -0,0 +1,131 @@
+package com.pinktwins.elephant.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Encrypting and decrypting note text, one at a time, in batches and
+// streamed. Setup checks that the string and the streamed format decrypt
+// with each other, and that a batch decrypts back to its inputs.
+//
+// Run with: gradle jmh -Pjmh=CryptoBenchmark
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CryptoBenchmark {
+
+	private static final String PASSWORD = "elephant";
+
+	// Texts in a batch, as when decrypting the encrypted parts of a note
+	private static final int BATCH = 20;
+
+	@Param({ "1000", "1000000" })
+	int chars;
+
+	String text;
+	byte[] textBytes;
+	List<String> texts = Factory.newArrayList();
+
+	String encrypted;
+	byte[] streamed;
+	List<String> encryptedAll;
+
+	@Setup
+	public void setup() throws Exception {
+		Random r = new Random(chars);
+
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < chars) {
+			sb.append(Long.toString(r.nextLong(), 36)).append(sb.length() % 80 < 10 ? "\n" : " ");
+		}
+		text = sb.toString();
+		textBytes = text.getBytes();
+
+		for (int n = 0; n < BATCH; n++) {
+			texts.add(n + ": " + text.substring(0, Math.min(text.length(), 200)));
+		}
+
+		encrypted = CryptoUtil.encrypt(PASSWORD, text);
+		streamed = encryptStream();
+		encryptedAll = CryptoUtil.encryptAll(PASSWORD, texts);
+
+		check();
+	}
+
+	private void check() throws Exception {
+		// Streamed format, read as a string
+		if (!text.equals(CryptoUtil.decrypt(PASSWORD, new String(streamed, "US-ASCII")))) {
+			throw new IllegalStateException("Streamed encrypt doesn't decrypt as string");
+		}
+
+		// String format, read as a stream
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CryptoUtil.decrypt(PASSWORD, new ByteArrayInputStream(encrypted.getBytes("US-ASCII")), out);
+		if (!text.equals(new String(out.toByteArray()))) {
+			throw new IllegalStateException("String encrypt doesn't decrypt as stream");
+		}
+
+		// Both formats, with themselves
+		if (!text.equals(CryptoUtil.decrypt(PASSWORD, encrypted)) || !text.equals(new String(decryptStream()))) {
+			throw new IllegalStateException("Encrypt doesn't decrypt");
+		}
+
+		if (!texts.equals(CryptoUtil.decryptAll(PASSWORD, encryptedAll))) {
+			throw new IllegalStateException("encryptAll doesn't decrypt");
+		}
+	}
+
+	// New salt, so a key derivation each time.
+	@Benchmark
+	public String encrypt() {
+		return CryptoUtil.encrypt(PASSWORD, text);
+	}
+
+	// Key cached after the first time.
+	@Benchmark
+	public String decrypt() throws Exception {
+		return CryptoUtil.decrypt(PASSWORD, encrypted);
+	}
+
+	@Benchmark
+	public List<String> encryptAll() throws Exception {
+		return CryptoUtil.encryptAll(PASSWORD, texts);
+	}
+
+	@Benchmark
+	public List<String> decryptAll() throws Exception {
+		return CryptoUtil.decryptAll(PASSWORD, encryptedAll);
+	}
+
+	@Benchmark
+	public byte[] encryptStream() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CryptoUtil.encrypt(PASSWORD, new ByteArrayInputStream(textBytes), out);
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] decryptStream() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CryptoUtil.decrypt(PASSWORD, new ByteArrayInputStream(streamed), out);
+		return out.toByteArray();
+	}
+}
@@ -11,6 +11,7 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 
 import com.pinktwins.elephant.data.Note;
+import com.pinktwins.elephant.data.Vault;
 import com.pinktwins.elephant.ui.RetinaImageIcon;
 
 public class CardViewNoteItem extends NoteItem {
@@ -53,7 +54,7 @@ public class CardViewNoteItem extends NoteItem {
 
 	@Override
 	protected String getContentPreview() {
-		String contents = note.contents().trim();
+		String contents = Vault.getInstance().getSnippet(note).preview;
 		if (contents.length() > 200) {
 			contents = contents.substring(0, 200) + "…";
 		}
@@ -66,6 +67,7 @@ public class CardViewNoteItem extends NoteItem {
 		if (scaled != null) {
 			JLabel l = new JLabel("");
 			l.setIcon(new RetinaImageIcon(scaled));
+			thumbnailBytes = imageBytes(scaled);
 			l.setBounds(0, 4, 190, 99);
 
 			JPanel pa = new JPanel(null);
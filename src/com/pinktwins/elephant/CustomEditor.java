@@ -26,6 +26,7 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -52,12 +53,15 @@ import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultCaret;
 import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.DefaultStyledDocument.ElementSpec;
 import javax.swing.text.Document;
 import javax.swing.text.Element;
 import javax.swing.text.ElementIterator;
 import javax.swing.text.MutableAttributeSet;
 import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.Style;
 import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
 import javax.swing.text.StyledEditorKit;
 import javax.swing.undo.UndoManager;
 
@@ -449,7 +453,20 @@ public class CustomEditor extends RoundPanel {
 
 			if (text != null && !text.isEmpty()) {
 				try {
-					String dec = cryptoUtil.decryptBase64(pw, text);
+					String dec = null;
+					List<String> blocks = encryptedLines(text);
+					if (blocks.size() > 1) {
+						// Several blocks, decrypted in parallel
+						StringBuilder sb = new StringBuilder();
+						for (String s : CryptoUtil.decryptAll(pw, blocks)) {
+							if (s != null) {
+								sb.append(sb.length() > 0 ? "\n" : "").append(s);
+							}
+						}
+						dec = sb.length() > 0 ? sb.toString() : null;
+					} else {
+						dec = cryptoUtil.decryptBase64(pw, text);
+					}
 					if (dec == null) {
 						new ToastEvent("No ecrypted data found").post();
 						return;
@@ -470,15 +487,23 @@ public class CustomEditor extends RoundPanel {
 		}
 	}
 
+	// Lines starting with 'encv0:'
+	private static List<String> encryptedLines(String s) {
+		List<String> lines = Factory.newArrayList();
+		for (String line : s.split("\n")) {
+			if (line.indexOf("encv0:") == 0) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
 	private String findEncryptedText() {
-		// Find first line starting with 'encv0:'
+		// All lines starting with 'encv0:'
 		try {
-			String s = getText();
-			String[] arr = s.split("\n");
-			for (String line : arr) {
-				if (line.indexOf("encv0:") == 0) {
-					return line;
-				}
+			List<String> lines = encryptedLines(getText());
+			if (!lines.isEmpty()) {
+				return String.join("\n", lines);
 			}
 		} catch (BadLocationException e) {
 		}
@@ -1090,16 +1115,133 @@ public class CustomEditor extends RoundPanel {
 		note.setCaretPosition(0);
 	}
 
+	// Empty note document, to be filled off the EDT and shown with setDocument().
+	static StyledDocument newDocument() {
+		return new CustomDocument();
+	}
+
+	// setTextRtfOrPlain() for a document not shown yet. Returns true if rich text.
+	static boolean readText(StyledDocument doc, String s) {
+		if (s == null || s.isEmpty()) {
+			return false;
+		}
+
+		if (s.indexOf("{\\rtf") == 0) {
+			try {
+				RtfUtil.putRtf(doc, s, 0);
+				if (doc.getLength() > 0) {
+					return true;
+				}
+			} catch (IOException e) {
+				LOG.severe("Fail: " + e);
+			} catch (BadLocationException e) {
+				LOG.severe("Fail: " + e);
+			}
+		}
+
+		try {
+			doc.remove(0, doc.getLength());
+			// Same as JTextPane.setText(), which reads through the editor kit.
+			new StyledEditorKit().read(new StringReader(s), doc, 0);
+		} catch (IOException e) {
+			LOG.severe("Fail: " + e);
+		} catch (BadLocationException e) {
+			LOG.severe("Fail: " + e);
+		}
+		return false;
+	}
+
+	void setDocument(StyledDocument doc, boolean richText) {
+		note.setDocument(doc);
+		note.getDocument().addUndoableEditListener(new UndoEditListener());
+		isRichText = richText;
+		note.setCaretPosition(0);
+	}
+
 	public String getTitle() {
 		return title.getText();
 	}
 
 	public String getText() throws BadLocationException {
-		Document doc = note.getDocument();
+		return getText(note.getDocument(), isRichText);
+	}
+
+	// Rtf if rich text, plain text otherwise or if rtf can't be made.
+	static String getText(Document doc, boolean richText) throws BadLocationException {
 		String plain = doc.getText(0, doc.getLength());
-		String rtf = RtfUtil.getRtf(doc);
+		String rtf = richText ? RtfUtil.getRtf(doc) : null;
+
+		return rtf != null && rtf.length() > 0 ? rtf : plain;
+	}
+
+	// Detached copy of the note's text, character and paragraph attributes,
+	// so getText() of it can run off the EDT. Built in one go from element
+	// specs, much cheaper than writing rtf. Attachment elements must have
+	// been removed first.
+	public StyledDocument snapshotDocument() throws BadLocationException {
+		return snapshot(note.getStyledDocument());
+	}
 
-		return rtf != null && rtf.length() > 0 && isRichText ? rtf : plain;
+	static StyledDocument snapshot(StyledDocument doc) throws BadLocationException {
+		SnapshotDocument copy = new SnapshotDocument();
+		List<ElementSpec> specs = Factory.newArrayList();
+
+		// First spec carries the root attributes, paragraphs follow. The last
+		// paragraph joins the one an empty document already has.
+		Element root = doc.getDefaultRootElement();
+		int last = root.getElementCount() - 1;
+		specs.add(new ElementSpec(copy.copyAttributes(root), ElementSpec.StartTagType));
+		for (int p = 0; p <= last; p++) {
+			Element par = root.getElement(p);
+			ElementSpec tag = new ElementSpec(copy.copyAttributes(par), ElementSpec.StartTagType);
+			if (p == last) {
+				tag.setDirection(ElementSpec.JoinNextDirection);
+			}
+			specs.add(tag);
+
+			for (int n = 0; n < par.getElementCount(); n++) {
+				Element run = par.getElement(n);
+				int start = run.getStartOffset();
+				// Leave out the implied newline at the end, the copy has its own
+				int end = Math.min(run.getEndOffset(), doc.getLength());
+				if (end > start) {
+					char[] text = doc.getText(start, end - start).toCharArray();
+					specs.add(new ElementSpec(copy.copyAttributes(run), ElementSpec.ContentType, text, 0, text.length));
+				}
+			}
+
+			if (p != last) {
+				specs.add(new ElementSpec(null, ElementSpec.EndTagType));
+			}
+		}
+
+		copy.load(specs.toArray(new ElementSpec[specs.size()]));
+		copy.setParagraphAttributes(copy.getLength(), 0, copy.copyAttributes(root.getElement(last)), true);
+		return copy;
+	}
+
+	private static class SnapshotDocument extends DefaultStyledDocument {
+		private static final long serialVersionUID = 1L;
+
+		void load(ElementSpec[] specs) {
+			create(specs);
+		}
+
+		// Styles are looked up by name, so rtf output sees this document's
+		// styles instead of the source document's.
+		AttributeSet copyAttributes(Element e) {
+			AttributeSet a = e.getAttributes();
+			AttributeSet parent = a.getResolveParent();
+			if (parent instanceof Style) {
+				Style style = getStyle(((Style) parent).getName());
+				if (style != null && style != parent) {
+					MutableAttributeSet m = new SimpleAttributeSet(a);
+					m.setResolveParent(style);
+					return m;
+				}
+			}
+			return a.copyAttributes();
+		}
 	}
 
 	public void clear() {
@@ -0,0 +1,75 @@
+package com.pinktwins.elephant;
+
+import java.awt.BorderLayout;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+
+import javax.swing.JFrame;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+
+import com.pinktwins.elephant.util.Metrics;
+
+// Hidden window showing all metrics, refreshed every second while open.
+// Toggled with Cmd/Ctrl+Alt+Shift+D.
+
+class DiagnosticsWindow extends JFrame {
+
+	private static final long serialVersionUID = -2316402751190517437L;
+
+	private static DiagnosticsWindow instance;
+
+	private final JTextArea text = new JTextArea();
+
+	private final Timer refresh = new Timer(1000, new ActionListener() {
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			update();
+		}
+	});
+
+	static void toggle() {
+		if (instance == null) {
+			instance = new DiagnosticsWindow();
+		}
+
+		if (instance.isVisible()) {
+			instance.setVisible(false);
+			instance.refresh.stop();
+		} else {
+			instance.update();
+			instance.setVisible(true);
+			instance.refresh.start();
+		}
+	}
+
+	private DiagnosticsWindow() {
+		super("Elephant diagnostics");
+
+		text.setEditable(false);
+		text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+
+		setLayout(new BorderLayout());
+		add(new JScrollPane(text), BorderLayout.CENTER);
+		setSize(900, 600);
+		setLocationByPlatform(true);
+		setDefaultCloseOperation(HIDE_ON_CLOSE);
+
+		addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e) {
+				refresh.stop();
+			}
+		});
+	}
+
+	private void update() {
+		int caret = text.getCaretPosition();
+		text.setText(Metrics.dump());
+		text.setCaretPosition(Math.min(caret, text.getDocument().getLength()));
+	}
+}
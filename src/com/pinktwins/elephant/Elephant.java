@@ -9,10 +9,11 @@ import java.util.logging.Logger;
 
 import javax.swing.UIManager;
 
-import com.google.common.eventbus.EventBus;
 import com.pinktwins.elephant.data.ElephantUndoManager;
+import com.pinktwins.elephant.data.NoteSaveQueue;
 import com.pinktwins.elephant.data.Settings;
 import com.pinktwins.elephant.data.Vault;
+import com.pinktwins.elephant.eventbus.ElephantEventBus;
 
 public class Elephant {
 
@@ -20,7 +21,7 @@ public class Elephant {
 
 	private static final Logger LOG = Logger.getLogger(Elephant.class.getName());
 
-	public static final EventBus eventBus = new EventBus();
+	public static final ElephantEventBus eventBus = new ElephantEventBus();
 	public static final Settings settings = new Settings();
 	public static final ElephantUndoManager undoManager = new ElephantUndoManager();
 
@@ -82,6 +83,9 @@ public class Elephant {
 				return false;
 			}
 
+			NoteSaveQueue.getInstance().flush();
+			settings.flush();
+
 			final ProcessBuilder builder = new ProcessBuilder(command);
 			builder.start();
 			System.out.println("Restarting...");
@@ -55,6 +55,7 @@ import org.apache.commons.lang3.SystemUtils;
 import com.google.common.eventbus.Subscribe;
 import com.pinktwins.elephant.NoteEditor.NoteEditorStateListener;
 import com.pinktwins.elephant.data.Note;
+import com.pinktwins.elephant.data.NoteSaveQueue;
 import com.pinktwins.elephant.data.Notebook;
 import com.pinktwins.elephant.data.Search;
 import com.pinktwins.elephant.data.Settings;
@@ -70,9 +71,12 @@ import com.pinktwins.elephant.eventbus.ToastEvent;
 import com.pinktwins.elephant.eventbus.UIEvent;
 import com.pinktwins.elephant.eventbus.UndoRedoStateUpdateRequest;
 import com.pinktwins.elephant.eventbus.VaultEvent;
+import com.pinktwins.elephant.util.CryptoUtil;
 import com.pinktwins.elephant.util.Images;
 import com.pinktwins.elephant.util.LaunchUtil;
+import com.pinktwins.elephant.util.Metrics;
 import com.pinktwins.elephant.util.ScreenUtil;
+import com.pinktwins.elephant.util.TaskExecutor;
 
 public class ElephantWindow extends JFrame {
 
@@ -853,6 +857,11 @@ public class ElephantWindow extends JFrame {
 			public void windowDeactivated(WindowEvent e) {
 				hasWindowFocus = false;
 				toolBar.focusLost();
+
+				// Focus went to another application, forget encryption keys.
+				if (e.getOppositeWindow() == null) {
+					CryptoUtil.lock();
+				}
 			}
 
 			@Override
@@ -893,7 +902,7 @@ public class ElephantWindow extends JFrame {
 		// Also cache notelist items to speed up search result displays.
 
 		if (!startCalled && !Search.ssi.ready()) {
-			new Thread() {
+			TaskExecutor.INDEX.submit("searchOptimization", TaskExecutor.LOW, new Runnable() {
 				@Override
 				public void run() {
 					toolBar.indexingInProgress(true);
@@ -904,10 +913,9 @@ public class ElephantWindow extends JFrame {
 						return;
 					}
 
-					System.out.println("Search optimization..");
-					long start = System.currentTimeMillis();
+					long start = System.nanoTime();
 					Search.search("searchOptimization");
-					System.out.println("Done in " + (System.currentTimeMillis() - start) + " ms");
+					Metrics.time("startup.searchOptimization", start);
 
 					tagList.ssiDone();
 					toolBar.indexingInProgress(false);
@@ -918,27 +926,26 @@ public class ElephantWindow extends JFrame {
 						return;
 					}
 
-					if (Vault.getInstance().getNoteCount() < 20000) {
-						System.out.println("Thumbnail cache..");
-						start = System.currentTimeMillis();
+					// Warm up note list items until the item cache budget is used.
+					start = System.nanoTime();
 
-						// 'delete note' synchronizes to Search.lockObject - cache trashed notes
-						// using that same lock.
-						synchronized (Search.lockObject) {
-							Notebook all = Notebook.getNotebookWithAllNotes();
-							noteList.prepareCache(all);
-							noteList.cache(all);
-							System.out.println("Thumbnail cache.. trash..");
+					// 'delete note' synchronizes to Search.lockObject - cache trashed notes
+					// using that same lock.
+					synchronized (Search.lockObject) {
+						Notebook all = Notebook.getNotebookWithAllNotes();
+						noteList.prepareCache(all);
+						noteList.cache(all);
 
+						if (!NoteItem.isItemCacheFull()) {
 							Notebook trash = Vault.getInstance().findNotebook(Vault.getInstance().getTrash());
 							noteList.prepareCache(trash);
 							noteList.cache(trash);
 						}
-
-						System.out.println("Done in " + (System.currentTimeMillis() - start) + " ms");
 					}
+
+					Metrics.time("startup.itemCache", start);
 				}
-			}.start();
+			});
 		}
 
 		ScreenUtil.enableOSXFullscreen(this);
@@ -957,6 +964,8 @@ public class ElephantWindow extends JFrame {
 		}
 
 		if (!alive) {
+			NoteSaveQueue.getInstance().flush();
+			Elephant.settings.flush();
 			System.exit(0);
 		}
 	}
@@ -1075,6 +1084,12 @@ public class ElephantWindow extends JFrame {
 
 		@Override
 		public boolean dispatchKeyEvent(KeyEvent e) {
+			if (e.getID() == KeyEvent.KEY_PRESSED && e.getKeyCode() == KeyEvent.VK_D
+					&& (e.getModifiers() & (menuMask | KeyEvent.ALT_MASK | KeyEvent.SHIFT_MASK)) == (menuMask | KeyEvent.ALT_MASK | KeyEvent.SHIFT_MASK)) {
+				DiagnosticsWindow.toggle();
+				return true;
+			}
+
 			if (!hasWindowFocus && previousKeyEvent != e) {
 				// XXX the windows accumulate. Get rid of them.
 				for (Window w : getWindows()) {
@@ -1932,6 +1947,8 @@ public class ElephantWindow extends JFrame {
 		case notebookCreated:
 			break;
 		case notebookListChanged:
+			break;
+		case notebookListUpdated:
 			notebooks.refresh();
 			break;
 		case notebookRefreshed:
@@ -4,12 +4,14 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
+import java.awt.EventQueue;
 import java.awt.FlowLayout;
 import java.awt.GraphicsConfiguration;
 import java.awt.GraphicsDevice;
 import java.awt.GraphicsEnvironment;
 import java.awt.HeadlessException;
 import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.Transparency;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -21,7 +23,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import javax.swing.BorderFactory;
@@ -32,7 +34,12 @@ import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTextPane;
-import javax.swing.SwingWorker;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.event.AncestorEvent;
+import javax.swing.event.AncestorListener;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Style;
 import javax.swing.text.StyleConstants;
@@ -48,7 +55,6 @@ import com.pinktwins.elephant.util.CustomMouseListener;
 import com.pinktwins.elephant.util.Factory;
 import com.pinktwins.elephant.util.Images;
 import com.pinktwins.elephant.util.LaunchUtil;
-import com.pinktwins.elephant.util.PdfUtil;
 import com.pinktwins.elephant.util.SimpleImageInfo;
 
 public class FileAttachment extends JPanel {
@@ -300,12 +306,12 @@ public class FileAttachment extends JPanel {
 	}
 
 	class PdfPageProvider implements PreviewPageProvider {
-		PdfUtil pdf;
+		File pdf;
 		int page;
 		File outPath;
 		int minimumWidth;
 
-		public PdfPageProvider(PdfUtil pdf, int page, File outPath, int minimumWidth) {
+		public PdfPageProvider(File pdf, int page, File outPath, int minimumWidth) {
 			this.pdf = pdf;
 			this.page = page;
 			this.outPath = outPath;
@@ -314,7 +320,7 @@ public class FileAttachment extends JPanel {
 
 		@Override
 		public Image getPage() {
-			Image img = pdf.writePage(page, outPath, minimumWidth);
+			Image img = PdfRenderService.getInstance().renderPage(pdf, page, outPath, minimumWidth);
 			if (img != null) {
 				img = scaler.scale(img, outPath);
 			}
@@ -328,15 +334,11 @@ public class FileAttachment extends JPanel {
 		}
 	}
 
-	class PdfHolder {
-		PdfUtil pdf;
-	}
-
 	private boolean isPdf(File f) {
 		return "pdf".equalsIgnoreCase(FilenameUtils.getExtension(f.getName()));
 	}
 
-	private List<PreviewPageProvider> getPreviewPages(File f, PdfHolder pdfHolder) {
+	private List<PreviewPageProvider> getPreviewPages(File f) {
 		List<PreviewPageProvider> pages = Factory.newArrayList();
 
 		int pagesAdded = 0;
@@ -362,7 +364,7 @@ public class FileAttachment extends JPanel {
 		int minWidth = -1;
 
 		if (isPdf(f)) {
-			PdfUtil pdf = new PdfUtil(f);
+			PdfRenderService pdf = PdfRenderService.getInstance();
 
 			// Check if pdf was rendered at enough quality
 			int previewWidth = -1;
@@ -375,7 +377,7 @@ public class FileAttachment extends JPanel {
 				}
 			} else {
 				// Not yet rendered, get width from pdf
-				previewWidth = (int) pdf.getPageBBoxWidth();
+				previewWidth = (int) pdf.pageWidth(f);
 			}
 
 			int targetWidth = (int) scaler.getTargetWidth();
@@ -386,26 +388,27 @@ public class FileAttachment extends JPanel {
 				pages.clear();
 			}
 
-			if (pdf.numPages() > gotPages) {
+			int numPages = pdf.numPages(f);
+			if (numPages > gotPages) {
 				File outPath = getPreviewDirectory(f);
 				outPath.mkdirs();
 				if (outPath.exists()) {
-					for (int n = gotPages; n < pdf.numPages(); n++) {
-						pages.add(new PdfPageProvider(pdf, n + 1, getPreviewFileForPage(outPath, n + 1), minWidth));
+					for (int n = gotPages; n < numPages; n++) {
+						pages.add(new PdfPageProvider(f, n + 1, getPreviewFileForPage(outPath, n + 1), minWidth));
 					}
 				}
 			}
-
-			pdfHolder.pdf = pdf;
 		}
 
 		return pages;
 	}
 
-	private void addPreview(File f) {
+	// How far outside the visible area pages are rendered ahead, in screens.
+	private static final int RENDER_AHEAD_SCREENS = 1;
 
-		final PdfHolder pdfHolder = new PdfHolder();
-		final List<PreviewPageProvider> pages = getPreviewPages(f, pdfHolder);
+	private void addPreview(final File f) {
+
+		final List<PreviewPageProvider> pages = getPreviewPages(f);
 
 		if (pages.size() > 0) {
 			final JTextPane tp = new JTextPane();
@@ -418,6 +421,7 @@ public class FileAttachment extends JPanel {
 			StyleConstants.setFontSize(style, 0);
 
 			final int noteHash = editor.noteHash();
+			final Dimension[] pageSizes = isPdf(f) ? PdfRenderService.getInstance().pageSizes(f) : null;
 
 			// pageIcons - one icon per page
 			final List<ImageIcon> pageIcons = Factory.newArrayList();
@@ -461,8 +465,8 @@ public class FileAttachment extends JPanel {
 				 * If pdf, check if aspect ratio changed. Must add a placeholder with correct aspect ratio, or cropping
 				 * will occur.
 				 */
-				if (pdfHolder.pdf != null) {
-					Dimension d = pdfHolder.pdf.pageSize(pageNum);
+				if (pageSizes != null && pageNum <= pageSizes.length) {
+					Dimension d = pageSizes[pageNum - 1];
 					if (d.width * 100 / d.height != w * 100 / h) {
 						blank = gc.createCompatibleImage(d.width, d.height, Transparency.BITMASK);
 						blank = scaler.scale(blank, new File(ImageScalingCache.getImageCacheDir() + File.separator + "blank.png"));
@@ -471,7 +475,7 @@ public class FileAttachment extends JPanel {
 					}
 				}
 
-				RetinaImageIcon ii = new RetinaImageIcon(blank);
+				RetinaImageIcon ii = new RetinaImageIcon(pageNum == 1 && page1 != null ? page1 : blank);
 				pageIcons.add(ii);
 
 				addPageBreak(tp, caretPosition - 4, style); // uses +2 caret
@@ -486,84 +490,198 @@ public class FileAttachment extends JPanel {
 				}
 			}
 
-			final Workers<Image> workers = new Workers<Image>();
-			int count = 0;
+			add(tp, BorderLayout.CENTER);
 
-			for (PreviewPageProvider ppp : pages) {
-				final PreviewPageProvider page = ppp;
-				final int num = count++;
+			if (pages.size() > 1) {
+				new LazyPages(f, tp, pages, pageIcons, noteHash).install();
+			}
+		}
+	}
 
-				workers.add(new SwingWorker<Image, Void>() {
-					@Override
-					protected Image doInBackground() throws Exception {
-						if (noteHash != editor.noteHash()) {
-							return null;
-						}
-						return page.getPage();
-					}
+	// Renders preview pages, page 1 excluded, when they come near the visible
+	// part of the editor. Stops when editor moves to another note.
+	private class LazyPages implements ChangeListener, AncestorListener {
+		final File file;
+		final JTextPane tp;
+		final List<PreviewPageProvider> pages;
+		final List<ImageIcon> pageIcons;
+		final int noteHash;
+
+		final boolean[] requested;
+		final List<Future<?>> futures = Factory.newArrayList();
+		int done = 1;
+		JViewport viewport;
+
+		LazyPages(File file, JTextPane tp, List<PreviewPageProvider> pages, List<ImageIcon> pageIcons, int noteHash) {
+			this.file = file;
+			this.tp = tp;
+			this.pages = pages;
+			this.pageIcons = pageIcons;
+			this.noteHash = noteHash;
+
+			requested = new boolean[pages.size()];
+			requested[0] = true;
+		}
 
-					@Override
-					protected void done() {
-						try {
-							Image img = get();
-							if (img != null) {
-								// int num = pages.size() - workers.size();
+		void install() {
+			loadingStartTs = System.currentTimeMillis();
+			tp.addAncestorListener(this);
+		}
 
-								if (num >= 0 && num < pageIcons.size()) {
-									pageIcons.get(num).setImage(img);
-									tp.repaint();
-									// editor.lockScrolling(false);
-								}
-							}
+		private void uninstall() {
+			tp.removeAncestorListener(this);
+			if (viewport != null) {
+				viewport.removeChangeListener(this);
+				viewport = null;
+			}
+			for (Future<?> future : futures) {
+				future.cancel(false);
+			}
+			futures.clear();
+		}
 
-							int f = (int) ((1.0f - workers.size() / (float) (pages.size())) * 100f);
-							String s = "   " + ProgressBars.getCharacterBar(f);
+		@Override
+		public void ancestorAdded(AncestorEvent event) {
+			JViewport vp = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, tp);
+			if (vp != viewport) {
+				if (viewport != null) {
+					viewport.removeChangeListener(this);
+				}
+				viewport = vp;
+				if (viewport != null) {
+					viewport.addChangeListener(this);
+				}
+			}
+			renderVisible();
+		}
 
-							updateInfoStr(s);
+		@Override
+		public void ancestorRemoved(AncestorEvent event) {
+			if (noteHash != editor.noteHash()) {
+				uninstall();
+			}
+		}
 
-							// abort if editor has changed note
-							if (noteHash == editor.noteHash()) {
-								workers.done();
-							} else {
-								workers.finish();
-							}
-						} catch (ExecutionException e) {
-							LOG.severe("Fail: " + e);
-						} catch (InterruptedException e) {
-							LOG.severe("Fail: " + e);
-						}
-					}
-				});
+		@Override
+		public void ancestorMoved(AncestorEvent event) {
+		}
+
+		@Override
+		public void stateChanged(ChangeEvent e) {
+			renderVisible();
+		}
+
+		private void renderVisible() {
+			if (noteHash != editor.noteHash()) {
+				uninstall();
+				return;
 			}
 
-			if (!workers.isEmpty()) {
-				// One more worker to mark done + cleanup
-				workers.addFinalizer(new SwingWorker<Image, Void>() {
+			if (viewport == null || viewport.getView() == null) {
+				return;
+			}
+
+			Rectangle view = viewport.getViewRect();
+			int ahead = view.height * RENDER_AHEAD_SCREENS;
+
+			for (int n = 1; n < pages.size(); n++) {
+				if (requested[n]) {
+					continue;
+				}
 
-					@Override
-					protected Image doInBackground() throws Exception {
-						return null;
+				Rectangle r;
+				try {
+					// Icon of page n+1 is at offset (n+1) * 4 - 2
+					r = tp.modelToView((n + 1) * 4 - 2);
+				} catch (BadLocationException e) {
+					continue;
+				}
+				if (r == null) {
+					continue;
+				}
+
+				r = SwingUtilities.convertRectangle(tp, r, viewport.getView());
+				int top = r.y, bottom = r.y + pageIcons.get(n).getIconHeight();
+
+				if (top > view.y + view.height + ahead) {
+					// Pages are in order, rest are further down.
+					break;
+				}
+
+				if (bottom >= view.y - ahead) {
+					requested[n] = true;
+					render(n);
+				}
+			}
+		}
+
+		private void render(final int num) {
+			final PreviewPageProvider page = pages.get(num);
+
+			futures.add(PdfRenderService.getInstance().submit(file, num + 1, new Runnable() {
+				@Override
+				public void run() {
+					if (noteHash != editor.noteHash()) {
+						return;
 					}
 
-					@Override
-					protected void done() {
-						// editor.lockScrolling(false);
-						updateInfoStr("");
-						if (pdfHolder.pdf != null) {
-							pdfHolder.pdf.close();
+					final Image img = page.getPage();
+
+					EventQueue.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							if (noteHash != editor.noteHash()) {
+								return;
+							}
+
+							if (img != null) {
+								pageIcons.get(num).setImage(img);
+								tp.repaint();
+							}
+
+							done++;
+							if (done < pages.size()) {
+								int f = (int) (done / (float) pages.size() * 100f);
+								updateInfoStr("   " + ProgressBars.getCharacterBar(f));
+							} else {
+								updateInfoStr("");
+								uninstall();
+							}
 						}
-					}
-				});
+					});
+				}
+			}));
+		}
+	}
 
-				loadingStartTs = System.currentTimeMillis();
+	// Render and scale the first preview page of a pdf ahead, off the EDT,
+	// so that adding the preview to the editor finds it ready.
+	static void prepareFirstPage(File f, ImageScaler scaler) {
+		if (!"pdf".equalsIgnoreCase(FilenameUtils.getExtension(f.getName()))) {
+			return;
+		}
 
-				int cores = Runtime.getRuntime().availableProcessors();
-				for (int n = 0; n < cores; n++) {
-					workers.next();
+		File dir = getPreviewDirectory(f);
+		File page = getPreviewFileForPage(dir, 1);
+
+		try {
+			Image img = null;
+			if (page.exists()) {
+				if (scaler.getCachedScale(page) == null) {
+					img = ConcurrentImageIO.read(page);
+				}
+			} else {
+				dir.mkdirs();
+				if (dir.exists()) {
+					img = PdfRenderService.getInstance().renderPage(f, 1, page, (int) scaler.getTargetWidth());
 				}
 			}
 
-			add(tp, BorderLayout.CENTER);
+			if (img != null) {
+				scaler.scale(img, page);
+			}
+		} catch (IOException e) {
+			LOG.severe("Fail: " + e);
 		}
 	}
 
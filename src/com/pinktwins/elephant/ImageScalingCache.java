@@ -3,118 +3,477 @@ package com.pinktwins.elephant;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.nio.file.attribute.FileTime;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
 
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
 import com.pinktwins.elephant.data.Vault;
-import com.pinktwins.elephant.util.ConcurrentImageIO;
+import com.pinktwins.elephant.util.Factory;
+import com.pinktwins.elephant.util.Metrics;
+
+// Scaled images, in two tiers.
+//
+// Memory: decoded images, least recently used dropped first when their
+// pixels take more than MEMORY_BUDGET bytes.
+//
+// Disk: encoded images appended to one pack file in .imagecache, with an
+// index file of key -> offset, length and last access time. The index is
+// kept in memory. When the pack grows past PACK_BUDGET, or much of it is
+// unused, it is compacted: least recently used images and those not used
+// for PURGE_AFTER_DAYS are left out.
 
 public class ImageScalingCache {
 
 	private static final Logger LOG = Logger.getLogger(ImageScalingCache.class.getName());
-	private long lastPurgeTs = System.currentTimeMillis();
-	private final long purgeAfterMs = 1000 * 60 * 60 * 6;
+
+	private static final long MEMORY_BUDGET = Math.min(Runtime.getRuntime().maxMemory() / 16, 64L * 1024 * 1024);
+	private static final long PACK_BUDGET = 256L * 1024 * 1024;
+	private static final long PURGE_AFTER_DAYS = 120;
+
+	private static final int INDEX_VERSION = 1;
+	private static final String PACK_NAME = "scaled.pack", INDEX_NAME = "scaled.index";
+
+	// Write index after this many new images, and always on exit.
+	private static final int INDEX_SAVE_INTERVAL = 50;
+
+	// Files of the old one-file-per-image format: md5 hex name.
+	private static final Pattern legacyName = Pattern.compile("[0-9a-f]{32}\\.(png|jpg|jpeg|gif)");
+
+	private static class IndexEntry {
+		final long offset;
+		final int length;
+		long lastAccess;
+
+		IndexEntry(long offset, int length, long lastAccess) {
+			this.offset = offset;
+			this.length = length;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	private final LinkedHashMap<String, BufferedImage> memory = new LinkedHashMap<String, BufferedImage>(64, 0.75f, true);
+	private long memoryBytes = 0;
+
+	private File dir;
+	private FileChannel pack;
+	private final Map<String, IndexEntry> index = Factory.newHashMap();
+	private long liveBytes = 0;
+	private int unsavedPuts = 0;
+	private boolean indexDirty = false;
+
+	private long memoryHits, diskHits, misses;
+
+	public ImageScalingCache() {
+		Metrics.source("imagecache", this);
+		Metrics.gauge("imagecache.memory.bytes", new Metrics.Gauge() {
+			@Override
+			public long value() {
+				synchronized (ImageScalingCache.this) {
+					return memoryBytes;
+				}
+			}
+		});
+		Metrics.gauge("imagecache.pack.bytes", new Metrics.Gauge() {
+			@Override
+			public long value() {
+				synchronized (ImageScalingCache.this) {
+					return liveBytes;
+				}
+			}
+		});
+
+		Runtime.getRuntime().addShutdownHook(new Thread("Elephant image cache index") {
+			@Override
+			public void run() {
+				synchronized (ImageScalingCache.this) {
+					saveIndex();
+				}
+			}
+		});
+	}
 
 	public Image get(File sourceFile, int w, int h) {
-		return load(sourceFile, w, h);
+		String key = key(sourceFile, w, h);
+
+		synchronized (this) {
+			BufferedImage img = memory.get(key);
+			if (img != null) {
+				memoryHits++;
+				return img;
+			}
+		}
+
+		BufferedImage img = load(key);
+		if (img != null) {
+			synchronized (this) {
+				diskHits++;
+				remember(key, img);
+			}
+		} else {
+			synchronized (this) {
+				misses++;
+			}
+		}
+		return img;
+	}
+
+	public synchronized boolean has(File sourceFile, int w, int h) {
+		String key = key(sourceFile, w, h);
+		return memory.containsKey(key) || (open() && index.containsKey(key));
 	}
 
 	public void put(File sourceFile, int w, int h, Image img) {
-		store(sourceFile, img, w, h);
+		String key = key(sourceFile, w, h);
+		String ext = FilenameUtils.getExtension(sourceFile.getName()).toLowerCase();
+		boolean alpha = "png".equals(ext) || "gif".equals(ext);
+
+		BufferedImage b = toBufferedImage(img, alpha);
+
+		synchronized (this) {
+			remember(key, b);
+		}
+
+		store(key, b, alpha ? "png" : "jpg");
 	}
 
 	public static String getImageCacheDir() {
 		return Vault.getInstance().getHome().getAbsolutePath() + File.separator + ".imagecache";
 	}
 
-	private File getCacheFile(File f, int w, int h) {
-		String relativePath = f.getAbsolutePath().replace(Vault.getInstance().getHome().getAbsolutePath() + File.separator, "");
-		String cacheName = relativePath.replaceAll(Matcher.quoteReplacement(File.separator), "_");
+	// Note: key is built from plain string operations, lookups are frequent.
+	private static String key(File f, int w, int h) {
+		String path = f.getAbsolutePath();
+		String home = Vault.getInstance().getHome().getAbsolutePath() + File.separator;
+		if (path.startsWith(home)) {
+			path = path.substring(home.length());
+		}
+		return path + '|' + f.lastModified() + '|' + f.length() + '|' + w + '|' + h;
+	}
 
-		long lastMod = f.lastModified();
-		long fileSize = f.length();
+	private void remember(String key, BufferedImage img) {
+		BufferedImage old = memory.put(key, img);
+		if (old != null) {
+			memoryBytes -= pixelBytes(old);
+		}
+		memoryBytes += pixelBytes(img);
 
-		String ext = FilenameUtils.getExtension(cacheName);
-		int n = cacheName.indexOf("." + ext);
-		cacheName = cacheName.substring(0, n) + "_" + lastMod + "_" + fileSize + "_" + w + "_" + h + cacheName.substring(n);
-		String hash = DigestUtils.md5Hex(cacheName);
+		Iterator<BufferedImage> i = memory.values().iterator();
+		while (memoryBytes > MEMORY_BUDGET && memory.size() > 1 && i.hasNext()) {
+			memoryBytes -= pixelBytes(i.next());
+			i.remove();
+		}
+	}
 
-		return new File(getImageCacheDir() + File.separator + hash + "." + ext);
+	private static long pixelBytes(BufferedImage img) {
+		return (long) img.getWidth() * img.getHeight() * 4;
 	}
 
-	private void store(File sourceFile, Image img, int w, int h) {
-		String ext = FilenameUtils.getExtension(sourceFile.getName()).toUpperCase();
-		File cache = getCacheFile(sourceFile, w, h);
-		cache.getParentFile().mkdirs();
+	// Open pack and index of current vault. Called with lock held.
+	private boolean open() {
+		File current = new File(getImageCacheDir());
+		if (current.equals(dir) && pack != null) {
+			if (pack.isOpen()) {
+				return true;
+			}
+
+			// Closed under us, by an interrupt during channel IO on some
+			// thread. Index in memory is still good, only reopen the pack.
+			try {
+				pack = openPack();
+				return true;
+			} catch (IOException e) {
+				LOG.severe("Fail: " + e);
+				pack = null;
+				return false;
+			}
+		}
+
+		close();
+		dir = current;
+		dir.mkdirs();
+
+		File indexFile = new File(dir, INDEX_NAME);
+		boolean fresh = !indexFile.exists();
+
 		try {
-			ConcurrentImageIO.write(toBufferedImage(img, "PNG".equals(ext)), ext, cache);
+			pack = openPack();
+			if (!fresh) {
+				readIndex(indexFile, pack.size());
+			}
 		} catch (IOException e) {
 			LOG.severe("Fail: " + e);
+			pack = null;
+			return false;
 		}
 
+		if (fresh) {
+			purgeLegacyFiles(dir);
+		}
+
+		return true;
+	}
+
+	private FileChannel openPack() throws IOException {
+		return FileChannel.open(new File(dir, PACK_NAME).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	private void close() {
+		if (pack != null) {
+			saveIndex();
+			try {
+				pack.close();
+			} catch (IOException e) {
+				LOG.severe("Fail: " + e);
+			}
+			pack = null;
+		}
+		index.clear();
+		liveBytes = 0;
+	}
+
+	private void readIndex(File indexFile, long packSize) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
 		try {
-			purgeOldCacheFiles();
-		} catch (IOException e) {
-			e.printStackTrace();
+			if (in.readInt() != INDEX_VERSION) {
+				return;
+			}
+			for (int count = in.readInt(); count > 0; count--) {
+				String key = in.readUTF();
+				IndexEntry e = new IndexEntry(in.readLong(), in.readInt(), in.readLong());
+				// Pack may be shorter than index says after a crash.
+				if (e.offset + e.length <= packSize) {
+					index.put(key, e);
+					liveBytes += e.length;
+				}
+			}
+		} finally {
+			in.close();
 		}
 	}
 
-	private void purgeOldCacheFiles() throws IOException {
-		if (System.currentTimeMillis() - lastPurgeTs < purgeAfterMs) {
+	private void saveIndex() {
+		if (!indexDirty || dir == null) {
 			return;
 		}
 
-		LOG.info("Purging old, unused cache files.");
-		long start = System.currentTimeMillis();
-		long iterateCount = 0, count = 0;
-		// Purge last accessed more than x days ago
-		FileTime olderThan = FileTime.fromMillis(System.currentTimeMillis() - 1000 * 3600 * 24 * 120l);
-
-		File folder = new File(getImageCacheDir());
-		for (File f : folder.listFiles()) {
-			if (f.isFile()) {
-				String name = f.getName();
-				String ext = FilenameUtils.getExtension(f.getName()).toLowerCase();
-				if (name.charAt(0) != '.' && (ext.equals("png") || ext.equals("jpg"))) {
-					iterateCount++;
-					BasicFileAttributes attrs = Files.readAttributes(Paths.get(f.getAbsolutePath()), BasicFileAttributes.class);
-					if (attrs.lastAccessTime().compareTo(olderThan) < 0) {
-						FileUtils.deleteQuietly(f);
-						count++;
-					}
+		File indexFile = new File(dir, INDEX_NAME);
+		File tmp = new File(dir, "." + INDEX_NAME + ".saving~");
+		try {
+			if (pack != null) {
+				pack.force(false);
+			}
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(INDEX_VERSION);
+				out.writeInt(index.size());
+				for (Map.Entry<String, IndexEntry> e : index.entrySet()) {
+					out.writeUTF(e.getKey());
+					out.writeLong(e.getValue().offset);
+					out.writeInt(e.getValue().length);
+					out.writeLong(e.getValue().lastAccess);
 				}
+			} finally {
+				out.close();
 			}
-		}
+			move(tmp, indexFile);
 
-		lastPurgeTs = start;
+			indexDirty = false;
+			unsavedPuts = 0;
+		} catch (IOException e) {
+			LOG.severe("Fail: " + e);
+		}
+	}
 
-		LOG.info("Purging checked " + iterateCount + " purged " + count + " took " + (System.currentTimeMillis() - start) + " ms.");
+	private static void move(File from, File to) throws IOException {
+		try {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
 	}
 
-	private Image load(File sourceFile, int w, int h) {
-		File cache = getCacheFile(sourceFile, w, h);
-		if (!cache.exists()) {
+	private BufferedImage load(String key) {
+		IndexEntry e;
+		FileChannel ch;
+
+		synchronized (this) {
+			if (!open()) {
+				return null;
+			}
+			e = index.get(key);
+			if (e == null) {
+				return null;
+			}
+			e.lastAccess = System.currentTimeMillis();
+			indexDirty = true;
+			ch = pack;
+		}
+
+		try {
+			// Positional read, safe alongside appends and other reads.
+			ByteBuffer buf = ByteBuffer.allocate(e.length);
+			while (buf.hasRemaining()) {
+				if (ch.read(buf, e.offset + buf.position()) < 0) {
+					break;
+				}
+			}
+			return ImageIO.read(new ByteArrayInputStream(buf.array(), 0, buf.position()));
+		} catch (IOException ex) {
+			// Pack was compacted or switched meanwhile, treat as a miss.
 			return null;
 		}
+	}
 
+	private void store(String key, BufferedImage img, String format) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
 		try {
-			return ConcurrentImageIO.read(cache);
+			if (!ImageIO.write(img, format, bytes)) {
+				return;
+			}
 		} catch (IOException e) {
 			LOG.severe("Fail: " + e);
-			return null;
+			return;
+		}
+
+		synchronized (this) {
+			if (!open()) {
+				return;
+			}
+
+			try {
+				long offset = pack.size();
+				pack.write(ByteBuffer.wrap(bytes.toByteArray()), offset);
+
+				IndexEntry old = index.put(key, new IndexEntry(offset, bytes.size(), System.currentTimeMillis()));
+				if (old != null) {
+					liveBytes -= old.length;
+				}
+				liveBytes += bytes.size();
+				indexDirty = true;
+
+				if (++unsavedPuts >= INDEX_SAVE_INTERVAL) {
+					saveIndex();
+				}
+
+				long packSize = pack.size();
+				if (packSize > PACK_BUDGET || (packSize > 16 * 1024 * 1024 && liveBytes < packSize / 2)) {
+					compact();
+				}
+			} catch (IOException e) {
+				LOG.severe("Fail: " + e);
+			}
 		}
 	}
 
+	// Rewrite pack with images worth keeping. Replaces the old periodic
+	// scan of the cache folder. Called with lock held.
+	private void compact() throws IOException {
+		long start = System.currentTimeMillis();
+		long olderThan = start - PURGE_AFTER_DAYS * 24 * 3600 * 1000;
+
+		List<Map.Entry<String, IndexEntry>> entries = Factory.newArrayList();
+		entries.addAll(index.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, IndexEntry>>() {
+			@Override
+			public int compare(Map.Entry<String, IndexEntry> o1, Map.Entry<String, IndexEntry> o2) {
+				return Long.compare(o2.getValue().lastAccess, o1.getValue().lastAccess);
+			}
+		});
+
+		File packFile = new File(dir, PACK_NAME);
+		File tmp = new File(dir, "." + PACK_NAME + ".compacting~");
+
+		Map<String, IndexEntry> kept = Factory.newHashMap();
+		long keptBytes = 0;
+		long target = PACK_BUDGET * 3 / 4;
+
+		FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		try {
+			// Most recently used first, until target size.
+			for (Map.Entry<String, IndexEntry> e : entries) {
+				IndexEntry ie = e.getValue();
+				if (ie.lastAccess < olderThan || keptBytes + ie.length > target) {
+					continue;
+				}
+				pack.transferTo(ie.offset, ie.length, out);
+				kept.put(e.getKey(), new IndexEntry(keptBytes, ie.length, ie.lastAccess));
+				keptBytes += ie.length;
+			}
+			out.force(false);
+		} finally {
+			out.close();
+		}
+
+		pack.close();
+		move(tmp, packFile);
+		pack = FileChannel.open(packFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		int dropped = index.size() - kept.size();
+		index.clear();
+		index.putAll(kept);
+		liveBytes = keptBytes;
+		indexDirty = true;
+		saveIndex();
+
+		LOG.info("Image cache compacted: kept " + kept.size() + " dropped " + dropped + " took " + (System.currentTimeMillis() - start) + " ms.");
+	}
+
+	// Earlier versions wrote one file per scaled image.
+	private static void purgeLegacyFiles(final File dir) {
+		new Thread("Elephant image cache cleanup") {
+			@Override
+			public void run() {
+				File[] files = dir.listFiles();
+				if (files == null) {
+					return;
+				}
+				int count = 0;
+				for (File f : files) {
+					if (f.isFile() && legacyName.matcher(f.getName()).matches()) {
+						FileUtils.deleteQuietly(f);
+						count++;
+					}
+				}
+				if (count > 0) {
+					LOG.info("Removed " + count + " old image cache files.");
+				}
+			}
+		}.start();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("ImageScalingCache: memory %d images %d KB, disk %d images %d KB, hits %d memory %d disk, misses %d", memory.size(),
+				memoryBytes / 1024, index.size(), liveBytes / 1024, memoryHits, diskHits, misses);
+	}
+
 	// http://stackoverflow.com/questions/13605248/java-converting-image-to-bufferedimage
 	public static BufferedImage toBufferedImage(Image img, boolean alpha) {
 		if (img instanceof BufferedImage) {
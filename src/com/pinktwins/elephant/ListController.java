@@ -50,7 +50,11 @@ public class ListController<T> {
 	}
 
 	public <T2 extends Component> void updateVerticalScrollbar(T2 item, JScrollPane scroll) {
-		Rectangle b = item.getBounds();
+		updateVerticalScrollbar(item.getBounds(), scroll);
+	}
+
+	// For lists that know where an item goes before it has a component.
+	public void updateVerticalScrollbar(Rectangle b, JScrollPane scroll) {
 		int itemY = b.y;
 		int y = scroll.getVerticalScrollBar().getValue();
 		int scrollHeight = scroll.getBounds().height;
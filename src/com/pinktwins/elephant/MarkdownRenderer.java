@@ -0,0 +1,113 @@
+package com.pinktwins.elephant;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.pegdown.Parser;
+import org.pegdown.PegDownProcessor;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+// Markdown to html for the editor and note list previews.
+//
+// PegDownProcessor isn't safe for concurrent use and previews are rendered on
+// worker threads, so each thread gets its own processor. Rendered html is kept
+// in an LRU keyed by hash of the markdown and render options, so a note
+// is parsed once no matter how many times it is shown.
+
+public class MarkdownRenderer {
+
+	private static final int EXTENSIONS = Parser.AUTOLINKS | Parser.TABLES | Parser.FENCED_CODE_BLOCKS | Parser.DEFINITIONS;
+
+	// Total chars of cached html.
+	private static final long MAX_CACHED_CHARS = 4 * 1024 * 1024;
+
+	// Post-processing of rendered html, eg. image sizes for Retina.
+	// Result is cached together with the html, so options() must
+	// tell apart fixups that give different results.
+	public interface Fixup {
+		public String options();
+
+		public String apply(String html);
+	}
+
+	public interface Cancellation {
+		public boolean isCancelled();
+	}
+
+	private final ThreadLocal<PegDownProcessor> processors = new ThreadLocal<PegDownProcessor>() {
+		@Override
+		protected PegDownProcessor initialValue() {
+			return new PegDownProcessor(EXTENSIONS);
+		}
+	};
+
+	private long cachedChars = 0;
+	private long hits, misses;
+
+	private final LinkedHashMap<String, String> cache = new LinkedHashMap<String, String>(64, 0.75f, true);
+
+	public String toHtml(String markdown) {
+		return toHtml(markdown, null, null);
+	}
+
+	// Returns null if cancelled before done.
+	public String toHtml(String markdown, Fixup fixup, Cancellation cancel) {
+		String key = Hashing.murmur3_128().hashString(markdown, Charsets.UTF_8).toString() + ":" + EXTENSIONS
+				+ (fixup != null ? ":" + fixup.options() : "");
+
+		synchronized (cache) {
+			String html = cache.get(key);
+			if (html != null) {
+				hits++;
+				return html;
+			}
+			misses++;
+		}
+
+		if (cancel != null && cancel.isCancelled()) {
+			return null;
+		}
+
+		String html = processors.get().markdownToHtml(markdown);
+
+		if (cancel != null && cancel.isCancelled()) {
+			return null;
+		}
+
+		if (fixup != null) {
+			html = fixup.apply(html);
+		}
+
+		synchronized (cache) {
+			String old = cache.put(key, html);
+			if (old != null) {
+				cachedChars -= old.length();
+			}
+			cachedChars += html.length();
+
+			Iterator<String> i = cache.values().iterator();
+			while (cachedChars > MAX_CACHED_CHARS && cache.size() > 1 && i.hasNext()) {
+				cachedChars -= i.next().length();
+				i.remove();
+			}
+		}
+
+		return html;
+	}
+
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+			cachedChars = 0;
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized (cache) {
+			return String.format("MarkdownRenderer: %d entries, %d KB, hits %d, misses %d", cache.size(), cachedChars * 2 / 1024, hits, misses);
+		}
+	}
+}
@@ -217,11 +217,22 @@ public class MultipleNotes extends BackgroundPanel implements EditorEventListene
 		if (!newTagNames.isEmpty()) {
 			List<String> ids = Vault.getInstance().resolveTagNames(newTagNames);
 			if (!ids.isEmpty()) {
+				List<Meta> metas = Factory.newArrayList();
+				List<List<String>> oldIdLists = Factory.newArrayList();
 				for (Note n : currentNotes) {
 					Meta m = n.getMeta();
-					List<String> oldIds = m.tags();
+					metas.add(m);
+					oldIdLists.add(m.tags());
+				}
+
+				List<List<String>> oldNameLists = Vault.getInstance().resolveTagIdLists(oldIdLists);
 
-					List<String> oldNames = Vault.getInstance().resolveTagIds(oldIds);
+				int index = 0;
+				for (Note n : currentNotes) {
+					Meta m = metas.get(index);
+					List<String> oldIds = oldIdLists.get(index);
+					List<String> oldNames = oldNameLists.get(index);
+					index++;
 
 					List<String> allNames = Factory.newArrayList();
 					List<String> allIds = Factory.newArrayList();
@@ -14,6 +14,12 @@ import java.util.Set;
 import java.util.logging.Logger;
 
 import javax.swing.JTextPane;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.ElementIterator;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -50,6 +56,96 @@ public class NoteAttachments {
 		attachments.remove(o);
 	}
 
+	// Attribute of a placeholder character standing for a FileAttachment
+	// in a note document that is being built off the EDT.
+	private static final String PLACEHOLDER = "elephantAttachmentPlaceholder";
+
+	private Image scaledImage(NoteEditor editor, File f) throws IOException {
+		Image i = editor.imageAttachmentImageScaler.getCachedScale(f);
+
+		if (i == null) {
+			i = ConcurrentImageIO.read(f);
+			if (i != null) {
+				i = editor.imageAttachmentImageScaler.scale(i, f);
+			}
+		}
+
+		return i;
+	}
+
+	// insertFileIntoNote() for a document not shown yet, may run off the EDT.
+	// Images go in as icons. Other files get a placeholder, replaced with a
+	// FileAttachment by replacePlaceholders() once the document is shown.
+	void insertFileIntoDocument(NoteEditor editor, Note note, StyledDocument doc, File f, int position) {
+		SimpleAttributeSet attrs = new SimpleAttributeSet();
+
+		if (Images.isImage(f)) {
+			try {
+				Image i = scaledImage(editor, f);
+				if (i == null || noteHash != note.hashCode()) {
+					return;
+				}
+
+				RetinaImageIcon ii = new RetinaImageIcon(i);
+				StyleConstants.setIcon(attrs, ii);
+
+				if (position > doc.getLength()) {
+					position = 0;
+				}
+
+				doc.insertString(position, " ", attrs);
+				attachments.put(ii, f);
+			} catch (IOException e) {
+				LOG.severe("Fail: " + e);
+			} catch (BadLocationException e) {
+				LOG.severe("Fail: " + e);
+			}
+		} else {
+			if (note.getMeta().getAttachmentPreview(f)) {
+				FileAttachment.prepareFirstPage(f, editor.editorWidthScaler);
+			}
+
+			attrs.addAttribute(PLACEHOLDER, f);
+			position = Math.max(0, Math.min(position, doc.getLength()));
+
+			try {
+				doc.insertString(position, " ", attrs);
+			} catch (BadLocationException e) {
+				LOG.severe("Fail: " + e);
+			}
+		}
+	}
+
+	// On the EDT, after the document built with insertFileIntoDocument() is shown.
+	void replacePlaceholders(NoteEditor editor, Note note) {
+		JTextPane notePane = editor.editor.getTextPane();
+
+		List<Element> placeholders = Factory.newArrayList();
+		ElementIterator iter = new ElementIterator(notePane.getDocument());
+		Element e;
+		while ((e = iter.next()) != null) {
+			if (e.isLeaf() && e.getAttributes().getAttribute(PLACEHOLDER) instanceof File) {
+				placeholders.add(e);
+			}
+		}
+
+		// From end to start, so offsets of the rest stay valid.
+		Collections.reverse(placeholders);
+
+		for (Element p : placeholders) {
+			File f = (File) p.getAttributes().getAttribute(PLACEHOLDER);
+			FileAttachment aa = new FileAttachment(f, note, editor.editorWidthScaler, editor.editorController);
+
+			notePane.setCaretPosition(p.getStartOffset());
+			notePane.moveCaretPosition(p.getStartOffset() + 1);
+			notePane.insertComponent(aa); // replaces the selected placeholder
+
+			attachments.put(aa, f);
+		}
+
+		notePane.setCaretPosition(0);
+	}
+
 	void insertFileIntoNote(NoteEditor editor, Note note, File f, int position) {
 		if (editor.getWidth() <= 0) {
 			throw new AssertionError();
@@ -60,16 +156,7 @@ public class NoteAttachments {
 
 		if (Images.isImage(f)) {
 			try {
-				Image i = null;
-
-				i = editor.imageAttachmentImageScaler.getCachedScale(f);
-
-				if (i == null) {
-					i = ConcurrentImageIO.read(f);
-					if (i != null) {
-						i = editor.imageAttachmentImageScaler.scale(i, f);
-					}
-				}
+				Image i = scaledImage(editor, f);
 
 				if (i != null) {
 					// abort if editor has changed note
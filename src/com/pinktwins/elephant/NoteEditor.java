@@ -24,7 +24,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import javax.swing.BorderFactory;
@@ -36,7 +36,6 @@ import javax.swing.JScrollBar;
 import javax.swing.JTextPane;
 import javax.swing.Scrollable;
 import javax.swing.SwingConstants;
-import javax.swing.SwingWorker;
 import javax.swing.TransferHandler;
 import javax.swing.text.AbstractDocument.LeafElement;
 import javax.swing.text.AttributeSet;
@@ -44,9 +43,9 @@ import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultHighlighter.DefaultHighlightPainter;
 import javax.swing.text.Highlighter;
 import javax.swing.text.Highlighter.Highlight;
+import javax.swing.text.StyledDocument;
 
 import org.apache.commons.lang3.SystemUtils;
-import org.pegdown.PegDownProcessor;
 
 import com.google.common.collect.Lists;
 import com.google.common.eventbus.Subscribe;
@@ -60,11 +59,15 @@ import com.pinktwins.elephant.eventbus.UIEvent;
 import com.pinktwins.elephant.util.ConcurrentImageIO;
 import com.pinktwins.elephant.util.CustomMouseListener;
 import com.pinktwins.elephant.util.Factory;
+import com.pinktwins.elephant.util.Histogram;
+import com.pinktwins.elephant.util.Metrics;
 import com.pinktwins.elephant.util.Images;
 import com.pinktwins.elephant.util.LaunchUtil;
 import com.pinktwins.elephant.util.ResizeListener;
 import com.pinktwins.elephant.util.ScreenUtil;
 import com.pinktwins.elephant.util.SimpleImageInfo;
+import com.pinktwins.elephant.util.TaskExecutor;
+import com.pinktwins.elephant.util.Thumbnailer;
 
 public class NoteEditor extends BackgroundPanel implements EditorEventListener {
 
@@ -85,14 +88,13 @@ public class NoteEditor extends BackgroundPanel implements EditorEventListener {
 
 	public static final ImageScalingCache scalingCache = new ImageScalingCache();
 
-	public static final PegDownProcessor pegDown = new PegDownProcessor(
-			org.pegdown.Parser.AUTOLINKS | org.pegdown.Parser.TABLES | org.pegdown.Parser.FENCED_CODE_BLOCKS | org.pegdown.Parser.DEFINITIONS);
+	public static final MarkdownRenderer markdown = new MarkdownRenderer();
 
-	private static final boolean ASYNC_LOAD = true; // async load notes with attachments
-	private static final Long ASYNC_LIMIT = 100l; // sync load when note can be loaded withing this ms
-	private Workers<Void> loadWorkers = new Workers<Void>();
-	private Map<Integer, Long> loadTimes = Factory.newHashMap();
-	private int loadInProgress = 0;
+	private static final boolean ASYNC_LOAD = true; // build note document off the EDT
+	private static final long ASYNC_SIZE_LIMIT = 16 * 1024; // except for small notes without attachments
+	private Future<?> loadTask;
+	static final Histogram loadTimes = Metrics.histogram("note.load");
+	private volatile int loadInProgress = 0;
 
 	private int highlightPosition = -1;
 
@@ -535,7 +537,7 @@ public class NoteEditor extends BackgroundPanel implements EditorEventListener {
 				return cached;
 			}
 
-			Image img = i.getScaledInstance(scaledWidth, scaledHeight, Image.SCALE_AREA_AVERAGING);
+			Image img = Thumbnailer.scale(i, scaledWidth, scaledHeight);
 			scalingCache.put(sourceFile, scaledWidth, scaledHeight, img);
 
 			return img;
@@ -552,7 +554,7 @@ public class NoteEditor extends BackgroundPanel implements EditorEventListener {
 				return cached;
 			}
 
-			Image img = i.getScaledInstance(scaledWidth, scaledHeight, Image.SCALE_AREA_AVERAGING);
+			Image img = Thumbnailer.scale(i, scaledWidth, scaledHeight);
 			scalingCache.put(sourceFile, scaledWidth, scaledHeight, img);
 
 			return img;
@@ -647,53 +649,22 @@ public class NoteEditor extends BackgroundPanel implements EditorEventListener {
 			return;
 		}
 
-		boolean attachmentFolderExists = new File(note.attachmentFolderPath()).exists();
-		boolean fastNote = false;
-		if (attachmentFolderExists) {
-			fastNote = loadTimes.containsKey(note.hashCode()) && loadTimes.get(note.hashCode()) < ASYNC_LIMIT;
-		}
-
-		if (ASYNC_LOAD && attachmentFolderExists && !fastNote) {
-			loadWorkers.clear();
-			loadWorkers.add(new SwingWorker<Void, Void>() {
-				@Override
-				protected Void doInBackground() throws Exception {
-					load_impl(note);
-					return null;
-				}
-
-				@Override
-				protected void done() {
-				}
-			});
-			loadWorkers.next();
-		} else {
-			loadWorkers.clear();
-			load_impl(note);
-		}
-	}
-
-	private boolean shouldAbort(int load) {
-		return load != loadInProgress;
-	}
-
-	public void load_impl(final Note note) {
-		long startTs = System.currentTimeMillis();
-
-		if (note == null) {
-			return;
-		}
-
 		if (!note.file().exists()) {
 			// XXX Tell user what is going on.
 			clear();
 			return;
 		}
 
-		loadTimes.remove(note.hashCode());
+		final long startTs = System.currentTimeMillis();
 
+		// Tells a load in progress to stop.
 		final int currentLoad = ++loadInProgress;
 
+		if (loadTask != null) {
+			loadTask.cancel(false);
+			loadTask = null;
+		}
+
 		Meta m = note.getMeta();
 
 		currentNote = note;
@@ -701,33 +672,81 @@ public class NoteEditor extends BackgroundPanel implements EditorEventListener {
 		attachments = new NoteAttachments();
 		attachments.areForNote(note);
 
-		synchronized (editor) {
-			editor.setTitle(m.title());
-			editor.setText(note.contents());
-			editor.setMarkdown(note.isMarkdown());
-		}
+		editor.setTitle(m.title());
+		editor.setMarkdown(note.isMarkdown());
 
-		if (shouldAbort(currentLoad)) {
-			return;
+		Notebook nb = Vault.getInstance().findNotebook(note.file().getParentFile());
+		currNotebook.setText(nb.name());
+
+		noteCreated.setText("Created: " + note.createdStr());
+		noteUpdated.setText("Updated: " + note.updatedStr());
+
+		tagPane.load(Vault.getInstance().resolveTagIds(m.tags()));
+
+		scrollHolder.setVisible(false);
+		visible(true);
+
+		final NoteAttachments noteAttachments = attachments;
+		final boolean async = ASYNC_LOAD
+				&& (note.file().length() > ASYNC_SIZE_LIMIT || new File(note.attachmentFolderPath()).exists() || note.isMarkdown());
+
+		Runnable build = new Runnable() {
+			@Override
+			public void run() {
+				final LoadedNote loaded = buildDocument(note, noteAttachments, currentLoad);
+				if (loaded == null) {
+					return;
+				}
+
+				if (async) {
+					EventQueue.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							show(loaded, currentLoad, startTs);
+						}
+					});
+				} else {
+					show(loaded, currentLoad, startTs);
+				}
+			}
+		};
+
+		if (async) {
+			loadTask = TaskExecutor.EDITOR.submit("load", TaskExecutor.HIGH, build);
+		} else {
+			build.run();
 		}
+	}
+
+	private boolean shouldAbort(int load) {
+		return load != loadInProgress;
+	}
 
-		synchronized (editor) {
-			Notebook nb = Vault.getInstance().findNotebook(note.file().getParentFile());
-			currNotebook.setText(nb.name());
+	// Note contents and attachments in a document not shown yet.
+	private static class LoadedNote {
+		final Note note;
+		final StyledDocument doc;
+		boolean richText;
+		String html;
 
-			noteCreated.setText("Created: " + note.createdStr());
-			noteUpdated.setText("Updated: " + note.updatedStr());
+		LoadedNote(Note note, StyledDocument doc) {
+			this.note = note;
+			this.doc = doc;
 		}
+	}
 
-		tagPane.load(Vault.getInstance().resolveTagIds(m.tags()));
+	// Build document for note, off the EDT when loading async.
+	// Returns null if another load was started meanwhile.
+	private LoadedNote buildDocument(Note note, NoteAttachments attachments, final int currentLoad) {
+		LoadedNote loaded = new LoadedNote(note, CustomEditor.newDocument());
+
+		String contents = note.contents();
+		loaded.richText = CustomEditor.readText(loaded.doc, contents);
 
 		if (shouldAbort(currentLoad)) {
-			return;
+			return null;
 		}
 
-		scrollHolder.setVisible(false);
-		visible(true);
-
 		List<Note.AttachmentInfo> info = note.getAttachmentList();
 		if (!info.isEmpty()) {
 
@@ -736,51 +755,65 @@ public class NoteEditor extends BackgroundPanel implements EditorEventListener {
 
 			for (Note.AttachmentInfo ap : info) {
 				if (shouldAbort(currentLoad)) {
-					return;
+					return null;
 				}
 
 				// If position to insert attachment into would have
 				// component content already, it would be overwritten.
 				// Make sure there is none.
-				AttributeSet as = editor.getAttributes(ap.position);
+				AttributeSet as = loaded.doc.getCharacterElement(ap.position).getAttributes();
 				if (as instanceof LeafElement) {
 					LeafElement l = (LeafElement) as;
 					if (!"content".equals(l.getName())) {
-						editor.insertNewline(ap.position);
+						try {
+							loaded.doc.insertString(ap.position, "\n", null);
+						} catch (BadLocationException e) {
+							LOG.severe("Fail: " + e);
+						}
 					}
 				}
 
-				attachments.insertFileIntoNote(this, note, ap.f, ap.position);
+				attachments.insertFileIntoDocument(this, note, loaded.doc, ap.f, ap.position);
 			}
 		}
 
-		attachments.loaded();
+		if (note.isMarkdown()) {
+			loaded.html = markdown.toHtml(loaded.richText ? Note.plainTextContents(contents) : contents, imageTagFixup(note),
+					new MarkdownRenderer.Cancellation() {
+						@Override
+						public boolean isCancelled() {
+							return shouldAbort(currentLoad);
+						}
+					});
 
+			if (loaded.html == null) {
+				return null;
+			}
+		}
+
+		return shouldAbort(currentLoad) ? null : loaded;
+	}
+
+	// Swap built document into the editor, on the EDT.
+	private void show(LoadedNote loaded, int currentLoad, long startTs) {
 		if (shouldAbort(currentLoad)) {
 			return;
 		}
 
-		synchronized (editor) {
-			editor.discardUndoBuffer();
-
-			if (note.isMarkdown()) {
-				String contents = note.contents();
-				String html = pegDown.markdownToHtml(editor.isRichText ? Note.plainTextContents(contents) : contents);
+		Note note = loaded.note;
 
-				if (html.indexOf("<img src=") != -1) {
-					html = fixMardownHtmlImageTags(html);
-				}
+		editor.setDocument(loaded.doc, loaded.richText);
+		attachments.replacePlaceholders(this, note);
+		attachments.loaded();
 
-				editor.displayHtml(note.file(), html);
-			}
+		editor.discardUndoBuffer();
 
-			if (note.isHtml()) {
-				editor.displayBrowser(note.file());
-			}
+		if (note.isMarkdown()) {
+			editor.displayHtml(note.file(), loaded.html);
 		}
 
-		if (shouldAbort(currentLoad)) {
-			return;
+		if (note.isHtml()) {
+			editor.displayBrowser(note.file());
 		}
 
 		scrollHolder.setVisible(true);
@@ -793,7 +826,28 @@ public class NoteEditor extends BackgroundPanel implements EditorEventListener {
 
 		previousNote = currentNote;
 
-		loadTimes.put(note.hashCode(), System.currentTimeMillis() - startTs);
+		loadTimes.record(System.currentTimeMillis() - startTs);
+	}
+
+	private MarkdownRenderer.Fixup imageTagFixup(final Note note) {
+		if (!ScreenUtil.isRetina()) {
+			return null;
+		}
+
+		// Image sizes depend on editor width and the note's attachments.
+		final String options = "retina:" + getUsableEditorWidth() + ":" + note.file().getAbsolutePath();
+
+		return new MarkdownRenderer.Fixup() {
+			@Override
+			public String options() {
+				return options;
+			}
+
+			@Override
+			public String apply(String html) {
+				return html.indexOf("<img src=") != -1 ? fixMardownHtmlImageTags(html) : html;
+			}
+		};
 	}
 
 	private String fixMardownHtmlImageTags(String html) {
@@ -2,6 +2,7 @@ package com.pinktwins.elephant;
 
 import java.awt.Color;
 import java.awt.Container;
+import java.awt.Dimension;
 import java.awt.Image;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
@@ -10,7 +11,6 @@ import java.io.IOException;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.Locale;
-import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.swing.BorderFactory;
@@ -28,14 +28,13 @@ import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
 import com.pinktwins.elephant.data.Note;
-import com.pinktwins.elephant.util.ConcurrentImageIO;
-import com.pinktwins.elephant.util.Factory;
+import com.pinktwins.elephant.data.Vault;
 import com.pinktwins.elephant.util.Images;
-import com.pinktwins.elephant.util.PdfUtil;
 import com.pinktwins.elephant.util.ScreenUtil;
 import com.pinktwins.elephant.util.SimpleImageInfo;
+import com.pinktwins.elephant.util.Thumbnailer;
 
-abstract class NoteItem extends JPanel implements Comparable<NoteItem>, MouseListener {
+abstract class NoteItem extends JPanel implements Comparable<NoteItem>, MouseListener, ThumbnailScheduler.Listener {
 
 	private static final Logger LOG = Logger.getLogger(NoteItem.class.getName());
 
@@ -45,7 +44,7 @@ abstract class NoteItem extends JPanel implements Comparable<NoteItem>, MouseLis
 
 	private static final DateTimeFormatter df = DateTimeFormat.forPattern("dd/MM/yy").withLocale(Locale.getDefault());
 	private static final long time_24h = 1000L * 60 * 60 * 24;
-	private static final Map<File, NoteItem> itemCache = Factory.newHashMap();
+	private static final NoteItemCache itemCache = new NoteItemCache();
 	protected static final Color kColorNoteBorder = Color.decode("#cdcdcd");
 
 	protected static Image noteShadow, noteSelection;
@@ -59,6 +58,11 @@ abstract class NoteItem extends JPanel implements Comparable<NoteItem>, MouseLis
 
 	protected boolean isSelected = false;
 
+	// Bytes of the picture thumbnail shown, if any.
+	protected long thumbnailBytes = 0;
+
+	private File pendingThumbnail;
+
 	static {
 		Iterator<Image> i = Images.iterator(new String[] { "noteShadow", "noteSelection" });
 		noteShadow = i.next();
@@ -92,22 +96,17 @@ abstract class NoteItem extends JPanel implements Comparable<NoteItem>, MouseLis
 			itemCache.put(n.file(), item);
 		}
 
-		if (itemCache.size() > 15000) {
-			// XXX nonsensical purge algo
-			boolean t = false;
-			File[] keys = new File[0];
-			keys = itemCache.keySet().toArray(keys);
-			for (File old : keys) {
-				if (t) {
-					itemCache.remove(old);
-				}
-				t = !t;
-			}
-		}
-
 		return item;
 	}
 
+	public static boolean isItemCacheFull() {
+		return itemCache.isFull();
+	}
+
+	public static int itemCacheCapacity() {
+		return itemCache.estimatedCapacity();
+	}
+
 	synchronized private static NoteItem itemOfNoteForListMode(Note n, NoteList.ListModes listMode) {
 		switch (listMode) {
 		case CARDVIEW:
@@ -120,7 +119,7 @@ abstract class NoteItem extends JPanel implements Comparable<NoteItem>, MouseLis
 	}
 
 	static public void resetCachedFonts() {
-		for (NoteItem item : itemCache.values()) {
+		for (NoteItem item : itemCache.items()) {
 			item.resetFonts();
 		}
 	}
@@ -131,6 +130,23 @@ abstract class NoteItem extends JPanel implements Comparable<NoteItem>, MouseLis
 		this.listMode = listMode;
 	}
 
+	// Rough retained size for NoteItemCache: components, preview document and thumbnail pixels.
+	long estimatedSize() {
+		long bytes = 16 * 1024 + thumbnailBytes;
+		if (preview != null) {
+			bytes += preview.getDocument().getLength() * 32L;
+		}
+		return bytes;
+	}
+
+	boolean hasHeavyPreview() {
+		return thumbnailBytes > 0;
+	}
+
+	protected static long imageBytes(Image img) {
+		return Math.max(0, img.getWidth(null)) * (long) Math.max(0, img.getHeight(null)) * 4;
+	}
+
 	public void resetFonts() {
 		switch (listMode) {
 		case CARDVIEW:
@@ -190,8 +206,8 @@ abstract class NoteItem extends JPanel implements Comparable<NoteItem>, MouseLis
 		if (note.isMarkdown()) {
 			String htmlts = "<p style='margin:0;padding:0;color:" + String.format("#%02x%02x%02x", col.getRed(), col.getGreen(), col.getBlue()) + "'>" + ts
 					+ "</p>\n";
-			String contents = htmlts + note.contents();
-			String html = NoteEditor.pegDown.markdownToHtml(contents);
+			String contents = htmlts + Vault.getInstance().getSnippet(note).preview;
+			String html = NoteEditor.markdown.toHtml(contents);
 			// hint by http://stackoverflow.com/a/19785465/873282
 			preview.putClientProperty(JEditorPane.HONOR_DISPLAY_PROPERTIES, true);
 			preview.setText(html);
@@ -210,135 +226,130 @@ abstract class NoteItem extends JPanel implements Comparable<NoteItem>, MouseLis
 
 		previewPane.add(preview);
 
-		// Picture thumbnail.
-		for (Note.AttachmentInfo i : note.getAttachmentList()) {
-			String ext = FilenameUtils.getExtension(i.f.getAbsolutePath()).toLowerCase();
-
-			if (Images.isImage(i.f)) {
-				if (addPictureThumbnail(i.f)) {
-					break;
-				}
+		// Picture thumbnail. Shown right away if already scaled,
+		// otherwise prepared by ThumbnailScheduler.
+		File first = Vault.getInstance().getSnippet(note).firstImageFile(note);
+		if (first != null) {
+			File picture = readyPictureFile(first);
+			if (picture != null && isPictureThumbnailCached(picture, listMode)) {
+				addPictureThumbnail(picture);
+			} else {
+				pendingThumbnail = first;
+				ThumbnailScheduler.getInstance().request(first, listMode, ThumbnailScheduler.BACKGROUND, this);
 			}
+		}
+	}
 
-			if ("pdf".equals(ext)) {
-				File[] files = FileAttachment.previewFiles(i.f);
-				boolean done = false;
-				for (File ff : files) {
-					if (Images.isImage(ff)) {
-						if (addPictureThumbnail(ff)) {
-							done = true;
-							break;
-						}
-					}
-				}
-				if (done) {
-					break;
-				}
+	// Attachment whose thumbnail is still being prepared, or null.
+	File pendingThumbnail() {
+		return pendingThumbnail;
+	}
 
-				File previewDir = FileAttachment.getPreviewDirectory(i.f);
-				previewDir.mkdirs();
-				if (previewDir.exists()) {
-					PdfUtil pdf = new PdfUtil(i.f);
-					if (pdf.numPages() > 0) {
-						File ff = FileAttachment.getPreviewFileForPage(previewDir, 1);
-						if (pdf.writePage(1, ff, -1) != null) {
-							addPictureThumbnail(ff);
-						}
-						pdf.close();
-						break;
-					}
-				}
-			}
+	void ensureThumbnail(long priority) {
+		if (pendingThumbnail != null) {
+			ThumbnailScheduler.getInstance().request(pendingThumbnail, listMode, priority, this);
 		}
 	}
 
-	static public void preparePictureThumbnail(Note note, NoteList.ListModes listMode) {
-		for (Note.AttachmentInfo i : note.getAttachmentList()) {
-			String ext = FilenameUtils.getExtension(i.f.getAbsolutePath()).toLowerCase();
+	@Override
+	public void thumbnailReady(File attachment, File picture) {
+		if (!attachment.equals(pendingThumbnail)) {
+			return;
+		}
+		pendingThumbnail = null;
 
-			if (Images.isImage(i.f)) {
-				Image img = getPictureThumbnail(i.f, listMode);
-				if (img != null) {
-					img.flush();
-				}
-				return;
-			}
+		if (picture != null && addPictureThumbnail(picture)) {
+			// Thumbnail pixels count against the cache budget from now on.
+			itemCache.resized(note.file(), this);
 
-			if ("pdf".equals(ext)) {
-				File[] files = FileAttachment.previewFiles(i.f);
-				for (File ff : files) {
-					if (Images.isImage(ff)) {
-						Image img = getPictureThumbnail(ff, listMode);
-						if (img != null) {
-							img.flush();
-						}
-						return;
-					}
-				}
+			revalidate();
+			repaint();
+		}
+	}
+
+	static public void preparePictureThumbnail(Note note, NoteList.ListModes listMode) {
+		File first = Vault.getInstance().getSnippet(note).firstImageFile(note);
+		if (first != null) {
+			ThumbnailScheduler.getInstance().request(first, listMode, ThumbnailScheduler.BACKGROUND, null);
+		}
+	}
 
-				File previewDir = FileAttachment.getPreviewDirectory(i.f);
-				previewDir.mkdirs();
-				if (previewDir.exists()) {
-					PdfUtil pdf = new PdfUtil(i.f);
-					if (pdf.numPages() > 0) {
-						File ff = FileAttachment.getPreviewFileForPage(previewDir, 1);
-						if (pdf.writePage(1, ff, -1) != null) {
-							Image img = getPictureThumbnail(ff, listMode);
-							if (img != null) {
-								img.flush();
-							}
-						}
-						pdf.close();
-						return;
-					}
+	// Image to make thumbnail of: the attachment itself if an image,
+	// first rendered page if a pdf. Null if pdf pages aren't rendered yet.
+	static File readyPictureFile(File attachment) {
+		if (Images.isImage(attachment)) {
+			return attachment;
+		}
+
+		if ("pdf".equals(FilenameUtils.getExtension(attachment.getName()).toLowerCase())) {
+			for (File ff : FileAttachment.previewFiles(attachment)) {
+				if (Images.isImage(ff)) {
+					return ff;
 				}
 			}
 		}
+
+		return null;
 	}
 
-	static protected Image getPictureThumbnail(File f, NoteList.ListModes listMode) {
+	static boolean isPictureThumbnailCached(File f, NoteList.ListModes listMode) {
 		try {
-			int w, h;
-			SimpleImageInfo info;
-
-			switch (listMode) {
-			case CARDVIEW:
-				info = new SimpleImageInfo(f);
-
-				float scale = info.getWidth() / (float) (196 - 12 - 4);
-				w = (int) (info.getWidth() / scale);
-				h = (int) ((float) info.getHeight() / scale);
-				break;
-			case SNIPPETVIEW:
-				info = new SimpleImageInfo(f);
-				if (info.getWidth() >= info.getHeight()) {
-					w = 75;
-					h = -1;
-				} else {
-					w = -1;
-					h = 75;
-				}
-				break;
-			default:
-				throw new AssertionError();
+			Dimension d = thumbnailSize(f, listMode);
+			return NoteEditor.scalingCache.has(f, d.width, d.height);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	// Requested size of thumbnail, -1 for dimension that keeps aspect ratio.
+	static private Dimension thumbnailSize(File f, NoteList.ListModes listMode) throws IOException {
+		int w, h;
+		SimpleImageInfo info;
+
+		switch (listMode) {
+		case CARDVIEW:
+			info = new SimpleImageInfo(f);
+
+			float scale = info.getWidth() / (float) (196 - 12 - 4);
+			w = (int) (info.getWidth() / scale);
+			h = (int) ((float) info.getHeight() / scale);
+			break;
+		case SNIPPETVIEW:
+			info = new SimpleImageInfo(f);
+			if (info.getWidth() >= info.getHeight()) {
+				w = 75;
+				h = -1;
+			} else {
+				w = -1;
+				h = 75;
 			}
+			break;
+		default:
+			throw new AssertionError();
+		}
 
-			if (ScreenUtil.isRetina()) {
-				if (w > 0) {
-					w *= 2;
-				}
-				if (h > 0) {
-					h *= 2;
-				}
+		if (ScreenUtil.isRetina()) {
+			if (w > 0) {
+				w *= 2;
+			}
+			if (h > 0) {
+				h *= 2;
 			}
+		}
+
+		return new Dimension(w, h);
+	}
+
+	static protected Image getPictureThumbnail(File f, NoteList.ListModes listMode) {
+		try {
+			Dimension d = thumbnailSize(f, listMode);
+			int w = d.width, h = d.height;
 
 			Image scaled = NoteEditor.scalingCache.get(f, w, h);
 			if (scaled == null) {
-				Image i = ConcurrentImageIO.read(f);
-				if (i != null) {
-					scaled = i.getScaledInstance(w, h, Image.SCALE_AREA_AVERAGING);
+				scaled = Thumbnailer.thumbnail(f, w, h);
+				if (scaled != null) {
 					NoteEditor.scalingCache.put(f, w, h, scaled);
-					i.flush();
 				}
 			}
 
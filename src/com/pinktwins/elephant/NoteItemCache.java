@@ -0,0 +1,230 @@
+package com.pinktwins.elephant;
+
+import java.io.File;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.eventbus.Subscribe;
+import com.pinktwins.elephant.eventbus.NoteChangedEvent;
+import com.pinktwins.elephant.util.Factory;
+import com.pinktwins.elephant.util.Metrics;
+
+// NoteItems by note file, least recently used first. Bounded by estimated
+// retained size of the items. When over budget, items with a picture thumbnail
+// are demoted to soft references instead of being dropped, so GC decides when
+// they go. Plain text items are cheap to rebuild and are dropped.
+
+class NoteItemCache {
+
+	private static final long MAX_BUDGET = 256L * 1024 * 1024;
+
+	// Soft references kept at most, to keep keys from piling up.
+	private static final int MAX_DEMOTED = 2000;
+
+	// Size assumed for an item before any have been cached.
+	private static final long DEFAULT_ITEM_SIZE = 48 * 1024;
+
+	private static class Entry {
+		final NoteItem item;
+		final long size;
+
+		Entry(NoteItem item) {
+			this.item = item;
+			this.size = item.estimatedSize();
+		}
+	}
+
+	private final long budget;
+	private long used = 0;
+
+	private final LinkedHashMap<File, Entry> items = new LinkedHashMap<File, Entry>(256, 0.75f, true);
+	private final LinkedHashMap<File, SoftReference<NoteItem>> demoted = new LinkedHashMap<File, SoftReference<NoteItem>>(256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<File, SoftReference<NoteItem>> eldest) {
+			return size() > MAX_DEMOTED;
+		}
+	};
+
+	private long hits, misses, evictions, demotions;
+
+	// Something was trimmed to fit the budget since last clear().
+	private boolean trimmed;
+
+	NoteItemCache() {
+		this(Math.min(Runtime.getRuntime().maxMemory() / 8, MAX_BUDGET));
+	}
+
+	NoteItemCache(long budget) {
+		this.budget = budget;
+		Elephant.eventBus.register(this);
+		Metrics.source("noteitems", this);
+		Metrics.gauge("noteitems.bytes", new Metrics.Gauge() {
+			@Override
+			public long value() {
+				return usedBytes();
+			}
+		});
+	}
+
+	synchronized long usedBytes() {
+		return used;
+	}
+
+	synchronized NoteItem get(File f) {
+		Entry e = items.get(f);
+		if (e != null) {
+			hits++;
+			return e.item;
+		}
+
+		SoftReference<NoteItem> ref = demoted.remove(f);
+		NoteItem item = ref != null ? ref.get() : null;
+		if (item != null) {
+			hits++;
+			put(f, item);
+			return item;
+		}
+
+		misses++;
+		return null;
+	}
+
+	synchronized void put(File f, NoteItem item) {
+		demoted.remove(f);
+
+		Entry e = new Entry(item);
+		Entry old = items.put(f, e);
+		if (old != null) {
+			used -= old.size;
+		}
+		used += e.size;
+
+		trim();
+	}
+
+	// Size of a cached item changed, eg. a thumbnail arrived after put().
+	synchronized void resized(File f, NoteItem item) {
+		Entry old = items.get(f);
+		if (old == null || old.item != item) {
+			return;
+		}
+
+		Entry e = new Entry(item);
+		items.put(f, e);
+		used += e.size - old.size;
+
+		trim();
+	}
+
+	private void trim() {
+		Iterator<Map.Entry<File, Entry>> i = items.entrySet().iterator();
+		while (used > budget && i.hasNext()) {
+			Map.Entry<File, Entry> eldest = i.next();
+			Entry e = eldest.getValue();
+
+			// Keep the most recent item even if it alone is over budget.
+			if (items.size() == 1) {
+				break;
+			}
+
+			i.remove();
+			used -= e.size;
+			trimmed = true;
+
+			if (e.item.hasHeavyPreview()) {
+				demoted.put(eldest.getKey(), new SoftReference<NoteItem>(e.item));
+				demotions++;
+			} else {
+				evictions++;
+			}
+		}
+	}
+
+	synchronized void remove(File f) {
+		Entry e = items.remove(f);
+		if (e != null) {
+			used -= e.size;
+		}
+		demoted.remove(f);
+	}
+
+	synchronized void clear() {
+		items.clear();
+		demoted.clear();
+		used = 0;
+		trimmed = false;
+	}
+
+	synchronized List<NoteItem> items() {
+		List<NoteItem> list = Factory.newArrayList();
+		for (Entry e : items.values()) {
+			list.add(e.item);
+		}
+		for (SoftReference<NoteItem> ref : demoted.values()) {
+			NoteItem item = ref.get();
+			if (item != null) {
+				list.add(item);
+			}
+		}
+		return list;
+	}
+
+	// Budget has been reached: items were already trimmed, or the next one
+	// would not fit. put() never lets used stay over budget, so comparing
+	// the two alone would never tell.
+	synchronized boolean isFull() {
+		if (trimmed) {
+			return true;
+		}
+		long average = items.isEmpty() ? DEFAULT_ITEM_SIZE : used / items.size();
+		return used + average > budget;
+	}
+
+	// How many items the budget holds, judging by items cached so far.
+	synchronized int estimatedCapacity() {
+		long average = items.isEmpty() ? DEFAULT_ITEM_SIZE : Math.max(1, used / items.size());
+		return (int) Math.min(Integer.MAX_VALUE, budget / average);
+	}
+
+	synchronized long hits() {
+		return hits;
+	}
+
+	synchronized long misses() {
+		return misses;
+	}
+
+	synchronized long evictions() {
+		return evictions;
+	}
+
+	synchronized long demotions() {
+		return demotions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("NoteItemCache: %d items, %d/%d KB, %d demoted, hits %d, misses %d, evictions %d, demotions %d", items.size(), used / 1024,
+				budget / 1024, demoted.size(), hits, misses, evictions, demotions);
+	}
+
+	@Subscribe
+	public void handleNoteChanged(NoteChangedEvent event) {
+		// Items attached to a list are replaced by the list itself
+		// (NoteList.updateThumb), only stale detached ones are dropped here.
+		File f = event.note.file();
+		synchronized (this) {
+			Entry e = items.get(f);
+			if (e != null && e.item.getParent() == null) {
+				remove(f);
+			} else {
+				demoted.remove(f);
+			}
+		}
+	}
+}
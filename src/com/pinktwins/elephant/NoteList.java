@@ -20,14 +20,14 @@ import java.io.IOException;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
-import javax.swing.JScrollBar;
-import javax.swing.SwingWorker;
 import javax.swing.TransferHandler;
 
 import com.google.common.eventbus.Subscribe;
@@ -40,12 +40,15 @@ import com.pinktwins.elephant.eventbus.UIEvent;
 import com.pinktwins.elephant.util.CustomMouseListener;
 import com.pinktwins.elephant.util.Factory;
 import com.pinktwins.elephant.util.Images;
+import com.pinktwins.elephant.util.Metrics;
 import com.pinktwins.elephant.util.ResizeListener;
+import com.pinktwins.elephant.util.TaskExecutor;
 
 public class NoteList extends BackgroundPanel implements NoteItemListener {
 
 	private static final Logger LOG = Logger.getLogger(NoteList.class.getName());
 
+	private static final int CARDVIEW_ITEMSIZE = 196;
 	private static final int SNIPPETVIEW_ITEMHEIGHT = 86;
 
 	private static Image tile;
@@ -53,36 +56,39 @@ public class NoteList extends BackgroundPanel implements NoteItemListener {
 	private ElephantWindow window;
 
 	private Notebook notebook;
-	private List<NoteItem> noteItems = Factory.newArrayList();
-	private SortedSet<NoteItem> selectedNotes = new TreeSet<NoteItem>(new Comparator<NoteItem>() {
+
+	// Notes of the current notebook, in list order. Only the rows in view have
+	// NoteItem components, see updateVisibleItems().
+	private List<Note> notes = Factory.newArrayList();
+	private Map<Note, Integer> noteIndex = Factory.newHashMap();
+	private Map<Integer, NoteItem> visibleItems = Factory.newHashMap();
+
+	private SortedSet<Note> selectedNotes = new TreeSet<Note>(new Comparator<Note>() {
 		@Override
-		public int compare(NoteItem o1, NoteItem o2) {
-			// Sort selectedNotes using whatever order is used by noteItems, by using indexOf().
-			// This overcomes the problem of TreeSet only using compareTo() and not equals()
-			// to check if item should be added to set or not: compareTo() will report 'equal'
-			// items depending on note sorting order (matching title, matching creation time).
-			// Thus noteItems.indexOf() is both reliable sorting and duplication property.
-			int i1 = noteItems.indexOf(o1);
-			int i2 = noteItems.indexOf(o2);
-			if (i1 > i2) {
-				return 1;
-			}
-			if (i1 < i2) {
-				return -1;
-			}
-			return 0;
+		public int compare(Note o1, Note o2) {
+			// Sort selectedNotes in list order. Index is both reliable sorting
+			// and duplication property, unlike Note.compareTo() which reports
+			// 'equal' notes depending on sorting order (matching title etc).
+			return Integer.compare(indexOf(o1), indexOf(o2));
 		}
 	});
 
-	private ListController<NoteItem> lc = ListController.newInstance();
+	private ListController<Note> lc = ListController.newInstance();
 
 	private Notebook previousNotebook;
 	private int initialScrollValue;
 	private static int separatorLineY = 41;
 
-	private final Workers<Point> workers = new Workers<Point>();
-	private boolean isWorking = false;
-	private final Trigger loadCancelTriggers = new Trigger();
+	// Rows above and below the viewport that also get components,
+	// and how far ahead items are built in the background.
+	private static final int OVERSCAN_ROWS = 2;
+	private static final int PREFETCH_ROWS = 8;
+	private int prefetchedTo = 0;
+
+	private final List<Future<?>> prefetches = Factory.newArrayList();
+	// Set when prefetches are cancelled. Threads aren't interrupted, that
+	// would close the image cache's channel in the middle of a read.
+	private AtomicBoolean prefetchCancelled = new AtomicBoolean();
 
 	private NoteListUI ui;
 
@@ -179,15 +185,7 @@ public class NoteList extends BackgroundPanel implements NoteItemListener {
 		ui.scroll.getVerticalScrollBar().addAdjustmentListener(new AdjustmentListener() {
 			@Override
 			public void adjustmentValueChanged(AdjustmentEvent e) {
-				// If we have reached the bottom of list, work more thumbs to screen
-				if (!isWorking && !workers.isEmpty()) {
-					JScrollBar v = ui.scroll.getVerticalScrollBar();
-					float f = (v.getValue() + v.getModel().getExtent()) / (float) v.getMaximum();
-					if (Float.valueOf(f).equals(Float.valueOf(1.0f))) {
-						isWorking = true;
-						workers.next();
-					}
-				}
+				updateVisibleItems();
 			}
 		});
 
@@ -202,16 +200,23 @@ public class NoteList extends BackgroundPanel implements NoteItemListener {
 	}
 
 	public void prepareCache(Notebook notebook) {
-		// Scale NoteItem thumbnails into .imagecache folder, don't do anything else.
-		// Do cache() after this is complete.
-		// This avoids some PdfBox internal memory usage, which GC couldn't purge.
+		// Queue NoteItem thumbnails to be scaled into .imagecache folder at
+		// background priority, behind thumbnails of notes in view.
+		// Only as many notes as the item cache is expected to hold.
+		int count = NoteItem.itemCacheCapacity();
 		for (Note n : notebook.getNotes()) {
+			if (count-- <= 0) {
+				break;
+			}
 			NoteItem.preparePictureThumbnail(n, listMode);
 		}
 	}
 
 	public void cache(Notebook notebook) {
 		for (Note n : notebook.getNotes()) {
+			if (NoteItem.isItemCacheFull()) {
+				break;
+			}
 			NoteItem.itemOf(n, listMode);
 		}
 	}
@@ -221,84 +226,26 @@ public class NoteList extends BackgroundPanel implements NoteItemListener {
 	}
 
 	public void load(Notebook notebook) {
-		long startTs = System.currentTimeMillis();
-
+		long start = System.nanoTime();
 		this.notebook = notebook;
 
-		loadCancelTriggers.triggerAll();
-		workers.clear();
+		cancelPrefetch();
 
 		ui.currentName.setText(notebook.name());
 
 		ui.main.removeAll();
-		noteItems.clear();
+		visibleItems.clear();
 		selectedNotes.clear();
 
 		ui.main.repaint();
 
-		final List<Note> list = notebook.getNotes();
-
-		final Trigger cancelTrigger = loadCancelTriggers.get();
-		int uiStep = notebook.count();
-
-		// First batch to screen NOW.
-		// This could come from SwingWorker too, but doing it here avoids some flickering.
-		for (int start = 0, end = Math.min(list.size(), uiStep); start < end; start++) {
-			NoteItem item = NoteItem.itemOf(list.get(start), listMode);
-			ui.main.add(item);
-			noteItems.add(item);
-
-			if (start > 0 && start % 100 == 0 && System.currentTimeMillis() - startTs > 200) {
-				uiStep = start + 1;
-				break;
-			}
-		}
-
-		// Paging for remaining notes.
-		for (int start = uiStep, end = list.size(); start < end; start += uiStep) {
-
-			final Point range = new Point(start, Math.min(start + uiStep, list.size()));
-
-			workers.add(new SwingWorker<Point, Void>() {
-				@Override
-				protected Point doInBackground() throws Exception {
-					for (int n = range.x, len = range.y; n < len; n++) {
-						if (cancelTrigger.isDown) {
-							return null;
-						}
-						NoteItem.itemOf(list.get(n), listMode);
-					}
-					return range;
-				}
-
-				@Override
-				protected void done() {
-					try {
-						Point range = get();
-						if (range != null) {
-							for (int n = range.x, len = range.y; n < len; n++) {
-								if (cancelTrigger.isDown) {
-									return;
-								}
-								NoteItem item = NoteItem.itemOf(list.get(n), listMode);
-								ui.main.add(item);
-								noteItems.add(item);
-							}
-
-							initialScrollValue = ui.scroll.getVerticalScrollBar().getValue();
-							layoutItems();
-							ui.scroll.getVerticalScrollBar().revalidate();
-						}
-					} catch (ExecutionException e) {
-						LOG.severe("Fail: " + e);
-					} catch (InterruptedException e) {
-						LOG.severe("Fail: " + e);
-					} finally {
-						isWorking = false;
-					}
-				}
-			});
+		notes = Factory.newArrayList();
+		notes.addAll(notebook.getNotes());
+		noteIndex = Factory.newHashMap();
+		for (int n = 0, len = notes.size(); n < len; n++) {
+			noteIndex.put(notes.get(n), n);
 		}
+		prefetchedTo = 0;
 
 		ui.allNotesPanel.setVisible(!notebook.isAllNotes());
 		ui.fillerPanel.setVisible(!notebook.isAllNotes());
@@ -312,6 +259,8 @@ public class NoteList extends BackgroundPanel implements NoteItemListener {
 		layoutItems();
 
 		previousNotebook = notebook;
+
+		Metrics.time("list.load", start);
 	}
 
 	public void setTitle(String s) {
@@ -322,77 +271,159 @@ public class NoteList extends BackgroundPanel implements NoteItemListener {
 		return separatorLineY;
 	}
 
-	private void layoutItems() {
+	private int indexOf(Note n) {
+		Integer index = noteIndex.get(n);
+		return index != null ? index : -1;
+	}
+
+	private int rowHeight() {
+		return listMode == ListModes.CARDVIEW ? CARDVIEW_ITEMSIZE : SNIPPETVIEW_ITEMHEIGHT;
+	}
+
+	private int topOffset() {
+		return (listMode == ListModes.CARDVIEW ? 12 : 0) + ui.main.getInsets().top;
+	}
+
+	// All rows have the same height, so position of any note can be computed
+	// from its index without having a component for it.
+	private Rectangle itemBounds(int index) {
 		Insets insets = ui.main.getInsets();
-		Dimension size = new Dimension(192, 192);
+		int width = ui.main.getBounds().width;
+		int row = index / lc.itemsPerRow;
+
+		switch (listMode) {
+		case CARDVIEW:
+			int fits = width / CARDVIEW_ITEMSIZE;
+			int itemAtRow = index % lc.itemsPerRow;
 
-		int x = 0, y = 0;
+			int x = 2 + insets.left + (itemAtRow * CARDVIEW_ITEMSIZE);
+			if (fits > 0) {
+				int extra = (width - (CARDVIEW_ITEMSIZE * fits)) / 2;
+				x += (itemAtRow + 1) * (extra / fits);
+			}
+			return new Rectangle(x, topOffset() + row * CARDVIEW_ITEMSIZE, CARDVIEW_ITEMSIZE, CARDVIEW_ITEMSIZE);
+		case SNIPPETVIEW:
+		default:
+			return new Rectangle(0, topOffset() + row * SNIPPETVIEW_ITEMHEIGHT, width, SNIPPETVIEW_ITEMHEIGHT);
+		}
+	}
 
+	private void layoutItems() {
 		switch (listMode) {
 		case CARDVIEW:
-			x = 2;
-			y = 12;
+			lc.itemsPerRow = Math.max(1, ui.main.getBounds().width / CARDVIEW_ITEMSIZE);
 			break;
 		case SNIPPETVIEW:
-			x = 0;
-			y = 0;
+			lc.itemsPerRow = 1;
 			break;
 		}
 
-		Rectangle mainBounds = ui.main.getBounds();
+		int rows = (notes.size() + lc.itemsPerRow - 1) / lc.itemsPerRow;
 
-		int itemAtRow = 0;
-		int lastOffset = 0;
-		for (NoteItem item : noteItems) {
-			size = item.getPreferredSize();
+		Dimension d = ui.main.getPreferredSize();
+		d.height = topOffset() + rows * rowHeight() + 12;
+		ui.main.setPreferredSize(d);
+		ui.main.revalidate();
+
+		updateVisibleItems();
+
+		EventQueue.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				ui.scroll.getVerticalScrollBar().setValue(initialScrollValue);
+				NoteList.this.repaint();
+			}
+		});
+	}
 
-			int linedX = 0;
-			int itemWidth = size.width;
-			int itemHeight = size.height;
+	// Attach items for rows in view, detach the rest. Detached items stay in
+	// NoteItem's cache, so scrolling back to them is cheap.
+	private void updateVisibleItems() {
+		Rectangle view = ui.scroll.getViewport().getViewRect();
+		int h = rowHeight(), top = topOffset();
 
-			switch (listMode) {
-			case CARDVIEW:
-				lc.itemsPerRow = mainBounds.width / size.width;
+		int firstRow = Math.max(0, (view.y - top) / h - OVERSCAN_ROWS);
+		int lastRow = Math.max(0, (view.y + view.height - top) / h + OVERSCAN_ROWS);
 
-				int extra = mainBounds.width - (size.width * lc.itemsPerRow);
-				extra /= 2;
+		int first = firstRow * lc.itemsPerRow;
+		int last = Math.min(notes.size(), (lastRow + 1) * lc.itemsPerRow) - 1;
 
-				linedX = x + insets.left + (itemAtRow * size.width);
-				if (lc.itemsPerRow > 0) {
-					int add = extra / lc.itemsPerRow;
-					linedX += (itemAtRow + 1) * add;
-				}
-				break;
-			case SNIPPETVIEW:
-				lc.itemsPerRow = 1;
-				itemWidth = mainBounds.width;
-				itemHeight = SNIPPETVIEW_ITEMHEIGHT;
-				break;
+		Iterator<Map.Entry<Integer, NoteItem>> i = visibleItems.entrySet().iterator();
+		while (i.hasNext()) {
+			Map.Entry<Integer, NoteItem> e = i.next();
+			if (e.getKey() < first || e.getKey() > last) {
+				ui.main.remove(e.getValue());
+				i.remove();
 			}
+		}
 
-			item.setBounds(linedX, y + insets.top, itemWidth, itemHeight);
+		List<File> pendingThumbnails = Factory.newArrayList();
 
-			if (itemAtRow < lc.itemsPerRow - 1) {
-				itemAtRow++;
-				lastOffset = size.height;
-			} else {
-				y += itemHeight;
-				itemAtRow = 0;
-				lastOffset = 0;
+		for (int n = first; n <= last; n++) {
+			NoteItem item = visibleItems.get(n);
+			if (item == null) {
+				Note note = notes.get(n);
+				item = NoteItem.itemOf(note, listMode);
+				item.setSelected(selectedNotes.contains(note));
+				ui.main.add(item);
+				visibleItems.put(n, item);
+			}
+			item.setBounds(itemBounds(n));
+
+			// Thumbnails in view first, top to bottom.
+			if (item.pendingThumbnail() != null) {
+				item.ensureThumbnail(ThumbnailScheduler.VISIBLE + n - first);
+				pendingThumbnails.add(item.pendingThumbnail());
 			}
 		}
 
-		Dimension d = ui.main.getPreferredSize();
-		d.height = y + 12 + lastOffset;
-		ui.main.setPreferredSize(d);
+		ThumbnailScheduler.getInstance().visibleChanged(pendingThumbnails, listMode);
 
-		EventQueue.invokeLater(new Runnable() {
+		ui.main.repaint();
+
+		prefetch(last + 1, Math.min(notes.size(), last + 1 + PREFETCH_ROWS * lc.itemsPerRow));
+	}
+
+	private void prefetch(int from, final int to) {
+		from = Math.max(from, prefetchedTo);
+		if (from >= to) {
+			return;
+		}
+		prefetchedTo = to;
+
+		final List<Note> list = notes;
+		final NoteList.ListModes mode = listMode;
+		final int start = from;
+
+		for (Iterator<Future<?>> i = prefetches.iterator(); i.hasNext();) {
+			if (i.next().isDone()) {
+				i.remove();
+			}
+		}
+
+		// Rows closer to view go first.
+		final AtomicBoolean cancelled = prefetchCancelled;
+		prefetches.add(TaskExecutor.LIST.submit(TaskExecutor.NORMAL + start, new Runnable() {
 			@Override
 			public void run() {
-				ui.scroll.getVerticalScrollBar().setValue(initialScrollValue);
-				NoteList.this.repaint();
+				for (int n = start; n < to; n++) {
+					if (cancelled.get()) {
+						return;
+					}
+					NoteItem.itemOf(list.get(n), mode);
+				}
 			}
-		});
+		}));
+	}
+
+	private void cancelPrefetch() {
+		prefetchCancelled.set(true);
+		prefetchCancelled = new AtomicBoolean();
+
+		for (Future<?> f : prefetches) {
+			f.cancel(false);
+		}
+		prefetches.clear();
 	}
 
 	@Override
@@ -410,27 +441,22 @@ public class NoteList extends BackgroundPanel implements NoteItemListener {
 			boolean addToSelection = e.isMetaDown() || e.isControlDown() || e.isShiftDown();
 
 			if (addToSelection && item.isSelected() && selectedNotes.size() > 1) {
-				deselectNote(item);
+				deselectNote(item.note);
 			} else {
 				selectNote(item.note, addToSelection);
 			}
 
 			if (e.isShiftDown()) {
-				// Select range between clicked note and notes above/below
-				int itemIndex = noteItems.indexOf(item);
+				// Select range between clicked note and nearest selected notes above/below
+				int itemIndex = indexOf(item.note);
 				int index = -1;
-				for (int n = itemIndex - 1; n >= 0; n--) {
-					NoteItem ni = noteItems.get(n);
-					if (ni.isSelected()) {
-						index = n;
-						break;
-					}
-				}
-				if (index == -1) {
-					for (int n = itemIndex + 1; n < noteItems.size(); n++) {
-						NoteItem ni = noteItems.get(n);
-						if (ni.isSelected()) {
-							index = n;
+				SortedSet<Note> above = selectedNotes.headSet(item.note);
+				if (!above.isEmpty()) {
+					index = indexOf(above.last());
+				} else {
+					for (Note n : selectedNotes.tailSet(item.note)) {
+						if (!n.equals(item.note)) {
+							index = indexOf(n);
 							break;
 						}
 					}
@@ -438,7 +464,7 @@ public class NoteList extends BackgroundPanel implements NoteItemListener {
 				if (index > -1) {
 					int min = Math.min(index, itemIndex), max = Math.max(index, itemIndex);
 					for (int n = Math.max(min, 0); n <= max; n++) {
-						selectNote(noteItems.get(n), true);
+						selectNote(n, true);
 					}
 				}
 			}
@@ -447,20 +473,27 @@ public class NoteList extends BackgroundPanel implements NoteItemListener {
 		}
 	}
 
-	private void selectNote(final NoteItem item, final boolean addToSelection) {
+	private void selectNote(final int index, final boolean addToSelection) {
 		if (!addToSelection) {
 			deselectAll();
 		}
 
-		selectedNotes.add(item);
-		item.setSelected(true);
+		selectedNotes.add(notes.get(index));
 
-		lc.updateVerticalScrollbar(item, ui.scroll);
+		NoteItem item = visibleItems.get(index);
+		if (item != null) {
+			item.setSelected(true);
+		}
+
+		lc.updateVerticalScrollbar(itemBounds(index), ui.scroll);
 	}
 
-	private void deselectNote(final NoteItem item) {
-		item.setSelected(false);
-		selectedNotes.remove(item);
+	private void deselectNote(final Note n) {
+		NoteItem item = visibleItems.get(indexOf(n));
+		if (item != null) {
+			item.setSelected(false);
+		}
+		selectedNotes.remove(n);
 	}
 
 	public void changeSelection(int delta, KeyEvent event) {
@@ -476,26 +509,27 @@ public class NoteList extends BackgroundPanel implements NoteItemListener {
 		boolean sideways = !window.isSearchFocused() && (keyCode == KeyEvent.VK_UP || keyCode == KeyEvent.VK_DOWN);
 
 		// Get first or last selected note, depending on key pressed
-		NoteItem selected = null;
+		Note selected = null;
 		if (!selectedNotes.isEmpty()) {
 			selected = (keyCode == KeyEvent.VK_UP || keyCode == KeyEvent.VK_LEFT) ? selectedNotes.first() : selectedNotes.last();
 		}
 
-		NoteItem item = lc.changeSelection(noteItems, selected, delta, sideways);
-		if (item != null) {
+		Note note = lc.changeSelection(notes, selected, delta, sideways);
+		if (note != null) {
 			if (!addToSelection) {
 				deselectAll();
 			}
 
-			selectNote(item, addToSelection);
+			int to = indexOf(note);
+			selectNote(to, addToSelection);
 
 			// Select all notes between previous and new selection when shift pressed
 			if (sideways && addToSelection && selected != null) {
-				int from = noteItems.indexOf(selected), to = noteItems.indexOf(item);
+				int from = indexOf(selected);
 				int min = Math.min(from, to), max = Math.max(from, to);
 
 				for (int n = min + 1; n < max; n++) {
-					selectNote(noteItems.get(n), addToSelection);
+					selectNote(n, addToSelection);
 				}
 			}
 
@@ -509,33 +543,30 @@ public class NoteList extends BackgroundPanel implements NoteItemListener {
 		}
 
 		if (selectedNotes.size() == 1) {
-			window.showNote(selectedNotes.first().note);
+			window.showNote(selectedNotes.first());
 		} else {
 			window.showMultipleNotes();
 		}
 	}
 
 	private void deselectAll() {
-		for (NoteItem i : noteItems) {
+		for (NoteItem i : visibleItems.values()) {
 			i.setSelected(false);
 		}
 		selectedNotes.clear();
 	}
 
 	public void selectNote(final Note n, final boolean addToSelection) {
-		for (NoteItem item : noteItems) {
-			if (item.note.equals(n)) {
-				selectNote(item, addToSelection);
-				return;
-			}
+		int index = indexOf(n);
+		if (index >= 0) {
+			selectNote(index, addToSelection);
 		}
 	}
 
 	public Note selectNote(int index) {
-		if (index >= 0 && index < noteItems.size()) {
-			NoteItem item = noteItems.get(index);
-			selectNote(item, false);
-			return item.note;
+		if (index >= 0 && index < notes.size()) {
+			selectNote(index, false);
+			return notes.get(index);
 		}
 
 		return null;
@@ -544,7 +575,10 @@ public class NoteList extends BackgroundPanel implements NoteItemListener {
 	public void unfocusEditor() {
 		if (!selectedNotes.isEmpty()) {
 			this.requestFocusInWindow();
-			selectedNotes.first().requestFocusInWindow();
+			NoteItem item = visibleItems.get(indexOf(selectedNotes.first()));
+			if (item != null) {
+				item.requestFocusInWindow();
+			}
 		}
 	}
 
@@ -561,20 +595,18 @@ public class NoteList extends BackgroundPanel implements NoteItemListener {
 
 	public void deleteSelected() {
 		if (!selectedNotes.isEmpty()) {
-			int index = noteItems.indexOf(selectedNotes.first());
+			int index = indexOf(selectedNotes.first());
 
-			Iterator<NoteItem> i = new TreeSet<NoteItem>(selectedNotes).iterator();
+			Iterator<Note> i = new TreeSet<Note>(selectedNotes).iterator();
 			while (i.hasNext()) {
-				NoteItem item = i.next();
-				notebook.deleteNote(item.note);
+				notebook.deleteNote(i.next());
 			}
 
 			load(notebook);
 
-			if (index >= 0 && index < noteItems.size()) {
-				NoteItem item = noteItems.get(index);
-				window.showNote(item.note);
-				selectNote(item, false);
+			if (index >= 0 && index < notes.size()) {
+				window.showNote(notes.get(index));
+				selectNote(index, false);
 			} else {
 				selectedNotes.clear();
 				window.clearNoteEditor();
@@ -584,24 +616,28 @@ public class NoteList extends BackgroundPanel implements NoteItemListener {
 	}
 
 	public void updateThumb(Note note) {
-		for (NoteItem item : noteItems) {
-			if (item.note.equals(note)) {
-				int index = noteItems.indexOf(item);
-				noteItems.remove(item);
-
-				NoteItem.removeCacheKey(note.file());
-				noteItems.add(index, NoteItem.itemOf(note, listMode));
-				return;
-			}
+		NoteItem.removeCacheKey(note.file());
+
+		int index = indexOf(note);
+		NoteItem old = visibleItems.remove(index);
+		if (old != null) {
+			ui.main.remove(old);
+
+			NoteItem item = NoteItem.itemOf(note, listMode);
+			item.setSelected(selectedNotes.contains(note));
+			item.setBounds(itemBounds(index));
+			ui.main.add(item);
+			visibleItems.put(index, item);
+			ui.main.repaint();
 		}
 	}
 
 	public void updateLoad() {
 		Note n = null;
-		NoteItem[] selections = null;
+		Note[] selections = null;
 		if (!selectedNotes.isEmpty()) {
-			n = selectedNotes.first().note;
-			selections = selectedNotes.toArray(new NoteItem[selectedNotes.size()]);
+			n = selectedNotes.first();
+			selections = selectedNotes.toArray(new Note[selectedNotes.size()]);
 		}
 
 		load(notebook);
@@ -610,7 +646,7 @@ public class NoteList extends BackgroundPanel implements NoteItemListener {
 			selectNote(n, false);
 			if (selections != null) {
 				for (int i = 0; i < selections.length; i++) {
-					selectNote(selections[i].note, true);
+					selectNote(selections[i], true);
 				}
 			}
 
@@ -669,14 +705,12 @@ public class NoteList extends BackgroundPanel implements NoteItemListener {
 
 	public Set<Note> getSelection() {
 		Set<Note> sel = Factory.newHashSet();
-		for (NoteItem item : selectedNotes) {
-			sel.add(item.note);
-		}
+		sel.addAll(selectedNotes);
 		return sel;
 	}
 
 	public int getIndexOfFirstSelectedNote() {
-		return selectedNotes.isEmpty() ? -1 : noteItems.indexOf(selectedNotes.first());
+		return selectedNotes.isEmpty() ? -1 : indexOf(selectedNotes.first());
 	}
 
 	public void changeMode(ListModes newMode) {
@@ -6,6 +6,7 @@ import java.awt.Font;
 import java.awt.Image;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.io.File;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -34,6 +35,8 @@ public class Notebooks extends ToolbarList<Notebooks.NotebookItem> {
 	private static Image tile, notebookBg, notebookBgSelected, newNotebook;
 	private ElephantWindow window;
 	private NotebookActionListener naListener;
+	// Renamed notebook to select when it shows up in the list.
+	private File selectOnUpdate;
 
 	private static final Font shouldSyncFontOff = Font.decode("Arial-10");
 	private static final Font shouldSyncFontOn = Font.decode("Arial-BOLD-16");
@@ -96,9 +99,19 @@ public class Notebooks extends ToolbarList<Notebooks.NotebookItem> {
 		return items;
 	}
 
+	@SuppressWarnings("unlikely-arg-type")
 	@Override
 	protected void afterUpdate() {
 		setSyncVisible(Elephant.settings.getBoolean(Settings.Keys.SYNC));
+
+		if (selectOnUpdate != null) {
+			for (NotebookItem i : itemList) {
+				if (i.notebook.equals(selectOnUpdate)) {
+					selectItem(i);
+					selectOnUpdate = null;
+				}
+			}
+		}
 	}
 
 	public void openSelected() {
@@ -150,18 +163,14 @@ public class Notebooks extends ToolbarList<Notebooks.NotebookItem> {
 		return edit;
 	}
 
-	@SuppressWarnings("unlikely-arg-type")
 	@Override
 	protected void doneEditing(NotebookItem item, String text) {
 		if (item.notebook.rename(text)) {
+			// Selected once the list is updated from Vault.
+			selectOnUpdate = item.notebook.folder();
+
 			new VaultEvent(VaultEvent.Kind.notebookCreated, item.notebook).post();
 			new VaultEvent(VaultEvent.Kind.notebookListChanged, item.notebook).post();
-
-			for (NotebookItem i : itemList) {
-				if (i.notebook.equals(item.notebook.folder())) {
-					selectItem(i);
-				}
-			}
 		} else {
 			// XXX likely nonconforming characters in name. explain it.
 		}
@@ -0,0 +1,202 @@
+package com.pinktwins.elephant;
+
+import java.awt.Dimension;
+import java.awt.Image;
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import com.pinktwins.elephant.util.Factory;
+import com.pinktwins.elephant.util.Metrics;
+import com.pinktwins.elephant.util.PdfUtil;
+import com.pinktwins.elephant.util.TaskExecutor;
+
+// Renders pdf pages into the preview cache.
+//
+// Opening a large pdf is expensive, so a few recently used documents are
+// kept open and shared by editor previews and note list thumbnails. A
+// document in use is pinned, and closed only once the last user is done
+// with it, even if pushed out by more recently used documents. Pages
+// are rendered one at a time per document (PDFBox documents aren't safe for
+// concurrent use) on the preview executor, and only when asked for:
+// editor previews ask for pages as they scroll into view.
+
+class PdfRenderService {
+
+	private static final int MAX_OPEN_DOCUMENTS = 4;
+
+	private static PdfRenderService instance;
+
+	private final LinkedHashMap<String, Open> documents = new LinkedHashMap<String, Open>(8, 0.75f, true);
+
+	private long opened, rendered, renderNanos;
+
+	static synchronized PdfRenderService getInstance() {
+		if (instance == null) {
+			instance = new PdfRenderService();
+		}
+		return instance;
+	}
+
+	private PdfRenderService() {
+		Metrics.source("pdf", this);
+	}
+
+	private static String key(File pdf) {
+		return pdf.getAbsolutePath() + ":" + pdf.length() + ":" + pdf.lastModified();
+	}
+
+	// Open document with a pin count. Documents pushed out of the map while
+	// pinned are closed by the last release instead. Loaded by its first
+	// user, outside the map lock: users of other documents don't wait.
+	private static class Open {
+		private final File file;
+		private PdfUtil doc;
+		private Dimension[] pageSizes;
+
+		// Guarded by documents
+		int pins;
+		boolean evicted;
+
+		Open(File file) {
+			this.file = file;
+		}
+
+		synchronized PdfUtil doc() {
+			if (doc == null) {
+				doc = new PdfUtil(file);
+			}
+			return doc;
+		}
+
+		synchronized Dimension[] pageSizes() {
+			if (pageSizes == null) {
+				pageSizes = doc().pageSizes();
+			}
+			return pageSizes;
+		}
+
+		// Only when unpinned, nobody is loading or using it.
+		synchronized void close() {
+			if (doc != null) {
+				doc.close();
+			}
+		}
+	}
+
+	// Shared open document, pinned until released. Callers must not close it.
+	private Open pin(File pdf) {
+		List<Open> evicted = Factory.newArrayList();
+		Open open;
+
+		synchronized (documents) {
+			String key = key(pdf);
+			open = documents.get(key);
+			if (open == null) {
+				open = new Open(pdf);
+				documents.put(key, open);
+				opened++;
+
+				Iterator<Open> i = documents.values().iterator();
+				while (documents.size() > MAX_OPEN_DOCUMENTS && i.hasNext()) {
+					Open old = i.next();
+					i.remove();
+					old.evicted = true;
+					if (old.pins == 0) {
+						evicted.add(old);
+					}
+				}
+			}
+			open.pins++;
+		}
+
+		// Close outside the lock, nobody can pin these anymore.
+		for (Open old : evicted) {
+			old.close();
+		}
+
+		return open;
+	}
+
+	private void release(Open open) {
+		boolean close;
+		synchronized (documents) {
+			open.pins--;
+			close = open.evicted && open.pins == 0;
+		}
+		if (close) {
+			open.close();
+		}
+	}
+
+	int numPages(File pdf) {
+		Open open = pin(pdf);
+		try {
+			return open.doc().numPages();
+		} finally {
+			release(open);
+		}
+	}
+
+	// Sizes of all pages, kept with the open document.
+	Dimension[] pageSizes(File pdf) {
+		Open open = pin(pdf);
+		try {
+			return open.pageSizes();
+		} finally {
+			release(open);
+		}
+	}
+
+	// Width of the first page, -1 if the document has no pages.
+	long pageWidth(File pdf) {
+		Open open = pin(pdf);
+		try {
+			return open.doc().getPageBBoxWidth();
+		} finally {
+			release(open);
+		}
+	}
+
+	// Render page (1-based) into outPath on the calling thread.
+	// Returns null if the page can't be rendered.
+	Image renderPage(File pdf, int page, File outPath, int minimumWidth) {
+		long start = System.nanoTime();
+
+		Image img;
+		Open open = pin(pdf);
+		try {
+			img = open.doc().writePage(page, outPath, minimumWidth);
+		} finally {
+			release(open);
+		}
+
+		synchronized (this) {
+			rendered++;
+			renderNanos += System.nanoTime() - start;
+		}
+		return img;
+	}
+
+	// Run page render on the preview executor. Lower pages go first, and a
+	// newer request for the same page replaces one still in the queue.
+	Future<?> submit(File pdf, int page, Runnable r) {
+		return TaskExecutor.PREVIEW.submit(pdf.getAbsolutePath() + ":" + page, TaskExecutor.NORMAL + page, r);
+	}
+
+	@Override
+	public String toString() {
+		int open;
+		long openedCount;
+		synchronized (documents) {
+			open = documents.size();
+			openedCount = opened;
+		}
+		synchronized (this) {
+			return String.format("PdfRenderService: %d open, %d opened, %d pages rendered, avg %.1f ms", open, openedCount, rendered,
+					rendered == 0 ? 0 : renderNanos / (double) rendered / 1000000.0);
+		}
+	}
+}
@@ -5,21 +5,25 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import javax.swing.ImageIcon;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.StyledDocument;
 
 import org.apache.commons.io.FilenameUtils;
 
 import com.pinktwins.elephant.CustomEditor.AttachmentInfo;
 import com.pinktwins.elephant.data.Note;
+import com.pinktwins.elephant.data.NoteSaveQueue;
 import com.pinktwins.elephant.data.Notebook;
 import com.pinktwins.elephant.data.Settings;
 import com.pinktwins.elephant.data.Sync;
 import com.pinktwins.elephant.data.Vault;
 import com.pinktwins.elephant.eventbus.NoteChangedEvent;
+import com.pinktwins.elephant.util.Factory;
 
 public class SaveChanges {
 
@@ -45,6 +49,54 @@ public class SaveChanges {
 		return null;
 	}
 
+	// Attachment files by position in the note.
+	private static Map<File, Integer> attachmentPositions(NoteAttachments attachments, List<AttachmentInfo> info) {
+		Map<File, Integer> positions = Factory.newHashMap();
+		for (AttachmentInfo i : info) {
+			if (i.object instanceof ImageIcon || i.object instanceof FileAttachment) {
+				File f = attachments.get(i.object);
+				if (f != null) {
+					positions.put(f, i.startPosition);
+				}
+			}
+		}
+		return positions;
+	}
+
+	private static void setAttachmentPositions(Note note, Map<File, Integer> positions) {
+		Note.Meta meta = note.getMeta();
+		for (Map.Entry<File, Integer> e : positions.entrySet()) {
+			meta.setAttachmentPosition(e.getKey(), e.getValue());
+		}
+	}
+
+	// Rtf of doc is made and compared to the note on the save queue's thread.
+	// If the note changed, the rest of a text save happens once it's written.
+	private static void saveRichText(final Note note, final StyledDocument doc, final Map<File, Integer> positions) {
+		note.save(new NoteSaveQueue.Contents() {
+			@Override
+			public String text() {
+				try {
+					return CustomEditor.getText(doc, true);
+				} catch (BadLocationException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}, new Runnable() {
+			@Override
+			public void run() {
+				setAttachmentPositions(note, positions);
+
+				Notebook nb = note.findContainingNotebook();
+				if (nb != null) {
+					nb.markNoteSavedTimestamp();
+				}
+
+				new NoteChangedEvent(note, true).post();
+			}
+		});
+	}
+
 	public static void saveChanges(Note currentNote, NoteAttachments attachments, NoteEditor noteEditor, TagEditorPane tagPane) {
 		if (currentNote != null) {
 			CustomEditor editor = noteEditor.editor;
@@ -53,6 +105,7 @@ public class SaveChanges {
 
 			boolean changed = false;
 			boolean contentChanged = false;
+			boolean textSaved = false;
 
 			File noteFileBeforeRename = currentNote.file();
 			File metaFileBeforeRename = currentNote.meta();
@@ -118,39 +171,46 @@ public class SaveChanges {
 
 				List<AttachmentInfo> info_reverse = editor.removeAttachmentElements(info);
 
-				String fileText = currentNote.contents();
-				String editedText = editor.getText();
-
-				if (editor.isMarkdown && Elephant.settings.getMarkdownFullPicturePath()) {
-					// If full picture path is used (to support external markdown editors)
-					// and note was renamed, we need to modify the path for the newly renamed
-					// attachments folder.
-					if (renamedFile != null) {
-						String oldPath = noteFileBeforeRename.getName();
-						String newPath = renamedFile.getName();
-						try {
-							oldPath = URLEncoder.encode(oldPath, "UTF-8");
-							newPath = URLEncoder.encode(newPath, "UTF-8");
-							oldPath = oldPath.replace("+", "%20");
-							newPath = newPath.replace("+", "%20");
-						} catch (UnsupportedEncodingException e) {
-							LOG.severe("Fail: " + e);
-						}
+				if (editor.isRichText) {
+					// Writing rtf is slow for big notes: snapshot the document here,
+					// the save queue writes rtf of it and tells if it changed.
+					saveRichText(currentNote, editor.snapshotDocument(), attachmentPositions(attachments, info));
+				} else {
+					String fileText = currentNote.contents();
+					String editedText = editor.getText();
+
+					if (editor.isMarkdown && Elephant.settings.getMarkdownFullPicturePath()) {
+						// If full picture path is used (to support external markdown editors)
+						// and note was renamed, we need to modify the path for the newly renamed
+						// attachments folder.
+						if (renamedFile != null) {
+							String oldPath = noteFileBeforeRename.getName();
+							String newPath = renamedFile.getName();
+							try {
+								oldPath = URLEncoder.encode(oldPath, "UTF-8");
+								newPath = URLEncoder.encode(newPath, "UTF-8");
+								oldPath = oldPath.replace("+", "%20");
+								newPath = newPath.replace("+", "%20");
+							} catch (UnsupportedEncodingException e) {
+								LOG.severe("Fail: " + e);
+							}
 
-						oldPath = "](" + oldPath + ".attachments" + File.separator;
-						newPath = "](" + newPath + ".attachments" + File.separator;
-						String s = editedText.replace(oldPath, newPath);
-						if (!s.equals(editedText)) {
-							editor.setText(s);
-							editedText = s;
+							oldPath = "](" + oldPath + ".attachments" + File.separator;
+							newPath = "](" + newPath + ".attachments" + File.separator;
+							String s = editedText.replace(oldPath, newPath);
+							if (!s.equals(editedText)) {
+								editor.setText(s);
+								editedText = s;
+							}
 						}
 					}
-				}
 
-				if (!fileText.equals(editedText)) {
-					currentNote.save(editedText);
-					changed = true;
-					contentChanged = true;
+					if (!fileText.equals(editedText)) {
+						currentNote.save(editedText);
+						textSaved = true;
+						changed = true;
+						contentChanged = true;
+					}
 				}
 
 				// remainingAttachments were not found in document anymore.
@@ -167,14 +227,7 @@ public class SaveChanges {
 
 				if (changed || attachments.didChange()) {
 					// update attachment positions in metadata
-					for (AttachmentInfo i : info) {
-						if (i.object instanceof ImageIcon || i.object instanceof FileAttachment) {
-							File f = attachments.get(i.object);
-							if (f != null) {
-								currentNote.getMeta().setAttachmentPosition(f, i.startPosition);
-							}
-						}
-					}
+					setAttachmentPositions(currentNote, attachmentPositions(attachments, info));
 
 					changed = true;
 					contentChanged = true;
@@ -207,7 +260,19 @@ public class SaveChanges {
 			editor.restoreSelection();
 
 			if (changed) {
-				new NoteChangedEvent(currentNote, contentChanged).post();
+				final NoteChangedEvent event = new NoteChangedEvent(currentNote, contentChanged);
+				if (textSaved) {
+					// Note text is written in the background. Let listeners
+					// (indexer, note list) see the event once it's on disk.
+					NoteSaveQueue.getInstance().whenWritten(currentNote, new Runnable() {
+						@Override
+						public void run() {
+							event.post();
+						}
+					});
+				} else {
+					event.post();
+				}
 			}
 		}
 
@@ -206,7 +206,7 @@ public class SideBarList extends JPanel {
 					} else {
 						icon.setIcon(sidebarNote);
 						icon.setPressedIcon(sidebarNote);
-						Note note = new Note(file);
+						Note note = Vault.getInstance().getNote(file);
 						s = note.getMeta().title();
 					}
 
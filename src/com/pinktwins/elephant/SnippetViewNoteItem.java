@@ -15,6 +15,7 @@ import javax.swing.JPanel;
 import javax.swing.JTextPane;
 
 import com.pinktwins.elephant.data.Note;
+import com.pinktwins.elephant.data.Vault;
 import com.pinktwins.elephant.ui.RetinaImageIcon;
 import com.pinktwins.elephant.util.Images;
 import com.pinktwins.elephant.util.ScreenUtil;
@@ -33,6 +34,9 @@ public class SnippetViewNoteItem extends NoteItem {
 
 	private JPanel previewPane;
 
+	// Set once components are laid out, for thumbnails arriving later.
+	private JPanel content;
+
 	public SnippetViewNoteItem(Note n) {
 		super(n, NoteList.ListModes.SNIPPETVIEW);
 
@@ -81,29 +85,32 @@ public class SnippetViewNoteItem extends NoteItem {
 		root.addOpaque(p, BorderLayout.CENTER);
 
 		if (image != null) {
-			((JPanel) image).setOpaque(false);
-
-			JPanel borders = new JPanel(null);
-			borders.setOpaque(false);
-			borders.add(image, BorderLayout.CENTER);
-			image.setBounds(5, 5, 75, 75);
-			borders.setPreferredSize(new Dimension(85, 85));
-
-			p.add(borders, BorderLayout.EAST);
+			addImage(p, image);
 		}
 
 		add(root, BorderLayout.CENTER);
 
 		p.addMouseListener(this);
+
+		content = p;
+	}
+
+	private void addImage(JPanel p, Component image) {
+		((JPanel) image).setOpaque(false);
+
+		JPanel borders = new JPanel(null);
+		borders.setOpaque(false);
+		borders.add(image, BorderLayout.CENTER);
+		image.setBounds(5, 5, 75, 75);
+		borders.setPreferredSize(new Dimension(85, 85));
+
+		p.add(borders, BorderLayout.EAST);
 	}
 
 	@Override
 	protected String getContentPreview() {
-		String contents = note.contents().trim();
-		if (contents.length() > 600) {
-			contents = contents.substring(0, 600) + "…";
-		}
-		return contents;
+		// Already cut to SnippetStore.PREVIEW_LENGTH
+		return Vault.getInstance().getSnippet(note).preview;
 	}
 
 	@Override
@@ -114,6 +121,7 @@ public class SnippetViewNoteItem extends NoteItem {
 		if (scaled != null) {
 			JLabel iconLabel = new JLabel("");
 			iconLabel.setIcon(new RetinaImageIcon(scaled));
+			thumbnailBytes = imageBytes(scaled);
 			iconLabel.setBounds(0, 0, 75, 75);
 
 			JPanel pa = new JPanel(new BorderLayout());
@@ -130,7 +138,11 @@ public class SnippetViewNoteItem extends NoteItem {
 			pa.setBackground(Color.WHITE);
 			pa.add(iconLabel);
 
-			previewPane.add(pa);
+			if (content != null) {
+				addImage(content, pa);
+			} else {
+				previewPane.add(pa);
+			}
 			return true;
 		}
 		return false;
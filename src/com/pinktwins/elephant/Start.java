@@ -164,7 +164,7 @@ public class Start extends BackgroundPanel {
 
 	private void addBuiltInNote(String filePath, String title, String contents) {
 		File note = new File(filePath);
-		Note n = new Note(note);
+		Note n = Vault.getInstance().getNote(note);
 		n.getMeta().title(title);
 		try {
 			IOUtil.writeFile(note, contents);
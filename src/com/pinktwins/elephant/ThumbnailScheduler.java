@@ -0,0 +1,256 @@
+package com.pinktwins.elephant;
+
+import java.awt.EventQueue;
+import java.awt.Image;
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FilenameUtils;
+
+import com.pinktwins.elephant.util.Factory;
+import com.pinktwins.elephant.util.Histogram;
+import com.pinktwins.elephant.util.Metrics;
+
+// Prepares note list thumbnails of attachments on a few background threads.
+//
+// Requests for attachments on screen go before everything else, top of the
+// list first. When the list scrolls, requests made only because an item was
+// visible are dropped; the item asks again if it comes back to view.
+// Requests for the same attachment and list mode share one task.
+
+class ThumbnailScheduler {
+
+	private static final Logger LOG = Logger.getLogger(ThumbnailScheduler.class.getName());
+
+	// Priorities: lower goes first. Visible items use VISIBLE + their row in view.
+	static final long VISIBLE = 0;
+	static final long BACKGROUND = Long.MAX_VALUE / 2;
+
+	interface Listener {
+		// Called on the EDT. picture is the image to scale for the thumbnail
+		// (attachment itself or a rendered pdf page), or null if there is none.
+		public void thumbnailReady(File attachment, File picture);
+	}
+
+	private static class Task implements Comparable<Task> {
+		final String key;
+		final File attachment;
+		final NoteList.ListModes mode;
+		final long seq;
+		final long queuedAt = System.nanoTime();
+		final List<Listener> listeners = Factory.newArrayList();
+
+		long priority;
+		boolean visible, background, running;
+
+		Task(String key, File attachment, NoteList.ListModes mode, long seq) {
+			this.key = key;
+			this.attachment = attachment;
+			this.mode = mode;
+			this.seq = seq;
+		}
+
+		@Override
+		public int compareTo(Task o) {
+			if (priority != o.priority) {
+				return priority < o.priority ? -1 : 1;
+			}
+			return seq < o.seq ? -1 : (seq == o.seq ? 0 : 1);
+		}
+	}
+
+	private static ThumbnailScheduler instance;
+
+	private final PriorityQueue<Task> queue = new PriorityQueue<Task>();
+	private final Map<String, Task> tasks = Factory.newHashMap();
+	private long seq = 0;
+
+	private final Histogram queueWait = Metrics.histogram("thumbnails.queue");
+	private final Histogram pdfRender = Metrics.histogram("thumbnails.pdf");
+	private final Histogram scale = Metrics.histogram("thumbnails.scale");
+	private final Histogram total = Metrics.histogram("thumbnails.total");
+
+	static synchronized ThumbnailScheduler getInstance() {
+		if (instance == null) {
+			instance = new ThumbnailScheduler();
+		}
+		return instance;
+	}
+
+	private ThumbnailScheduler() {
+		Metrics.source("thumbnails", this);
+
+		int threads = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+		for (int n = 0; n < threads; n++) {
+			Thread t = new Thread("Elephant thumbnails " + n) {
+				@Override
+				public void run() {
+					while (true) {
+						try {
+							runNext();
+						} catch (InterruptedException e) {
+							return;
+						} catch (Throwable t) {
+							LOG.severe("Fail: " + t);
+						}
+					}
+				}
+			};
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			t.start();
+		}
+	}
+
+	private static String key(File attachment, NoteList.ListModes mode) {
+		return attachment.getAbsolutePath() + ":" + mode;
+	}
+
+	// Listener may be null when only the cached thumbnail is wanted.
+	synchronized void request(File attachment, NoteList.ListModes mode, long priority, Listener l) {
+		String key = key(attachment, mode);
+
+		Task t = tasks.get(key);
+		if (t == null) {
+			t = new Task(key, attachment, mode, seq++);
+			t.priority = priority;
+			tasks.put(key, t);
+			queue.add(t);
+			notifyAll();
+		} else if (priority < t.priority && !t.running) {
+			queue.remove(t);
+			t.priority = priority;
+			queue.add(t);
+		}
+
+		if (priority < BACKGROUND) {
+			t.visible = true;
+		} else {
+			t.background = true;
+		}
+
+		if (l != null && !t.listeners.contains(l)) {
+			t.listeners.add(l);
+		}
+	}
+
+	// Attachments now in view of a list. Queued tasks that were for items in
+	// view before but not anymore are dropped, or back to background priority
+	// if also requested for background.
+	synchronized void visibleChanged(Collection<File> attachments, NoteList.ListModes mode) {
+		Set<String> keys = Factory.newHashSet();
+		for (File f : attachments) {
+			keys.add(key(f, mode));
+		}
+
+		List<Task> stale = Factory.newArrayList();
+		for (Task t : queue) {
+			if (t.visible && !keys.contains(t.key)) {
+				stale.add(t);
+			}
+		}
+
+		for (Task t : stale) {
+			queue.remove(t);
+			t.visible = false;
+			if (t.background) {
+				t.priority = BACKGROUND;
+				queue.add(t);
+			} else {
+				tasks.remove(t.key);
+			}
+		}
+	}
+
+	private void runNext() throws InterruptedException {
+		Task t;
+		synchronized (this) {
+			while (queue.isEmpty()) {
+				wait();
+			}
+			t = queue.poll();
+			t.running = true;
+		}
+
+		long start = System.nanoTime();
+		queueWait.recordNanos(start - t.queuedAt);
+
+		File picture = null;
+		try {
+			picture = prepare(t);
+		} finally {
+			total.recordNanos(System.nanoTime() - start);
+
+			final List<Listener> listeners;
+			synchronized (this) {
+				tasks.remove(t.key);
+				listeners = Factory.newArrayList();
+				listeners.addAll(t.listeners);
+			}
+
+			final File attachment = t.attachment, result = picture;
+			if (!listeners.isEmpty()) {
+				EventQueue.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						for (Listener l : listeners) {
+							l.thumbnailReady(attachment, result);
+						}
+					}
+				});
+			}
+		}
+	}
+
+	// Render pdf page if needed, then scale picture into the image cache.
+	private File prepare(Task t) {
+		File picture = NoteItem.readyPictureFile(t.attachment);
+
+		if (picture == null && "pdf".equals(FilenameUtils.getExtension(t.attachment.getName()).toLowerCase())) {
+			long start = System.nanoTime();
+			picture = renderFirstPage(t.attachment);
+			pdfRender.recordNanos(System.nanoTime() - start);
+		}
+
+		if (picture != null) {
+			long start = System.nanoTime();
+			Image img = NoteItem.getPictureThumbnail(picture, t.mode);
+			if (img != null) {
+				img.flush();
+			} else {
+				picture = null;
+			}
+			scale.recordNanos(System.nanoTime() - start);
+		}
+
+		return picture;
+	}
+
+	private static File renderFirstPage(File pdfFile) {
+		File previewDir = FileAttachment.getPreviewDirectory(pdfFile);
+		previewDir.mkdirs();
+		if (!previewDir.exists()) {
+			return null;
+		}
+
+		PdfRenderService pdf = PdfRenderService.getInstance();
+		if (pdf.numPages(pdfFile) > 0) {
+			File ff = FileAttachment.getPreviewFileForPage(previewDir, 1);
+			if (pdf.renderPage(pdfFile, 1, ff, -1) != null) {
+				return ff;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public synchronized String toString() {
+		// Timings are the thumbnails.* histograms.
+		return "ThumbnailScheduler: " + queue.size() + " queued, " + tasks.size() + " tasks";
+	}
+}
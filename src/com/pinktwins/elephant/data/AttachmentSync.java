@@ -0,0 +1,122 @@
+package com.pinktwins.elephant.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+import com.pinktwins.elephant.util.Factory;
+import com.pinktwins.elephant.util.IOUtil;
+
+// Brings the attachments of a copied note up to date, one file at a time.
+//
+// Destination files with the same size and modification time as the source
+// are taken as copied already. If only the time differs, content hashes
+// decide; these are hashed in parallel through the content hash cache.
+// Attachments in the journal but no longer at the source form the tombstone
+// list: these were deleted at the source, and the destination copy is moved
+// to .retained, unless it was changed after last sync.
+
+class AttachmentSync {
+
+	private static final Logger LOG = Logger.getLogger(AttachmentSync.class.getName());
+
+	static class Result {
+		long files, bytes;
+		int deleted;
+	}
+
+	private AttachmentSync() {
+	}
+
+	static Result sync(String notebook, String noteFile, File sourceFolder, File destFolder, File retainedFolder, Object retainLock, SyncJournal journal)
+			throws IOException {
+
+		Result result = new Result();
+
+		Map<String, SyncJournal.Attachment> previous = journal.getAttachments(notebook, noteFile);
+		Map<String, SyncJournal.Attachment> current = Factory.newHashMap();
+
+		if (sourceFolder.exists()) {
+			String base = sourceFolder.getAbsolutePath() + File.separator;
+
+			Map<String, File> sources = Factory.newHashMap();
+			List<File> toHash = Factory.newArrayList();
+
+			for (File source : FileUtils.listFiles(sourceFolder, null, true)) {
+				String path = source.getAbsolutePath().substring(base.length()).replace(File.separatorChar, '/');
+				File dest = new File(destFolder, path);
+				sources.put(path, source);
+
+				// Same size but different time, compare contents.
+				if (dest.exists() && dest.length() == source.length() && dest.lastModified() != source.lastModified()) {
+					toHash.add(source);
+					toHash.add(dest);
+				}
+			}
+
+			Map<File, String> hashes = Vault.getInstance().getContentHashCache().hashAll(toHash);
+
+			for (Map.Entry<String, File> e : sources.entrySet()) {
+				String path = e.getKey();
+				File source = e.getValue();
+				File dest = new File(destFolder, path);
+
+				String hash = hashes.containsKey(source) ? hashes.get(source) : "";
+
+				boolean same = false;
+				if (dest.exists() && dest.length() == source.length()) {
+					if (dest.lastModified() == source.lastModified()) {
+						same = true;
+					} else if (hash.equals(hashes.get(dest))) {
+						same = true;
+						// Cheaper check next time.
+						dest.setLastModified(source.lastModified());
+					}
+				}
+
+				if (!same) {
+					IOUtil.transferFile(source, dest);
+					result.files++;
+					result.bytes += source.length();
+				}
+
+				current.put(path, new SyncJournal.Attachment(source.length(), source.lastModified(), hash));
+			}
+		}
+
+		// Tombstones
+		for (Map.Entry<String, SyncJournal.Attachment> e : previous.entrySet()) {
+			String path = e.getKey();
+			if (current.containsKey(path)) {
+				continue;
+			}
+
+			File dest = new File(destFolder, path);
+			if (!dest.exists()) {
+				continue;
+			}
+
+			if (!e.getValue().matches(dest)) {
+				LOG.info("Attachment: " + dest.getAbsolutePath() + " was deleted at source but modified at destination, keeping it.");
+				continue;
+			}
+
+			synchronized (retainLock) {
+				File retained = new File(retainedFolder, destFolder.getName() + File.separator + path);
+				if (retained.exists()) {
+					FileUtils.deleteQuietly(retained);
+				}
+				FileUtils.moveFile(dest, retained);
+			}
+			result.deleted++;
+		}
+
+		journal.recordAttachments(notebook, noteFile, current);
+
+		return result;
+	}
+}
@@ -0,0 +1,250 @@
+package com.pinktwins.elephant.data;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.pinktwins.elephant.util.DropboxContentHasher;
+import com.pinktwins.elephant.util.Factory;
+import com.pinktwins.elephant.util.Metrics;
+import com.pinktwins.elephant.util.TaskExecutor;
+
+// Dropbox content hashes of files, so unchanged files aren't read again.
+// Stored in the vault as '.hashcache'.
+//
+// A hash is reused while the file has the same path, size, modification time
+// and file key (inode, where the file system has one). Files are read through
+// a FileChannel into a direct buffer per thread. Entries for files that no
+// longer exist are dropped on load.
+
+class ContentHashCache {
+
+	private static final Logger LOG = Logger.getLogger(ContentHashCache.class.getName());
+
+	private static final int VERSION = 1;
+
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	};
+
+	private static class Entry {
+		final long length, modified;
+		final String fileKey, hash;
+
+		Entry(long length, long modified, String fileKey, String hash) {
+			this.length = length;
+			this.modified = modified;
+			this.fileKey = fileKey;
+			this.hash = hash;
+		}
+
+		boolean matches(BasicFileAttributes attrs) {
+			return attrs.size() == length && attrs.lastModifiedTime().toMillis() == modified && fileKey(attrs).equals(fileKey);
+		}
+	}
+
+	private volatile File home, cacheFile;
+
+	// Keyed by absolute path
+	private final Map<String, Entry> entries = Factory.newConcurrentHashMap();
+
+	private volatile boolean dirty = false;
+
+	private long hits, misses, hashedBytes, hashNanos;
+
+	private static String fileKey(BasicFileAttributes attrs) {
+		Object key = attrs.fileKey();
+		return key == null ? "" : key.toString();
+	}
+
+	ContentHashCache() {
+		Metrics.source("sync.hashcache", this);
+	}
+
+	public synchronized void load(File vaultHome) {
+		if (vaultHome.equals(home)) {
+			return;
+		}
+
+		home = vaultHome;
+		cacheFile = new File(home, ".hashcache");
+		entries.clear();
+
+		if (!cacheFile.exists()) {
+			return;
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(cacheFile))));
+			try {
+				if (in.readInt() != VERSION) {
+					return;
+				}
+				for (int count = in.readInt(); count > 0; count--) {
+					String path = in.readUTF();
+					long length = in.readLong();
+					long modified = in.readLong();
+					String fileKey = in.readUTF();
+					String hash = in.readUTF();
+					if (new File(path).exists()) {
+						entries.put(path, new Entry(length, modified, fileKey, hash));
+					} else {
+						dirty = true;
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			LOG.severe("Fail: " + e + " file: " + cacheFile);
+			entries.clear();
+		}
+	}
+
+	public synchronized void save() {
+		if (!dirty || cacheFile == null) {
+			return;
+		}
+		dirty = false;
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+
+			Map<String, Entry> copy = Factory.newHashMap();
+			copy.putAll(entries);
+
+			out.writeInt(VERSION);
+			out.writeInt(copy.size());
+			for (Map.Entry<String, Entry> e : copy.entrySet()) {
+				Entry en = e.getValue();
+				out.writeUTF(e.getKey());
+				out.writeLong(en.length);
+				out.writeLong(en.modified);
+				out.writeUTF(en.fileKey);
+				out.writeUTF(en.hash);
+			}
+			out.close();
+
+			NoteSaveQueue.write(cacheFile, bytes.toByteArray());
+		} catch (IOException e) {
+			LOG.severe("Fail: " + e + " file: " + cacheFile);
+		}
+	}
+
+	// Hex encoded Dropbox content hash of f.
+	String hash(File f) throws IOException {
+		String path = f.getAbsolutePath();
+		BasicFileAttributes attrs = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+
+		Entry e = entries.get(path);
+		if (e != null && e.matches(attrs)) {
+			synchronized (this) {
+				hits++;
+			}
+			return e.hash;
+		}
+
+		long start = System.nanoTime();
+		String hash = compute(f);
+
+		synchronized (this) {
+			misses++;
+			hashedBytes += attrs.size();
+			hashNanos += System.nanoTime() - start;
+		}
+
+		// Don't keep a hash of a file that changed while being read.
+		BasicFileAttributes after = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+		Entry computed = new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), fileKey(attrs), hash);
+		if (computed.matches(after)) {
+			entries.put(path, computed);
+			dirty = true;
+		}
+
+		return hash;
+	}
+
+	// Hashes of files, read in parallel on the hash executor.
+	Map<File, String> hashAll(Collection<File> files) throws IOException {
+		Map<File, Future<String>> futures = Factory.newHashMap();
+		for (final File f : files) {
+			if (!futures.containsKey(f)) {
+				futures.put(f, TaskExecutor.HASH.submit(null, TaskExecutor.NORMAL, new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						return hash(f);
+					}
+				}));
+			}
+		}
+
+		Map<File, String> hashes = Factory.newHashMap();
+		IOException error = null;
+		for (Map.Entry<File, Future<String>> e : futures.entrySet()) {
+			try {
+				hashes.put(e.getKey(), e.getValue().get());
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Hashing interrupted", ex);
+			} catch (ExecutionException ex) {
+				if (error == null) {
+					error = ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException(ex.getCause());
+				}
+			}
+		}
+
+		if (error != null) {
+			throw error;
+		}
+		return hashes;
+	}
+
+	static String compute(File f) throws IOException {
+		MessageDigest hasher = new DropboxContentHasher();
+		ByteBuffer buf = buffers.get();
+
+		FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		try {
+			buf.clear();
+			while (ch.read(buf) >= 0) {
+				buf.flip();
+				hasher.update(buf);
+				buf.clear();
+			}
+		} finally {
+			ch.close();
+		}
+
+		return Sync.hex(hasher.digest());
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("ContentHashCache: %d cached, %d hits, %d hashed, %.1f MB/s", entries.size(), hits, misses,
+				hashNanos == 0 ? 0 : hashedBytes / 1048576.0 / (hashNanos / 1e9));
+	}
+}
@@ -31,7 +31,7 @@ public class ElephantUndoManager {
 	}
 	
 	private String getTitle(File f) {
-		return new Note(f).getMeta().title();
+		return Vault.getInstance().getNote(f).getMeta().title();
 	}
 
 	public String getActionText() {
@@ -84,7 +84,7 @@ public class ElephantUndoManager {
 			NotebookEvent e = (NotebookEvent) event;
 			switch (e.kind) {
 			case noteMoved:
-				Note n = new Note(e.dest);
+				Note n = Vault.getInstance().getNote(e.dest);
 				Notebook nb = Note.findContainingNotebook(e.source);
 
 				performingActionOnFile = e.dest;
@@ -329,7 +329,7 @@ public class LuceneSearchIndex implements SearchIndexInterface {
 				File f = new File(path);
 				// Note file must exist and only return notes under current Vault
 				if (f.exists() && f.getAbsolutePath().startsWith(vaultHome)) {
-					found.add(new Note(f));
+					found.add(Vault.getInstance().getNote(f));
 				}
 			} else {
 				System.out.println((i + 1) + ". " + "No path for this document.");
@@ -13,7 +13,6 @@ import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.swing.SwingWorker;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultStyledDocument;
 
@@ -31,6 +30,7 @@ import com.pinktwins.elephant.eventbus.NotebookEvent;
 import com.pinktwins.elephant.util.Factory;
 import com.pinktwins.elephant.util.IOUtil;
 import com.pinktwins.elephant.util.RtfUtil;
+import com.pinktwins.elephant.util.TaskExecutor;
 
 public class Note implements Comparable<Note> {
 
@@ -179,7 +179,8 @@ public class Note implements Comparable<Note> {
 		return m;
 	}
 
-	public Note(File f) {
+	// Use Vault.getNote() to get the canonical instance for a file.
+	Note(File f) {
 		file = f;
 		meta = metaFromFile(f);
 
@@ -256,6 +257,11 @@ public class Note implements Comparable<Note> {
 	}
 
 	private String readFileAsString() {
+		String pending = NoteSaveQueue.getInstance().pendingText(this);
+		if (pending != null) {
+			return pending;
+		}
+
 		byte[] contents = IOUtil.readFile(file);
 		return new String(contents, IOUtil.getCharset());
 	}
@@ -291,15 +297,32 @@ public class Note implements Comparable<Note> {
 	}
 
 	public void save(String newText) {
+		save(newText, null);
+	}
+
+	// Contents are written in the background. onWritten runs on the EDT
+	// once they are on disk.
+	public void save(String newText, Runnable onWritten) {
 		if (saveLocked) {
 			return;
 		}
 
-		try {
-			IOUtil.writeFile(file, newText);
-		} catch (IOException e) {
-			LOG.severe("Fail: " + e);
+		NoteSaveQueue.getInstance().enqueue(this, newText, onWritten);
+	}
+
+	// Contents made in the background, and written only if they differ
+	// from the note on disk. onChanged then runs on the EDT.
+	public void save(NoteSaveQueue.Contents contents, Runnable onChanged) {
+		if (saveLocked) {
+			return;
 		}
+
+		NoteSaveQueue.getInstance().enqueue(this, contents, onChanged);
+	}
+
+	// Wait for any queued save of this note to hit the disk.
+	public void flushPendingSave() {
+		NoteSaveQueue.getInstance().flush(this);
 	}
 
 	public Map<String, String> getMetaMap() {
@@ -490,6 +513,8 @@ public class Note implements Comparable<Note> {
 			return;
 		}
 
+		flushPendingSave();
+
 		try {
 			FileUtils.deleteQuietly(file);
 			if (meta.exists()) {
@@ -503,6 +528,8 @@ public class Note implements Comparable<Note> {
 				}
 			}
 
+			Vault.getInstance().forgetNote(file);
+
 			Notebook source = findContainingNotebook();
 			if (source != null) {
 				source.refresh();
@@ -515,6 +542,7 @@ public class Note implements Comparable<Note> {
 	}
 
 	public void moveTo(File dest) {
+		flushPendingSave();
 
 		File destFile = new File(dest + File.separator + file.getName());
 		File destMeta = metaFromFile(destFile);
@@ -566,28 +594,32 @@ public class Note implements Comparable<Note> {
 				source.refresh();
 			}
 
+			File oldFile = file;
+			File oldMeta = meta;
+			relocate(destFile, destMeta);
+
 			final Notebook nb = Vault.getInstance().findNotebook(dest);
 			if (nb != null) {
-				(new SwingWorker<Void, Void>() {
+				TaskExecutor.INDEX.submit("refresh:" + nb.folder().getAbsolutePath(), TaskExecutor.NORMAL, new Runnable() {
 					@Override
-					protected Void doInBackground() throws Exception {
+					public void run() {
 						nb.refresh();
-						return null;
 					}
-				}).execute();
+				});
 			}
 
 			if (Elephant.settings.getBoolean(Settings.Keys.SYNC)) {
-				Sync.onNoteMove(file, meta, dest);
+				Sync.onNoteMove(oldFile, oldMeta, dest);
 			}
 
-			new NotebookEvent(NotebookEvent.Kind.noteMoved, file, destFile).post();
+			new NotebookEvent(NotebookEvent.Kind.noteMoved, oldFile, destFile).post();
 		} catch (IOException e) {
 			LOG.severe("Fail: " + e);
 		}
 	}
 
 	public File attemptSafeRename(String newName) throws IOException {
+		flushPendingSave();
 
 		String regexp = "[^a-zA-Z0-9 \\.\\-";
 		String allowChars = Elephant.settings.getAllowFilenameChars();
@@ -641,14 +673,27 @@ public class Note implements Comparable<Note> {
 		}
 
 		File oldFile = file;
-		file = newFile;
-		meta = newMeta;
+		relocate(newFile, newMeta);
 
 		new NotebookEvent(NotebookEvent.Kind.noteRenamed, oldFile, newFile).post();
 
 		return newFile;
 	}
 
+	// Point this instance to its new location. Index entries are keyed by
+	// path, so purge them while the old path is still known.
+	private void relocate(File newFile, File newMeta) {
+		if (Search.ssi.ready()) {
+			Search.ssi.purgeNote(this);
+		}
+
+		File oldFile = file;
+		file = newFile;
+		meta = newMeta;
+
+		Vault.getInstance().relocateNote(this, oldFile);
+	}
+
 	public File importAttachment(File f) throws IOException {
 		File dest = new File(attachmentFolder().getAbsolutePath() + File.separator + f.getName());
 
@@ -0,0 +1,45 @@
+package com.pinktwins.elephant.data;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.MapMaker;
+
+// Canonical Note instances, one per note file. Values are weakly held so
+// notes nobody references anymore are simply collected.
+
+class NoteRegistry {
+
+	private final ConcurrentMap<File, Note> notes = new MapMaker().weakValues().makeMap();
+
+	private static File key(File f) {
+		return f.getAbsoluteFile();
+	}
+
+	Note get(File f) {
+		File key = key(f);
+
+		Note n = notes.get(key);
+		if (n != null) {
+			return n;
+		}
+
+		Note created = new Note(f);
+		n = notes.putIfAbsent(key, created);
+		return n != null ? n : created;
+	}
+
+	// Note file was renamed or moved. Keep the same instance under the new path.
+	void relocate(Note n, File oldFile) {
+		notes.remove(key(oldFile), n);
+		notes.put(key(n.file()), n);
+	}
+
+	void forget(File f) {
+		notes.remove(key(f));
+	}
+
+	int size() {
+		return notes.size();
+	}
+}
@@ -0,0 +1,369 @@
+package com.pinktwins.elephant.data;
+
+import java.awt.EventQueue;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.pinktwins.elephant.Elephant;
+import com.pinktwins.elephant.util.Factory;
+import com.pinktwins.elephant.util.IOUtil;
+import com.pinktwins.elephant.util.Metrics;
+
+// Write-behind queue for note contents. The caller hands over the text and
+// returns immediately, a background thread encodes it, writes it to a
+// temporary file next to the note and moves it over the note atomically.
+// Repeated saves of the same note while it waits are coalesced into one write.
+//
+// Contents can also be handed over unmade, eg. a document snapshot that the
+// writer serializes to rtf, so the EDT doesn't wait for it. Those are
+// written only if they differ from the note on disk.
+
+public class NoteSaveQueue {
+
+	private static final Logger LOG = Logger.getLogger(NoteSaveQueue.class.getName());
+
+	// How long a save may wait for newer contents of the same note.
+	private static final long COALESCE_MS = 250;
+
+	// Distinct notes waiting to be written before enqueue() blocks.
+	private static final int MAX_PENDING = 32;
+
+	public static enum FsyncPolicy {
+		// Leave flushing to the OS.
+		NONE,
+		// Flush note contents to disk before replacing the note.
+		FILE,
+		// As FILE, and also flush the containing directory after the rename.
+		FULL;
+
+		public static FsyncPolicy fromSetting(String s) {
+			for (FsyncPolicy p : values()) {
+				if (p.name().equalsIgnoreCase(s)) {
+					return p;
+				}
+			}
+			return FILE;
+		}
+	}
+
+	private static NoteSaveQueue instance = null;
+
+	private final Object lock = new Object();
+	private final Map<Note, PendingSave> pending = new LinkedHashMap<Note, PendingSave>();
+	private Note inFlight;
+	private PendingSave inFlightSave;
+	private int flushRequests = 0;
+
+	private Thread writer;
+
+	// Note contents made when needed, on the writer thread unless asked
+	// for before that by Note.contents().
+	public interface Contents {
+		public String text();
+	}
+
+	private static class PendingSave {
+		private String text;
+		private Contents contents;
+		final Charset charset;
+		final long queuedAt;
+		final List<Runnable> onWritten = Factory.newArrayList();
+		// Run only if contents differed from the note on disk.
+		final List<Runnable> onChanged = Factory.newArrayList();
+
+		PendingSave(String text, Contents contents, Charset charset, PendingSave replaced) {
+			this.text = text;
+			this.contents = contents;
+			this.charset = charset;
+
+			if (replaced != null) {
+				queuedAt = replaced.queuedAt;
+				onWritten.addAll(replaced.onWritten);
+				onChanged.addAll(replaced.onChanged);
+			} else {
+				queuedAt = System.currentTimeMillis();
+			}
+		}
+
+		boolean alwaysWrite() {
+			return contents == null && text != null;
+		}
+
+		synchronized String text() {
+			if (text == null) {
+				text = contents.text();
+			}
+			return text;
+		}
+	}
+
+	public static synchronized NoteSaveQueue getInstance() {
+		if (instance == null) {
+			instance = new NoteSaveQueue();
+		}
+		return instance;
+	}
+
+	private NoteSaveQueue() {
+		Runtime.getRuntime().addShutdownHook(new Thread("Elephant note save flush") {
+			@Override
+			public void run() {
+				flush();
+			}
+		});
+	}
+
+	private void startWriter() {
+		if (writer != null) {
+			return;
+		}
+
+		writer = new Thread("Elephant note writer") {
+			@Override
+			public void run() {
+				while (true) {
+					try {
+						writeNext();
+					} catch (InterruptedException e) {
+						return;
+					} catch (Throwable t) {
+						LOG.severe("Fail: " + t);
+					}
+				}
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	// Queue note contents for writing. onWritten, if given, runs on the EDT once
+	// the contents are on disk. Blocks while too many notes are waiting.
+	public void enqueue(Note note, String text, Runnable onWritten) {
+		enqueue(note, text, null, onWritten, null);
+	}
+
+	// Queue contents made on the writer thread. They are written only if
+	// different from the note on disk, and onChanged then runs on the EDT.
+	public void enqueue(Note note, Contents contents, Runnable onChanged) {
+		enqueue(note, null, contents, null, onChanged);
+	}
+
+	private void enqueue(Note note, String text, Contents contents, Runnable onWritten, Runnable onChanged) {
+		Charset charset = IOUtil.getCharset();
+
+		synchronized (lock) {
+			startWriter();
+
+			while (pending.size() >= MAX_PENDING && !pending.containsKey(note)) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+
+			PendingSave p = new PendingSave(text, contents, charset, pending.remove(note));
+			if (onWritten != null) {
+				p.onWritten.add(onWritten);
+			}
+			if (onChanged != null) {
+				p.onChanged.add(onChanged);
+			}
+			pending.put(note, p);
+
+			lock.notifyAll();
+		}
+	}
+
+	// Run r on the EDT once queued contents of the note are on disk,
+	// or right away (still on the EDT) if nothing is queued.
+	public void whenWritten(Note note, Runnable r) {
+		synchronized (lock) {
+			PendingSave p = pending.get(note);
+			if (p == null && inFlight == note) {
+				p = inFlightSave;
+			}
+			if (p != null) {
+				p.onWritten.add(r);
+				return;
+			}
+		}
+
+		EventQueue.invokeLater(r);
+	}
+
+	// Contents not yet on disk, or null if nothing is queued for the note.
+	public String pendingText(Note note) {
+		PendingSave p;
+		synchronized (lock) {
+			p = pending.get(note);
+			if (p == null && inFlight == note) {
+				p = inFlightSave;
+			}
+		}
+		return p != null ? p.text() : null;
+	}
+
+	public boolean hasPending(Note note) {
+		synchronized (lock) {
+			return pending.containsKey(note) || inFlight == note;
+		}
+	}
+
+	// Wait until pending contents of the note are written.
+	public void flush(Note note) {
+		synchronized (lock) {
+			flushRequests++;
+			lock.notifyAll();
+			try {
+				while (pending.containsKey(note) || inFlight == note) {
+					lock.wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				flushRequests--;
+			}
+		}
+	}
+
+	// Wait until everything queued is written. Called on exit and before
+	// sync passes.
+	public void flush() {
+		synchronized (lock) {
+			flushRequests++;
+			lock.notifyAll();
+			try {
+				while (!pending.isEmpty() || inFlight != null) {
+					lock.wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				flushRequests--;
+			}
+		}
+	}
+
+	private void writeNext() throws InterruptedException {
+		Note note;
+		PendingSave p;
+
+		synchronized (lock) {
+			while (true) {
+				if (pending.isEmpty()) {
+					lock.wait();
+					continue;
+				}
+
+				Iterator<Map.Entry<Note, PendingSave>> i = pending.entrySet().iterator();
+				Map.Entry<Note, PendingSave> e = i.next();
+
+				long wait = e.getValue().queuedAt + COALESCE_MS - System.currentTimeMillis();
+				if (wait > 0 && flushRequests == 0) {
+					lock.wait(wait);
+					continue;
+				}
+
+				note = e.getKey();
+				p = e.getValue();
+				i.remove();
+
+				inFlight = note;
+				inFlightSave = p;
+				lock.notifyAll();
+				break;
+			}
+		}
+
+		boolean changed = false;
+		try {
+			long start = System.nanoTime();
+			byte[] bytes = p.text().getBytes(p.charset);
+			changed = p.alwaysWrite() || !Arrays.equals(bytes, IOUtil.readFile(note.file()));
+			if (changed) {
+				write(note.file(), bytes);
+				Metrics.counter("note.save.bytes").add(bytes.length);
+			}
+			Metrics.time("note.save", start);
+		} catch (IOException e) {
+			LOG.severe("Fail: " + e + " file: " + note.file().getAbsolutePath());
+		} finally {
+			synchronized (lock) {
+				inFlight = null;
+				inFlightSave = null;
+				lock.notifyAll();
+			}
+		}
+
+		for (Runnable r : p.onWritten) {
+			EventQueue.invokeLater(r);
+		}
+		if (changed) {
+			for (Runnable r : p.onChanged) {
+				EventQueue.invokeLater(r);
+			}
+		}
+	}
+
+	private static FsyncPolicy fsyncPolicy() {
+		return FsyncPolicy.fromSetting(Elephant.settings.getString(Settings.Keys.SAVE_FSYNC));
+	}
+
+	// Temp file starts with '.' and ends with '~' so it is never picked up as a note.
+	private static File tempFileFor(File file) {
+		return new File(file.getParentFile(), "." + file.getName() + ".saving~");
+	}
+
+	static void write(File file, byte[] bytes) throws IOException {
+		FsyncPolicy policy = fsyncPolicy();
+		File tmp = tempFileFor(file);
+
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			out.write(bytes);
+			if (policy != FsyncPolicy.NONE) {
+				out.getFD().sync();
+			}
+		} finally {
+			out.close();
+		}
+
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		if (policy == FsyncPolicy.FULL) {
+			syncDirectory(file.getParentFile());
+		}
+	}
+
+	private static void syncDirectory(File dir) {
+		try {
+			FileChannel ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+			try {
+				ch.force(true);
+			} finally {
+				ch.close();
+			}
+		} catch (IOException e) {
+			// Not supported on all platforms (eg. Windows).
+		}
+	}
+}
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -32,6 +33,9 @@ public class Notebook implements Comparable<Notebook> {
 
 	public List<Note> notes = Factory.newArrayList();
 
+	// note file -> Note, kept in step with 'notes'
+	private Map<File, Note> noteIndex = Factory.newConcurrentHashMap();
+
 	@Override
 	public boolean equals(Object o) {
 		if (o == null) {
@@ -76,6 +80,9 @@ public class Notebook implements Comparable<Notebook> {
 
 	public void populateFromNotebook(Notebook nb) {
 		notes.addAll(nb.notes);
+		for (Note n : nb.notes) {
+			noteIndex.put(n.file(), n);
+		}
 	}
 
 	public Notebook(File folder) {
@@ -131,7 +138,9 @@ public class Notebook implements Comparable<Notebook> {
 		nb.setToTagResultNotebook();
 		nb.name = "Tag " + tagName;
 		Set<Note> notes = Search.ssi.notesByTag(tagId);
-		nb.notes.addAll(notes);
+		for (Note n : notes) {
+			nb.addNote(n);
+		}
 		return nb;
 	}
 
@@ -149,6 +158,7 @@ public class Notebook implements Comparable<Notebook> {
 
 		if (folder != null) {
 			notes.clear();
+			noteIndex.clear();
 			for (File f : folder.listFiles()) {
 				String name = f.getName();
 				String ext = FilenameUtils.getExtension(f.getName()).toLowerCase();
@@ -156,10 +166,11 @@ public class Notebook implements Comparable<Notebook> {
 				if (name.charAt(0) != '.' && !name.endsWith("~") && isNoteExtension(ext)) {
 					try {
 						if (f.isFile()) {
-							Note note = new Note(f);
+							Note note = Vault.getInstance().getNote(f);
 							note.setPreviewDisabled(isPreviewDisabled);
 
 							notes.add(note);
+							noteIndex.put(f, note);
 
 							// Re-digest possibly modified notes.
 							// Only for when all notes have been indexed already,
@@ -188,6 +199,7 @@ public class Notebook implements Comparable<Notebook> {
 
 	public void addNote(Note n) {
 		notes.add(n);
+		noteIndex.put(n.file(), n);
 	}
 
 	public void sortNotes() {
@@ -199,6 +211,9 @@ public class Notebook implements Comparable<Notebook> {
 
 	public void truncNotes(int limit) {
 		if (notes.size() > limit) {
+			for (Note n : notes.subList(limit, notes.size())) {
+				noteIndex.remove(n.file());
+			}
 			notes = notes.subList(0, limit);
 		}
 	}
@@ -253,46 +268,56 @@ public class Notebook implements Comparable<Notebook> {
 		File f = new File(fullPath);
 
 		f.createNewFile();
-		Note n = new Note(f);
+		Note n = Vault.getInstance().getNote(f);
 
 		Meta m = n.getMeta();
 		m.title("Untitled");
 		m.setCreatedTime();
 
 		notes.add(0, n);
+		noteIndex.put(f, n);
 
 		new NotebookEvent(NotebookEvent.Kind.noteCreated, f, f).post();
 
 		return n;
 	}
 
+	private void removeNote(Note note) {
+		notes.remove(note);
+		noteIndex.remove(note.file());
+	}
+
 	public void deleteNote(Note note) {
 		if (isTrash()) {
-			notes.remove(note);
+			removeNote(note);
 			note.delete();
 			return;
 		}
 
 		File trash = Vault.getInstance().getTrash();
 		if (folder != null && folder.equals(trash)) {
-			notes.remove(note);
+			removeNote(note);
 			note.delete();
 			return;
 		}
 
-		notes.remove(note);
+		removeNote(note);
 		note.moveTo(trash);
 	}
 
-	@SuppressWarnings("unlikely-arg-type")
-	public Note find(String name) {
-		File note = new File(folder + File.separator + name);
-		for (Note n : notes) {
-			if (n.equals(note)) {
-				return n;
-			}
+	// Note was renamed in place. Moved notes are gone from 'notes' by now.
+	void noteRelocated(Note n, File oldFile) {
+		if (noteIndex.remove(oldFile) != null && notes.contains(n)) {
+			noteIndex.put(n.file(), n);
 		}
-		return null;
+	}
+
+	public Note find(String name) {
+		return find(new File(folder + File.separator + name));
+	}
+
+	public Note find(File noteFile) {
+		return noteIndex.get(noteFile);
 	}
 
 	public void refresh() {
@@ -309,7 +334,9 @@ public class Notebook implements Comparable<Notebook> {
 		File newFile = new File(folder.getParentFile() + File.separator + s);
 		try {
 			if (folder.renameTo(newFile)) {
+				File oldFolder = folder;
 				folder = newFile;
+				Vault.getInstance().notebookRenamed(this, oldFolder);
 				return true;
 			}
 		} catch (Exception e) {
@@ -25,10 +25,10 @@ public class RecentNotes {
 
 	private static final String KEY_HISTORY = "history";
 
-	private List<Note> recent = Factory.newArrayList();
+	private List<Note> recent = Factory.newCopyOnWriteArrayList();
 
 	public RecentNotes() {
-		Elephant.eventBus.register(this);
+		Elephant.eventBus.registerData(this);
 		loadHistory();
 	}
 
@@ -52,7 +52,7 @@ public class RecentNotes {
 				for (int n = 0, len = arr.length(); n < len; n++) {
 					String notePathHomeBased = arr.getString(n);
 					File f = new File(Vault.getInstance().getHome() + File.separator + notePathHomeBased);
-					Note note = new Note(f);
+					Note note = Vault.getInstance().getNote(f);
 					recent.add(note);
 				}
 			} catch (JSONException e) {
@@ -110,13 +110,13 @@ public class RecentNotes {
 		case noteRenamed:
 		case noteCreated:
 			if (event.source != null && event.dest != null) {
-				Note old = new Note(event.source);
+				Note old = Vault.getInstance().getNote(event.source);
 
 				if (recent.contains(old)) {
 					recent.remove(old);
 				}
 
-				addRecentNote(new Note(event.dest));
+				addRecentNote(Vault.getInstance().getNote(event.dest));
 
 				new RecentNotesChangedEvent().post();
 				saveHistory();
@@ -124,7 +124,7 @@ public class RecentNotes {
 			break;
 		case noteDeleted:
 			if (event.source != null) {
-				Note old = new Note(event.source);
+				Note old = Vault.getInstance().getNote(event.source);
 
 				if (recent.contains(old)) {
 					recent.remove(old);
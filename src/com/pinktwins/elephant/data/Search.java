@@ -11,6 +11,7 @@ import java.util.Set;
 import com.pinktwins.elephant.Elephant;
 import com.pinktwins.elephant.eventbus.IndexProgressEvent;
 import com.pinktwins.elephant.util.Factory;
+import com.pinktwins.elephant.util.Metrics;
 
 public class Search {
 
@@ -23,6 +24,7 @@ public class Search {
 	public static Object lockObject = new Object();
 
 	synchronized public static Notebook search(String text) {
+		long searchStart = System.nanoTime();
 		text = text.toLowerCase();
 
 		Notebook found = new Notebook();
@@ -33,6 +35,7 @@ public class Search {
 		int progress = -1;
 
 		if (!ssi.ready()) {
+			long indexStart = System.nanoTime();
 			ssi.start();
 
 			Vault vault = Vault.getInstance();
@@ -58,6 +61,9 @@ public class Search {
 
 			ssi.markReady();
 			ssi.commit();
+
+			Metrics.time("index.build", indexStart);
+			Metrics.counter("index.build.notes").add(totalNotes);
 		}
 
 		List<Set<Note>> sets = Factory.newArrayList();
@@ -119,6 +125,8 @@ public class Search {
 
 		found.setName(s);
 
+		Metrics.time("search", searchStart);
+
 		return found;
 	}
 
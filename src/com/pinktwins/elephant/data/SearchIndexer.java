@@ -15,6 +15,7 @@ import com.pinktwins.elephant.eventbus.NoteChangedEvent;
 import com.pinktwins.elephant.eventbus.NotebookEvent;
 import com.pinktwins.elephant.eventbus.SearchIndexChangedEvent;
 import com.pinktwins.elephant.util.Factory;
+import com.pinktwins.elephant.util.Metrics;
 
 public class SearchIndexer {
 
@@ -23,10 +24,10 @@ public class SearchIndexer {
 	private boolean isReady = false;
 
 	// tagId -> Set<Note>
-	private Map<String, Set<Note>> tagMap = Factory.newHashMap();
+	private Map<String, Set<Note>> tagMap = Factory.newConcurrentHashMap();
 
 	// note file -> lastModified() of notefile when note digested
-	private Map<File, Long> digestTimes = Factory.newHashMap();
+	private Map<File, Long> digestTimes = Factory.newConcurrentHashMap();
 
 	private SearchIndexInterface memoryIndex = new MemorySearchIndex();
 	private SearchIndexInterface luceneIndex;
@@ -34,7 +35,7 @@ public class SearchIndexer {
 	static boolean useLucene = true;
 
 	public SearchIndexer() {
-		Elephant.eventBus.register(this);
+		Elephant.eventBus.registerData(this);
 	}
 
 	public void start() {
@@ -58,18 +59,25 @@ public class SearchIndexer {
 
 		Set<Note> set = tagMap.get(tagId);
 		if (set == null) {
-			set = Factory.newHashSet();
+			set = Factory.newConcurrentHashSet();
+			Set<Note> prev = tagMap.putIfAbsent(tagId, set);
+			if (prev != null) {
+				set = prev;
+			}
 		}
 
 		set.add(n);
-		tagMap.put(tagId, set);
 	}
 
 	public List<Note> search(String text) {
 		List<Note> found = Factory.newArrayList();
+		long start = System.nanoTime();
 		found.addAll(memoryIndex.search(text));
+		Metrics.time("search.term.memory", start);
 		if (useLucene) {
+			start = System.nanoTime();
 			found.addAll(luceneIndex.search(text));
+			Metrics.time("search.term.lucene", start);
 		}
 		return found;
 	}
@@ -91,6 +99,8 @@ public class SearchIndexer {
 			return;
 		}
 
+		long start = System.nanoTime();
+
 		Meta meta = note.getMeta();
 		memoryIndex.digestText(note, meta.title());
 		memoryIndex.digestText(note, "title:" + meta.title());
@@ -135,6 +145,9 @@ public class SearchIndexer {
 			memoryIndex.digestDate(note, note.lastModified());
 
 		addDigestTimestamp(note);
+
+		Metrics.time("index.digest", start);
+		Metrics.counter("index.notes").inc();
 	}
 
 	private void addDigestTimestamp(Note note) {
@@ -188,8 +201,8 @@ public class SearchIndexer {
 		switch (event.kind) {
 		case noteMoved:
 			if (event.source != null && event.dest != null) {
-				Note oldNote = new Note(event.source);
-				Note newNote = new Note(event.dest);
+				Note oldNote = Vault.getInstance().getNote(event.source);
+				Note newNote = Vault.getInstance().getNote(event.dest);
 
 				purgeNote(oldNote);
 				digestNote(newNote, newNote.findContainingNotebook());
@@ -199,7 +212,7 @@ public class SearchIndexer {
 			break;
 		case noteDeleted:
 			if (event.source != null) {
-				Note oldNote = new Note(event.source);
+				Note oldNote = Vault.getInstance().getNote(event.source);
 
 				purgeNote(oldNote);
 			}
@@ -4,15 +4,22 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import com.google.common.io.Files;
 import com.pinktwins.elephant.NoteList.ListModes;
 import com.pinktwins.elephant.Sidebar.RecentNotesModes;
+import com.pinktwins.elephant.util.Factory;
 import com.pinktwins.elephant.util.IOUtil;
 
 public class Settings {
@@ -28,7 +35,8 @@ public class Settings {
 												"fontEditor"), FONT_EDITORTITLE("fontEditorTitle"), FONT_CARDNAME("fontCardName"), FONT_SNIPPETNAME(
 														"fontSnippetName"), FONT_CARDPREVIEW("fontCardPreview"), FONT_SNIPPETPREVIEW(
 																"fontSnippetPreview"), MARKDOWN_FULLPICTUREPATH("markdownFullPicturePath"), WORDWRAP(
-																		"wordWrap"), SYNC("sync"), SYNC_SELECTION("syncSelection");
+																		"wordWrap"), SYNC("sync"), SYNC_SELECTION("syncSelection"), SAVE_FSYNC(
+																				"saveFsync");
 
 		private final String str;
 
@@ -173,9 +181,35 @@ public class Settings {
 		TITLE, CREATED, UPDATED
 	};
 
+	// Changes are written this long after the last one, so eg. dragging a
+	// divider writes the file once.
+	private static final long SAVE_DELAY_MS = 500;
+
 	private String homeDir;
 	private JSONObject map;
 
+	// Typed values read from map, by type prefix + key. Filled and cleared
+	// holding the Settings lock, read without.
+	private final Map<String, Object> cache = Factory.newConcurrentHashMap();
+
+	private final ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Elephant settings writer");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private ScheduledFuture<?> pendingSave;
+	private boolean dirty;
+
+	private final Runnable write = new Runnable() {
+		@Override
+		public void run() {
+			write();
+		}
+	};
+
 	public File settingsFile() {
 		return new File(homeDir + File.separator + ".com.pinktwins.elephant.settings");
 	}
@@ -183,6 +217,13 @@ public class Settings {
 	public Settings() {
 		homeDir = System.getProperty("user.home");
 		map = load();
+
+		Runtime.getRuntime().addShutdownHook(new Thread("Elephant settings flush") {
+			@Override
+			public void run() {
+				flush();
+			}
+		});
 	}
 
 	public String userHomePath() {
@@ -193,7 +234,7 @@ public class Settings {
 		return IOUtil.loadJson(settingsFile());
 	}
 
-	public boolean has(Keys key) {
+	public synchronized boolean has(Keys key) {
 		return map.has(key.toString());
 	}
 
@@ -202,7 +243,14 @@ public class Settings {
 	}
 
 	public int getInt(String keyStr) {
-		return map.optInt(keyStr);
+		Object v = cache.get("i:" + keyStr);
+		if (v == null) {
+			synchronized (this) {
+				v = map.optInt(keyStr);
+				cache.put("i:" + keyStr, v);
+			}
+		}
+		return (Integer) v;
 	}
 
 	public float getFloat(Keys key) {
@@ -210,15 +258,48 @@ public class Settings {
 	}
 
 	public float getFloat(String keyStr) {
-		return (float) map.optDouble(keyStr, 1.0);
+		Object v = cache.get("f:" + keyStr);
+		if (v == null) {
+			synchronized (this) {
+				v = (float) map.optDouble(keyStr, 1.0);
+				cache.put("f:" + keyStr, v);
+			}
+		}
+		return (Float) v;
 	}
 
 	public boolean getBoolean(Keys key) {
-		return map.optBoolean(key.toString(), false);
+		String keyStr = key.toString();
+		Object v = cache.get("b:" + keyStr);
+		if (v == null) {
+			synchronized (this) {
+				v = map.optBoolean(keyStr, false);
+				cache.put("b:" + keyStr, v);
+			}
+		}
+		return (Boolean) v;
 	}
 
 	public String getString(Keys key) {
-		return map.optString(key.toString(), "");
+		String keyStr = key.toString();
+		Object v = cache.get("s:" + keyStr);
+		if (v == null) {
+			synchronized (this) {
+				v = map.optString(keyStr, "");
+				cache.put("s:" + keyStr, v);
+			}
+		}
+		return (String) v;
+	}
+
+	private void changed(String key) {
+		cache.remove("i:" + key);
+		cache.remove("f:" + key);
+		cache.remove("b:" + key);
+		cache.remove("s:" + key);
+		if (key.equals(Keys.SYNC_SELECTION.toString())) {
+			cache.remove("syncSelection");
+		}
 	}
 
 	public void set(Keys key, int value) {
@@ -226,12 +307,8 @@ public class Settings {
 	}
 
 	public void set(String key, int value) {
-		try {
-			map.put(key, value);
-			save();
-		} catch (JSONException e) {
-			LOG.severe("Fail: " + e);
-		}
+		put(key, value);
+		save();
 	}
 
 	public void set(Keys key, String value) {
@@ -239,12 +316,8 @@ public class Settings {
 	}
 
 	public void set(String key, String value) {
-		try {
-			map.put(key, value);
-			save();
-		} catch (JSONException e) {
-			LOG.severe("Fail: " + e);
-		}
+		put(key, value);
+		save();
 	}
 
 	public void set(Keys key, boolean value) {
@@ -252,12 +325,8 @@ public class Settings {
 	}
 
 	public void set(String key, boolean value) {
-		try {
-			map.put(key, value);
-			save();
-		} catch (JSONException e) {
-			LOG.severe("Fail: " + e);
-		}
+		put(key, value);
+		save();
 	}
 
 	public Settings setChain(Keys key, int value) {
@@ -265,11 +334,7 @@ public class Settings {
 	}
 
 	public Settings setChain(String key, int value) {
-		try {
-			map.put(key.toString(), value);
-		} catch (JSONException e) {
-			LOG.severe("Fail: " + e);
-		}
+		put(key, value);
 		return this;
 	}
 
@@ -278,11 +343,7 @@ public class Settings {
 	}
 
 	public Settings setChain(String key, boolean value) {
-		try {
-			map.put(key.toString(), value);
-		} catch (JSONException e) {
-			LOG.severe("Fail: " + e);
-		}
+		put(key, value);
 		return this;
 	}
 
@@ -291,21 +352,68 @@ public class Settings {
 	}
 
 	public Settings setChain(String key, String value) {
+		put(key, value);
+		return this;
+	}
+
+	private void put(String key, Object value) {
 		try {
-			map.put(key.toString(), value);
+			synchronized (this) {
+				map.put(key, value);
+				changed(key);
+			}
 		} catch (JSONException e) {
 			LOG.severe("Fail: " + e);
 		}
-		return this;
 	}
 
-	@SuppressWarnings("deprecation")
-	private void save() {
+	// Write soon, on the settings writer.
+	private synchronized void save() {
+		dirty = true;
+		if (pendingSave != null) {
+			pendingSave.cancel(false);
+		}
+		pendingSave = saver.schedule(write, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+	}
+
+	// Write pending changes now and wait for it. All writes happen on the
+	// settings writer, so a flush on exit can't race a debounced save and
+	// an older snapshot never replaces a newer one.
+	public void flush() {
 		try {
-			Files.write(map.toString(4), settingsFile(), Charset.forName("UTF-8"));
-		} catch (IOException e) {
+			saver.submit(write).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
 			LOG.severe("Fail: " + e);
-		} catch (JSONException e) {
+		}
+	}
+
+	// Temp file and rename, so a crash mid-write doesn't leave a truncated
+	// settings file. Settings writer only.
+	private void write() {
+		String json;
+		synchronized (this) {
+			if (!dirty) {
+				return;
+			}
+			dirty = false;
+			if (pendingSave != null) {
+				pendingSave.cancel(false);
+				pendingSave = null;
+			}
+
+			try {
+				json = map.toString(4);
+			} catch (JSONException e) {
+				LOG.severe("Fail: " + e);
+				return;
+			}
+		}
+
+		try {
+			NoteSaveQueue.write(settingsFile(), json.getBytes(Charset.forName("UTF-8")));
+		} catch (IOException e) {
 			LOG.severe("Fail: " + e);
 		}
 	}
@@ -354,7 +462,10 @@ public class Settings {
 		}
 
 		try {
-			Object o = map.get(Keys.AUTOBULLET.toString());
+			Object o;
+			synchronized (this) {
+				o = map.get(Keys.AUTOBULLET.toString());
+			}
 			if (o instanceof Boolean) {
 				return getBoolean(Keys.AUTOBULLET);
 			}
@@ -462,7 +573,19 @@ public class Settings {
 		return getBoolean(Keys.WORDWRAP);
 	}
 
+	@SuppressWarnings("unchecked")
 	public HashSet<String> getSyncSelection() {
+		HashSet<String> cached = (HashSet<String>) cache.get("syncSelection");
+		if (cached == null) {
+			synchronized (this) {
+				cached = parseSyncSelection();
+				cache.put("syncSelection", cached);
+			}
+		}
+		return new HashSet<String>(cached);
+	}
+
+	private HashSet<String> parseSyncSelection() {
 		HashSet<String> set = new HashSet<String>();
 		String selection = getString(Keys.SYNC_SELECTION);
 		if (selection == null || selection.isEmpty()) {
@@ -502,6 +625,4 @@ public class Settings {
 		String arrayString = a.toString();
 		set(Settings.Keys.SYNC_SELECTION, arrayString);
 	}
-	
-	
 }
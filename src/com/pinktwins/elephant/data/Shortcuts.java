@@ -21,10 +21,10 @@ public class Shortcuts implements SideBarItemModifier {
 
 	private static final Logger LOG = Logger.getLogger(Shortcuts.class.getName());
 
-	private List<String> list = Factory.newArrayList();
+	private List<String> list = Factory.newCopyOnWriteArrayList();
 
 	public Shortcuts() {
-		Elephant.eventBus.register(this);
+		Elephant.eventBus.registerData(this);
 	}
 
 	public void cleanup() {
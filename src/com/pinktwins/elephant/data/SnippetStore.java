@@ -0,0 +1,306 @@
+package com.pinktwins.elephant.data;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FilenameUtils;
+
+import com.google.common.eventbus.Subscribe;
+import com.pinktwins.elephant.Elephant;
+import com.pinktwins.elephant.eventbus.NoteChangedEvent;
+import com.pinktwins.elephant.eventbus.NotebookEvent;
+import com.pinktwins.elephant.util.Factory;
+import com.pinktwins.elephant.util.Images;
+
+// Precomputed list previews: start of the note as plain text (markdown source
+// for markdown notes), first picture attachment and word count. Kept up to date
+// by a background worker and stored in the vault as '.snippets', so the note
+// list doesn't need to read and parse whole notes.
+
+public class SnippetStore {
+
+	private static final Logger LOG = Logger.getLogger(SnippetStore.class.getName());
+
+	private static final int VERSION = 1;
+	public static final int PREVIEW_LENGTH = 600;
+
+	// Wait this long after a change before writing the store.
+	private static final long SAVE_DELAY_MS = 30 * 1000;
+
+	private static final Pattern words = Pattern.compile("\\S+");
+
+	public static class Snippet {
+		// Start of note contents, max PREVIEW_LENGTH chars and an ellipsis.
+		public final String preview;
+		// File name of first image or pdf attachment, or empty.
+		public final String firstImage;
+		public final int wordCount;
+
+		final long lastModified, length;
+
+		Snippet(String preview, String firstImage, int wordCount, long lastModified, long length) {
+			this.preview = preview;
+			this.firstImage = firstImage;
+			this.wordCount = wordCount;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+
+		boolean isCurrent(File f) {
+			return lastModified == f.lastModified() && length == f.length();
+		}
+
+		public File firstImageFile(Note n) {
+			return firstImage.isEmpty() ? null : new File(n.attachmentFolderPath(), firstImage);
+		}
+	}
+
+	private volatile File home, storeFile;
+
+	// Keyed by note path relative to vault home.
+	private final Map<String, Snippet> snippets = Factory.newConcurrentHashMap();
+	private final Set<File> queued = Factory.newConcurrentHashSet();
+
+	private volatile boolean dirty = false;
+	private volatile boolean saveScheduled = false;
+
+	private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Elephant snippets");
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		}
+	});
+
+	SnippetStore() {
+		Elephant.eventBus.registerData(this);
+
+		Runtime.getRuntime().addShutdownHook(new Thread("Elephant snippet store flush") {
+			@Override
+			public void run() {
+				save();
+			}
+		});
+	}
+
+	private String key(File f) {
+		String path = f.getAbsolutePath();
+		String base = home.getAbsolutePath() + File.separator;
+		return path.startsWith(base) ? path.substring(base.length()) : path;
+	}
+
+	// Snippet for note, building it now if stored one is missing or stale.
+	public Snippet get(Note n) {
+		File f = n.file();
+		if (home == null) {
+			return build(n);
+		}
+
+		Snippet s = snippets.get(key(f));
+		if (s == null || !s.isCurrent(f) || NoteSaveQueue.getInstance().hasPending(n)) {
+			s = update(n);
+		}
+		return s;
+	}
+
+	private Snippet update(Note n) {
+		Snippet s = build(n);
+		if (home != null) {
+			snippets.put(key(n.file()), s);
+			changed();
+		}
+		return s;
+	}
+
+	static Snippet build(Note n) {
+		File f = n.file();
+		long lastModified = f.lastModified(), length = f.length();
+
+		String contents = n.contents();
+		String plain = contents.startsWith("{\\rtf") ? Note.plainTextContents(contents) : contents;
+
+		String preview = (n.isMarkdown() ? contents : plain).trim();
+		if (preview.length() > PREVIEW_LENGTH) {
+			preview = preview.substring(0, PREVIEW_LENGTH) + "…";
+		}
+
+		int wordCount = 0;
+		Matcher m = words.matcher(plain);
+		while (m.find()) {
+			wordCount++;
+		}
+
+		String firstImage = "";
+		for (Note.AttachmentInfo i : n.getAttachmentList()) {
+			if (Images.isImage(i.f) || "pdf".equals(FilenameUtils.getExtension(i.f.getName()).toLowerCase())) {
+				firstImage = i.f.getName();
+				break;
+			}
+		}
+
+		return new Snippet(preview, firstImage, wordCount, lastModified, length);
+	}
+
+	// Build snippet in background, unless already queued.
+	public void refresh(final Note n) {
+		if (!queued.add(n.file())) {
+			return;
+		}
+
+		worker.execute(new Runnable() {
+			@Override
+			public void run() {
+				queued.remove(n.file());
+				try {
+					update(n);
+				} catch (Exception e) {
+					LOG.severe("Fail: " + e + " file: " + n.file());
+				}
+			}
+		});
+	}
+
+	// Bring snippets of all notes up to date in background.
+	public void refreshAll(final Iterable<Notebook> notebooks) {
+		worker.execute(new Runnable() {
+			@Override
+			public void run() {
+				for (Notebook nb : notebooks) {
+					// Array copy, list may change on the EDT meanwhile.
+					for (Note n : nb.getNotes().toArray(new Note[0])) {
+						Snippet s = snippets.get(key(n.file()));
+						if (s == null || !s.isCurrent(n.file())) {
+							refresh(n);
+						}
+					}
+				}
+			}
+		});
+	}
+
+	private void changed() {
+		dirty = true;
+		if (!saveScheduled) {
+			saveScheduled = true;
+			worker.schedule(new Runnable() {
+				@Override
+				public void run() {
+					saveScheduled = false;
+					save();
+				}
+			}, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	// Returns false if vaultHome was already loaded.
+	public synchronized boolean load(File vaultHome) {
+		if (vaultHome.equals(home)) {
+			return false;
+		}
+
+		home = vaultHome;
+		storeFile = new File(home, ".snippets");
+		snippets.clear();
+
+		if (!storeFile.exists()) {
+			return true;
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(storeFile))));
+			try {
+				if (in.readInt() != VERSION) {
+					return true;
+				}
+				for (int count = in.readInt(); count > 0; count--) {
+					String key = in.readUTF();
+					long lastModified = in.readLong();
+					long length = in.readLong();
+					int wordCount = in.readInt();
+					String firstImage = in.readUTF();
+					String preview = in.readUTF();
+					snippets.put(key, new Snippet(preview, firstImage, wordCount, lastModified, length));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			LOG.severe("Fail: " + e + " file: " + storeFile);
+		}
+		return true;
+	}
+
+	public synchronized void save() {
+		if (!dirty || storeFile == null) {
+			return;
+		}
+		dirty = false;
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+
+			Map<String, Snippet> copy = Factory.newHashMap();
+			copy.putAll(snippets);
+
+			out.writeInt(VERSION);
+			out.writeInt(copy.size());
+			for (Map.Entry<String, Snippet> e : copy.entrySet()) {
+				Snippet s = e.getValue();
+				out.writeUTF(e.getKey());
+				out.writeLong(s.lastModified);
+				out.writeLong(s.length);
+				out.writeInt(s.wordCount);
+				out.writeUTF(s.firstImage);
+				out.writeUTF(s.preview);
+			}
+			out.close();
+
+			NoteSaveQueue.write(storeFile, bytes.toByteArray());
+		} catch (IOException e) {
+			LOG.severe("Fail: " + e + " file: " + storeFile);
+		}
+	}
+
+	private void forget(File f) {
+		if (home != null && f != null && snippets.remove(key(f)) != null) {
+			changed();
+		}
+	}
+
+	@Subscribe
+	public void handleNoteChanged(NoteChangedEvent event) {
+		refresh(event.note);
+	}
+
+	@Subscribe
+	public void handleNotebookEvent(NotebookEvent event) {
+		switch (event.kind) {
+		case noteMoved:
+		case noteRenamed:
+		case noteDeleted:
+			forget(event.source);
+			break;
+		default:
+			break;
+		}
+	}
+}
@@ -3,17 +3,17 @@ package com.pinktwins.elephant.data;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStreamWriter;
-import java.security.MessageDigest;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.zip.GZIPOutputStream;
 
@@ -30,18 +30,15 @@ import com.pinktwins.elephant.ElephantWindow;
 import com.pinktwins.elephant.data.Note.Meta;
 import com.pinktwins.elephant.eventbus.NotebookEvent;
 import com.pinktwins.elephant.eventbus.VaultEvent;
-import com.pinktwins.elephant.util.DropboxContentHasher;
 import com.pinktwins.elephant.util.Factory;
 import com.pinktwins.elephant.util.IOUtil;
+import com.pinktwins.elephant.util.Metrics;
+import com.pinktwins.elephant.util.TaskExecutor;
 
 public class Sync {
 
 	private static final Logger LOG = Logger.getLogger(Sync.class.getName());
 
-	private static enum actions {
-		none, updateVaultToDropbox, updateDropboxToVault
-	};
-
 	static public String getDropboxFolder() {
 		String db = "";
 
@@ -116,6 +113,35 @@ public class Sync {
 	public static class SyncResult {
 		public int inSync, numCopiedToVault, numCopiedToDropbox, numMoved;
 		public String info;
+
+		// Copying of the pass: note, meta and attachment files.
+		public long filesCopied, bytesCopied, copyMillis;
+
+		public double filesPerSecond() {
+			return copyMillis == 0 ? 0 : filesCopied * 1000.0 / copyMillis;
+		}
+
+		public double bytesPerSecond() {
+			return copyMillis == 0 ? 0 : bytesCopied * 1000.0 / copyMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("SyncResult: %d in sync, %d to vault, %d to Dropbox, %d moved, %d files %d KB in %d ms (%.1f files/s, %.1f KB/s)", inSync,
+					numCopiedToVault, numCopiedToDropbox, numMoved, filesCopied, bytesCopied / 1024, copyMillis, filesPerSecond(), bytesPerSecond() / 1024);
+		}
+	}
+
+	// Dry run: what syncing selected notebooks would do now, comparing all
+	// notes. Copies nothing. Null if syncing isn't possible, see run().
+	public static SyncPlan plan() throws IOException {
+		String dbPath = getDropboxFolder();
+		String dbHome = dbPath + File.separator + "Apps" + File.separator + "Elephant";
+		if (dbPath.isEmpty() || isVaultAtDropboxAppsElephant() || !isDbHomeExists()) {
+			return null;
+		}
+
+		return planNotebooks(Elephant.settings.getSyncSelection(), dbHome, Vault.getInstance().getSyncJournal(), true, new SyncJournal.Changes());
 	}
 
 	public static SyncResult run() throws IOException {
@@ -162,6 +188,15 @@ public class Sync {
 			return r;
 		}
 
+		SyncJournal journal = Vault.getInstance().getSyncJournal();
+		journal.watchDropbox(new File(dbHome));
+
+		// Copies and moves below go around Note, a save still queued could
+		// land after them and undo them.
+		NoteSaveQueue.getInstance().flush();
+
+		long phaseStart = System.nanoTime();
+
 		// Read and handle files from /.events/
 		// These are json files written by Elehant mobile to let us know
 		// a note was moved to another folder.
@@ -245,6 +280,9 @@ public class Sync {
 									FileUtils.moveDirectoryToDirectory(eventSourceAttachments, eventDestAttachments, true);
 								}
 
+								journal.vaultChanged(eventSourceNote);
+								journal.vaultChanged(eventDestNote);
+
 								new NotebookEvent(NotebookEvent.Kind.noteMoved, eventSourceNote, eventDestNote).post();
 								new VaultEvent(VaultEvent.Kind.notebookRefreshed, Note.findContainingNotebook(eventSourceNote)).post();
 								new VaultEvent(VaultEvent.Kind.notebookRefreshed, Note.findContainingNotebook(eventDestNote)).post();
@@ -257,211 +295,465 @@ public class Sync {
 			}
 		}
 
+		Metrics.time("sync.events", phaseStart);
+
 		// Sync each notebook
 
 		for (String notebook : notebooks) {
+			new File(Vault.getInstance().getHome() + File.separator + notebook).mkdirs();
+			new File(dbHome + File.separator + notebook).mkdirs();
+		}
+
+		boolean fullScan = journal.needsFullScan();
+		SyncJournal.Changes changes = journal.takeChanges();
 
-			// Collect all unique filenames in Vault/notebook and Dropbox/notebook
+		// Plan of a pass that didn't finish: look at its notes again.
+		File planFile = new File(Vault.getInstance().getHome(), ".syncplan");
+		SyncPlan unfinished = SyncPlan.load(planFile);
+		if (unfinished != null) {
+			LOG.info("Resuming unfinished sync, " + unfinished);
+			for (SyncPlan.Item item : unfinished.getItems()) {
+				changes.notes.add(SyncJournal.key(item.notebook, item.noteFile));
+			}
+		}
 
-			String vaultFolder = Vault.getInstance().getHome() + File.separator + notebook;
-			String dropboxFolder = dbHome + File.separator + notebook;
+		try {
+			phaseStart = System.nanoTime();
+			SyncPlan plan = planNotebooks(notebooks, dbHome, journal, fullScan, changes);
+			LOG.info(plan.toString());
+			Metrics.time("sync.plan", phaseStart);
+
+			phaseStart = System.nanoTime();
+			plan.save(planFile);
+			execute(plan, dbHome, journal, r, synced, conflict);
+			FileUtils.deleteQuietly(planFile);
+			Metrics.time("sync.execute", phaseStart);
+			Metrics.counter("sync.bytes").add(r.bytesCopied);
+			Metrics.counter("sync.files").add(r.filesCopied);
+		} catch (IOException e) {
+			// Changes taken for this pass were not all handled.
+			journal.requestFullScan();
+			throw e;
+		}
 
-			File fVaultFolder = new File(vaultFolder);
-			File fDropboxFolder = new File(dropboxFolder);
+		if (fullScan) {
+			journal.fullScanDone();
+		}
+		journal.save();
+		Vault.getInstance().getContentHashCache().save();
+
+		LOG.info(r.toString());
+
+		if (conflict.count() > 0) {
+			conflict.setName("Conflict (" + conflict.count() + ")");
+			ElephantWindow.getActiveWindow().showNotebook(conflict);
 
-			if (!fVaultFolder.exists()) {
-				fVaultFolder.mkdirs();
+		} else {
+			if (synced.count() > 0) {
+				synced.setName("Updated (" + r.numCopiedToVault + ")");
+				ElephantWindow.getActiveWindow().showNotebook(synced);
+			} else {
+				if (ElephantWindow.getActiveWindow().isShowingSearchResults()) {
+					ElephantWindow.getActiveWindow().showNotebook(Vault.getInstance().getDefaultNotebook());
+				}
 			}
-			if (!fDropboxFolder.exists()) {
-				fDropboxFolder.mkdirs();
+		}
+
+		// Search index only needs exporting when synced notes changed on vault side.
+		if (journal.takeIndexChanged() || r.numCopiedToVault > 0 || r.numMoved > 0) {
+			phaseStart = System.nanoTime();
+			exportSearchIndex();
+			Metrics.time("sync.export", phaseStart);
+		}
+
+		return r;
+	}
+
+	// A note to copy, as decided by planNotebook().
+	private static class FileSync {
+		final String notebook, noteFile;
+		final SyncPlan.Action action;
+		final File vaultFile, dropboxFile;
+		final File retainedFolder;
+		final File sourceNoteFile, destNoteFile;
+		final File sourceMeta, destMeta;
+		final File sourceAttachments, destAttachments;
+
+		FileSync(SyncPlan.Item item, String dbHome) {
+			this.notebook = item.notebook;
+			this.noteFile = item.noteFile;
+			this.action = item.action;
+			this.vaultFile = vaultFile(item.notebook, item.noteFile);
+			this.dropboxFile = dropboxFile(dbHome, item.notebook, item.noteFile);
+
+			if (action == SyncPlan.Action.updateVaultToDropbox) {
+				retainedFolder = new File(dbHome + File.separator + ".retained");
+
+				sourceNoteFile = vaultFile;
+				destNoteFile = dropboxFile;
+
+				sourceMeta = metaFromFile(Vault.getInstance().getHome(), vaultFile);
+				destMeta = metaFromFile(new File(dbHome), vaultFile);
+
+				sourceAttachments = new File(vaultFile.getAbsolutePath() + ".attachments");
+				destAttachments = new File(dropboxFile.getAbsolutePath() + ".attachments");
+			} else {
+				// If destination exists, retain it
+				retainedFolder = new File(Vault.getInstance().getHome() + File.separator + ".retained");
+
+				sourceNoteFile = dropboxFile;
+				destNoteFile = vaultFile;
+
+				sourceMeta = metaFromFile(new File(dbHome), dropboxFile);
+				destMeta = metaFromFile(Vault.getInstance().getHome(), vaultFile);
+
+				sourceAttachments = new File(dropboxFile.getAbsolutePath() + ".attachments");
+				destAttachments = new File(vaultFile.getAbsolutePath() + ".attachments");
 			}
+		}
+	}
+
+	// Results of FileSyncs run on the sync executor, handled on the calling thread after.
+	private static class Executed {
+		final List<Note> conflicts = Factory.newArrayList();
+		final List<File> copiedToVault = Factory.newArrayList();
+		long files, bytes;
+	}
+
+	// Retained files of different notebooks go to the same folder.
+	private static final Object retainLock = new Object();
+
+	private static File vaultFile(String notebook, String noteFile) {
+		return new File(Vault.getInstance().getHome() + File.separator + notebook + File.separator + noteFile);
+	}
+
+	private static File dropboxFile(String dbHome, String notebook, String noteFile) {
+		return new File(dbHome + File.separator + notebook + File.separator + noteFile);
+	}
+
+	// Decide what to do with notes of notebook. Only reads files and journal.
+	private static SyncPlan planNotebook(String notebook, String dbHome, SyncJournal journal, boolean fullScan, SyncJournal.Changes changes) {
+		SyncPlan plan = new SyncPlan();
+
+		// Collect all unique filenames in Vault/notebook and Dropbox/notebook
+
+		File fVaultFolder = new File(Vault.getInstance().getHome() + File.separator + notebook);
+		File fDropboxFolder = new File(dbHome + File.separator + notebook);
 
+		// List both sides if needed, otherwise look only at notes changed since last pass.
+		boolean list = fullScan || changes.notebooks.contains(notebook) || !journal.isKnownNotebook(notebook);
+
+		HashSet<String> uniqueNames = new HashSet<String>();
+		if (list) {
 			File[] vaultFiles = fVaultFolder.listFiles();
 			File[] dropboxFiles = fDropboxFolder.listFiles();
 			File[] allFiles = ArrayUtils.addAll(vaultFiles, dropboxFiles);
 
-			HashSet<String> uniqueNames = new HashSet<String>();
-			for (File f : allFiles) {
-				String name = f.getName();
-				String ext = FilenameUtils.getExtension(f.getName()).toLowerCase();
-
-				if (name.charAt(0) != '.' && !name.endsWith("~") && Notebook.isNoteExtension(ext)) {
-					uniqueNames.add(f.getName());
+			if (allFiles != null) {
+				for (File f : allFiles) {
+					if (isSyncedNoteName(f.getName())) {
+						uniqueNames.add(f.getName());
+					}
+				}
+			}
+		} else {
+			for (String name : changes.notesIn(notebook)) {
+				if (isSyncedNoteName(name)) {
+					uniqueNames.add(name);
 				}
 			}
+		}
 
-			// What action is required?
+		// What action is required?
 
-			for (String noteFile : uniqueNames) {
-				actions action = actions.none;
+		for (String noteFile : uniqueNames) {
+			SyncPlan.Action action = SyncPlan.Action.none;
 
-				File vaultFile = new File(fVaultFolder.getAbsolutePath() + File.separator + noteFile);
-				File dropboxFile = new File(fDropboxFolder.getAbsolutePath() + File.separator + noteFile);
+			File vaultFile = vaultFile(notebook, noteFile);
+			File dropboxFile = dropboxFile(dbHome, notebook, noteFile);
 
-				if (vaultFile.exists() && !dropboxFile.exists()) {
-					action = actions.updateVaultToDropbox;
+			if (!vaultFile.exists() && !dropboxFile.exists()) {
+				if (journal.get(notebook, noteFile) != null) {
+					plan.add(new SyncPlan.Item(notebook, noteFile, SyncPlan.Action.forget, 0, false));
 				}
+				continue;
+			}
 
-				if (!vaultFile.exists() && dropboxFile.exists()) {
-					action = actions.updateDropboxToVault;
-				}
+			// Unchanged on both sides since recorded in sync.
+			SyncJournal.Entry entry = journal.get(notebook, noteFile);
+			if (entry != null && entry.matches(vaultFile, dropboxFile)) {
+				plan.inSync();
+				continue;
+			}
 
-				if (action == actions.none && vaultFile.exists() && dropboxFile.exists()) {
-					long vaultModified = vaultFile.lastModified();
-					long dropboxModified = dropboxFile.lastModified();
+			if (vaultFile.exists() && !dropboxFile.exists()) {
+				action = SyncPlan.Action.updateVaultToDropbox;
+			}
 
-					if (vaultModified == dropboxModified) {
-						action = actions.none;
-					} else {
-						if (vaultModified > dropboxModified) {
-							action = actions.updateVaultToDropbox;
-						}
-						if (vaultModified < dropboxModified) {
-							action = actions.updateDropboxToVault;
-						}
+			if (!vaultFile.exists() && dropboxFile.exists()) {
+				action = SyncPlan.Action.updateDropboxToVault;
+			}
+
+			if (action == SyncPlan.Action.none && vaultFile.exists() && dropboxFile.exists()) {
+				long vaultModified = vaultFile.lastModified();
+				long dropboxModified = dropboxFile.lastModified();
+
+				if (vaultModified == dropboxModified) {
+					action = SyncPlan.Action.none;
+				} else {
+					if (vaultModified > dropboxModified) {
+						action = SyncPlan.Action.updateVaultToDropbox;
+					}
+					if (vaultModified < dropboxModified) {
+						action = SyncPlan.Action.updateDropboxToVault;
 					}
 				}
+			}
 
-				if (action != actions.none) {
-					LOG.info("Sync: " + notebook + " / " + noteFile + " action " + action.toString());
+			if (action == SyncPlan.Action.none) {
+				plan.add(new SyncPlan.Item(notebook, noteFile, action, 0, false));
+				continue;
+			}
+
+			File source = action == SyncPlan.Action.updateVaultToDropbox ? vaultFile : dropboxFile;
+			File dest = action == SyncPlan.Action.updateVaultToDropbox ? dropboxFile : vaultFile;
+			File sourceHome = action == SyncPlan.Action.updateVaultToDropbox ? Vault.getInstance().getHome() : new File(dbHome);
+
+			long bytes = source.length() + metaFromFile(sourceHome, source).length();
+			File attachments = new File(source.getAbsolutePath() + ".attachments");
+			if (attachments.exists()) {
+				bytes += FileUtils.sizeOfDirectory(attachments);
+			}
+
+			// Modified on both sides since last sync? Same check as executeFile().
+			boolean conflict = false;
+			if (dest.exists()) {
+				long syncTime = Vault.getInstance().getNote(vaultFile).getMeta().synced();
+				conflict = syncTime > 0 && syncTime != dest.lastModified();
+			}
+
+			plan.add(new SyncPlan.Item(notebook, noteFile, action, bytes, conflict));
+		}
+
+		if (list) {
+			plan.listed(notebook);
+		}
+
+		return plan;
+	}
+
+	// Plan notebooks in parallel on the sync executor.
+	private static SyncPlan planNotebooks(Set<String> notebooks, final String dbHome, final SyncJournal journal, final boolean fullScan,
+			final SyncJournal.Changes changes) throws IOException {
+
+		List<Future<SyncPlan>> planned = Factory.newArrayList();
+		for (final String notebook : notebooks) {
+			planned.add(TaskExecutor.SYNC.submit(null, TaskExecutor.NORMAL, new Callable<SyncPlan>() {
+				@Override
+				public SyncPlan call() throws Exception {
+					return planNotebook(notebook, dbHome, journal, fullScan, changes);
 				}
+			}));
+		}
+
+		SyncPlan plan = new SyncPlan();
+		for (Future<SyncPlan> f : planned) {
+			plan.addAll(await(f));
+		}
+		return plan;
+	}
 
-				// Set source and destinations
-				File retainedFolder = null;
-				File sourceNoteFile = null, destNoteFile = null;
-				File sourceMeta = null, destMeta = null;
-				File sourceAttachments = null, destAttachments = null;
-
-				switch (action) {
-				case none:
-					r.inSync++;
-					break;
-				case updateVaultToDropbox:
-					retainedFolder = new File(dbHome + File.separator + ".retained");
-
-					sourceNoteFile = vaultFile;
-					destNoteFile = dropboxFile;
-
-					sourceMeta = metaFromFile(Vault.getInstance().getHome(), vaultFile);
-					destMeta = metaFromFile(new File(dbHome), vaultFile);
-
-					sourceAttachments = new File(vaultFile.getAbsolutePath() + ".attachments");
-					destAttachments = fDropboxFolder;
-					break;
-				case updateDropboxToVault:
-					// If destination exists, retain it
-					retainedFolder = new File(Vault.getInstance().getHome() + File.separator + ".retained");
-
-					sourceNoteFile = dropboxFile;
-					destNoteFile = vaultFile;
-
-					sourceMeta = metaFromFile(new File(dbHome), dropboxFile);
-					destMeta = metaFromFile(Vault.getInstance().getHome(), vaultFile);
-
-					sourceAttachments = new File(dropboxFile.getAbsolutePath() + ".attachments");
-					destAttachments = fVaultFolder;
-					break;
-				default:
-					break;
+	// Copy one note. Steps for a note are done in order on one thread,
+	// different notes may be copied at the same time.
+	private static void executeFile(FileSync f, SyncJournal journal, SyncResult r, Executed executed) throws IOException {
+		// Check synced timestamps to avoid conflicts when both notes were modified after last sync.
+		if (f.sourceNoteFile.exists() && f.destNoteFile.exists()) {
+			// Sync time is identical on both sides, since only desktop sets it.
+			// Can always get it from Vault .meta:
+			Note vaultNote = Vault.getInstance().getNote(f.vaultFile);
+			long syncTime = vaultNote.getMeta().synced();
+
+			if (syncTime > 0 && syncTime != f.destNoteFile.lastModified()) {
+				LOG.info("Note: " + f.sourceNoteFile.getAbsolutePath() + " was modified on both sides, skipping copy.");
+				synchronized (executed) {
+					executed.conflicts.add(vaultNote);
 				}
+				journal.requeue(f.notebook, f.noteFile);
+				return;
+			}
+		}
 
-				// Actual IO
-				switch (action) {
-				case none:
-					break;
-				case updateDropboxToVault:
-				case updateVaultToDropbox:
-					// Check synced timestamps to avoid conflicts when both notes were modified after last sync.
-					if (sourceNoteFile.exists() && destNoteFile.exists()) {
-						// Sync time is identical on both sides, since only desktop sets it.
-						// Can always get it from Vault .meta:
-						Note vaultNote = new Note(vaultFile);
-						long syncTime = vaultNote.getMeta().synced();
-						
-						if (syncTime > 0 && syncTime != destNoteFile.lastModified()) {
-							LOG.info("Note: " + sourceNoteFile.getAbsolutePath() + " was modified on both sides, skipping copy.");
-							conflict.addNote(vaultNote);
-							break;
-						}
-					}
+		long files = 0, bytes = 0;
 
-					// If synced note target exist, move current version to .retained folder.
-					// overwrite previously retained file if exists.
-					if (destNoteFile.exists()) {
-						File previouslyRetainedFile = new File(retainedFolder.getAbsolutePath() + File.separator + destNoteFile.getName());
-						if (previouslyRetainedFile.exists()) {
-							FileUtils.deleteQuietly(previouslyRetainedFile);
-						}
-						FileUtils.moveFileToDirectory(destNoteFile, retainedFolder, true);
-					}
+		// If synced note target exist, move current version to .retained folder.
+		// overwrite previously retained file if exists.
+		if (f.destNoteFile.exists()) {
+			synchronized (retainLock) {
+				File previouslyRetainedFile = new File(f.retainedFolder.getAbsolutePath() + File.separator + f.destNoteFile.getName());
+				if (previouslyRetainedFile.exists()) {
+					FileUtils.deleteQuietly(previouslyRetainedFile);
+				}
+				FileUtils.moveFileToDirectory(f.destNoteFile, f.retainedFolder, true);
+			}
+		}
 
-					// Copy note file and meta file
-					FileUtils.copyFile(sourceNoteFile, destNoteFile);
+		// Copy note file and meta file
+		FileUtils.copyFile(f.sourceNoteFile, f.destNoteFile);
+		files++;
+		bytes += f.sourceNoteFile.length();
 
-					// Mark source lastModified() as sync time
-					// Only set sync time to source meta, it's copied over
-					setSyncTime(sourceMeta, sourceNoteFile.lastModified());
+		// Mark source lastModified() as sync time
+		// Only set sync time to source meta, it's copied over
+		setSyncTime(f.sourceMeta, f.sourceNoteFile.lastModified());
 
-					if (destMeta.exists()) {
-						File previouslyRetainedMeta = new File(retainedFolder.getAbsolutePath() + File.separator + destMeta.getName());
-						if (previouslyRetainedMeta.exists()) {
-							FileUtils.deleteQuietly(previouslyRetainedMeta);
-						}
-						FileUtils.moveFileToDirectory(destMeta, retainedFolder, true);
-					}
+		if (f.destMeta.exists()) {
+			synchronized (retainLock) {
+				File previouslyRetainedMeta = new File(f.retainedFolder.getAbsolutePath() + File.separator + f.destMeta.getName());
+				if (previouslyRetainedMeta.exists()) {
+					FileUtils.deleteQuietly(previouslyRetainedMeta);
+				}
+				FileUtils.moveFileToDirectory(f.destMeta, f.retainedFolder, true);
+			}
+		}
 
-					if (sourceMeta.exists()) {
-						FileUtils.copyFile(sourceMeta, destMeta, true);
-					}
+		if (f.sourceMeta.exists()) {
+			FileUtils.copyFile(f.sourceMeta, f.destMeta, true);
+			files++;
+			bytes += f.sourceMeta.length();
+		}
 
-					// Copy all attachments over. If destination attachments exist,
-					// folders are combined, priority given to source.
-					if (sourceAttachments.exists()) {
-						FileUtils.copyDirectoryToDirectory(sourceAttachments, destAttachments);
-					}
+		// Copy new and changed attachments over. If destination attachments exist,
+		// folders are combined, priority given to source. Attachments deleted
+		// at source since last sync are retained.
+		AttachmentSync.Result attachments = AttachmentSync.sync(f.notebook, f.noteFile, f.sourceAttachments, f.destAttachments, f.retainedFolder,
+				retainLock, journal);
+		files += attachments.files;
+		bytes += attachments.bytes;
 
-					if (action == actions.updateVaultToDropbox) {
-						r.numCopiedToDropbox++;
-					}
+		journal.record(f.notebook, f.noteFile, f.vaultFile, f.dropboxFile, getDropboxContentHash(f.sourceNoteFile), f.sourceNoteFile.lastModified());
 
-					if (action == actions.updateDropboxToVault) {
-						r.numCopiedToVault++;
-					}
-					writeCopyLog(sourceNoteFile.getAbsolutePath(), destNoteFile.getAbsolutePath());
+		synchronized (r) {
+			if (f.action == SyncPlan.Action.updateVaultToDropbox) {
+				r.numCopiedToDropbox++;
+			}
 
-					if (action == actions.updateDropboxToVault) {
-						new VaultEvent(VaultEvent.Kind.notebookRefreshed, Note.findContainingNotebook(destNoteFile)).post();
-					}
+			if (f.action == SyncPlan.Action.updateDropboxToVault) {
+				r.numCopiedToVault++;
+			}
+		}
+		writeCopyLog(f.sourceNoteFile.getAbsolutePath(), f.destNoteFile.getAbsolutePath());
 
-					if (action == actions.updateDropboxToVault) {
-						Note updatedNote = new Note(destNoteFile);
-						synced.addNote(updatedNote);
+		synchronized (executed) {
+			executed.files += files;
+			executed.bytes += bytes;
+			if (f.action == SyncPlan.Action.updateDropboxToVault) {
+				executed.copiedToVault.add(f.destNoteFile);
+			}
+		}
+	}
+
+	// Apply plan: journal updates here, copies on the sync executor. Notebooks
+	// that got notes from Dropbox are refreshed once each, at the end.
+	private static void execute(SyncPlan plan, String dbHome, final SyncJournal journal, final SyncResult r, Notebook synced, Notebook conflict)
+			throws IOException {
+
+		final Executed executed = new Executed();
+		long start = System.nanoTime();
+
+		r.inSync += plan.getInSync();
+
+		List<Future<Void>> copies = Factory.newArrayList();
+		for (SyncPlan.Item item : plan.getItems()) {
+			File vaultFile = vaultFile(item.notebook, item.noteFile);
+			File dropboxFile = dropboxFile(dbHome, item.notebook, item.noteFile);
+
+			if (item.action == SyncPlan.Action.forget) {
+				journal.forget(item.notebook, item.noteFile);
+			} else if (item.action == SyncPlan.Action.none) {
+				SyncJournal.Entry entry = journal.get(item.notebook, item.noteFile);
+				journal.record(item.notebook, item.noteFile, vaultFile, dropboxFile, entry != null ? entry.hash : "", entry != null ? entry.synced : 0);
+				r.inSync++;
+			} else if (item.conflict) {
+				LOG.info("Note: " + vaultFile.getAbsolutePath() + " was modified on both sides, skipping copy.");
+				executed.conflicts.add(Vault.getInstance().getNote(vaultFile));
+				journal.requeue(item.notebook, item.noteFile);
+			} else {
+				LOG.info("Sync: " + item.notebook + " / " + item.noteFile + " action " + item.action.toString());
+				final FileSync f = new FileSync(item, dbHome);
+				copies.add(TaskExecutor.SYNC.submit(null, TaskExecutor.NORMAL, new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						executeFile(f, journal, r, executed);
+						return null;
 					}
-					break;
-				default:
-					break;
-				}
+				}));
 			}
 		}
 
-		if (conflict.count() > 0) {
-			conflict.setName("Conflict (" + conflict.count() + ")");
-			ElephantWindow.getActiveWindow().showNotebook(conflict);
+		for (String notebook : plan.getListedNotebooks()) {
+			journal.notebookListed(notebook);
+		}
 
-		} else {
-			if (synced.count() > 0) {
-				synced.setName("Updated (" + r.numCopiedToVault + ")");
-				ElephantWindow.getActiveWindow().showNotebook(synced);
-			} else {
-				if (ElephantWindow.getActiveWindow().isShowingSearchResults()) {
-					ElephantWindow.getActiveWindow().showNotebook(Vault.getInstance().getDefaultNotebook());
+		// Wait for all before giving up on an error, not to leave copies running.
+		IOException error = null;
+		for (Future<Void> f : copies) {
+			try {
+				await(f);
+			} catch (IOException e) {
+				if (error == null) {
+					error = e;
 				}
 			}
 		}
 
-		exportSearchIndex();
+		r.filesCopied = executed.files;
+		r.bytesCopied = executed.bytes;
+		r.copyMillis = (System.nanoTime() - start) / 1000000;
 
-		return r;
+		for (Note n : executed.conflicts) {
+			conflict.addNote(n);
+		}
+
+		Map<File, File> refreshed = Factory.newHashMap();
+		for (File destNoteFile : executed.copiedToVault) {
+			if (!refreshed.containsKey(destNoteFile.getParentFile())) {
+				refreshed.put(destNoteFile.getParentFile(), destNoteFile);
+			}
+
+			Note updatedNote = Vault.getInstance().getNote(destNoteFile);
+			synced.addNote(updatedNote);
+		}
+
+		for (File noteInNotebook : refreshed.values()) {
+			new VaultEvent(VaultEvent.Kind.notebookRefreshed, Note.findContainingNotebook(noteInNotebook)).post();
+		}
+
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	private static <T> T await(Future<T> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Sync interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	private static boolean isSyncedNoteName(String name) {
+		String ext = FilenameUtils.getExtension(name).toLowerCase();
+		return !name.isEmpty() && name.charAt(0) != '.' && !name.endsWith("~") && Notebook.isNoteExtension(ext);
 	}
 
 	private static void setSyncTime(File metaFile, long ts) {
@@ -727,21 +1019,7 @@ public class Sync {
 	}
 
 	public static String getDropboxContentHash(File f) throws IOException {
-		MessageDigest hasher = new DropboxContentHasher();
-		byte[] buf = new byte[1024];
-		InputStream in = new FileInputStream(f);
-		try {
-			while (true) {
-				int n = in.read(buf);
-				if (n < 0)
-					break; // EOF
-				hasher.update(buf, 0, n);
-			}
-		} finally {
-			in.close();
-		}
-
-		return hex(hasher.digest());
+		return Vault.getInstance().getContentHashCache().hash(f);
 	}
 
 	public static void writeNewNotebookLog(String name) {
@@ -760,7 +1038,7 @@ public class Sync {
 		writeLog(System.currentTimeMillis() + ",MOVE," + note + "," + destination + "\n");
 	}
 
-	public static void writeLog(String str) {
+	public static synchronized void writeLog(String str) {
 		File f = new File(Vault.getInstance().getHome() + File.separator + ".synclog");
 		FileWriter fr;
 		try {
@@ -0,0 +1,425 @@
+package com.pinktwins.elephant.data;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.eventbus.Subscribe;
+import com.pinktwins.elephant.Elephant;
+import com.pinktwins.elephant.data.WatchDir.WatchDirListener;
+import com.pinktwins.elephant.eventbus.NoteChangedEvent;
+import com.pinktwins.elephant.eventbus.NotebookEvent;
+import com.pinktwins.elephant.util.Factory;
+
+// State of synced notes as of the last sync pass, and which notes have changed
+// since then. Stored in the vault as '.syncjournal'.
+//
+// Changes on the vault side come from the vault watcher and note events, on
+// the Dropbox side from a watcher on Dropbox/Apps/Elephant. A sync pass looks
+// only at changed notes, and skips notes where both sides are as recorded.
+// Changes made while Elephant wasn't running are only seen by a full scan, so
+// the first pass of a session scans everything, as does one pass a day.
+
+class SyncJournal implements WatchDirListener {
+
+	private static final Logger LOG = Logger.getLogger(SyncJournal.class.getName());
+
+	private static final int VERSION = 2;
+
+	private static final long FULL_SCAN_INTERVAL_MS = 24 * 60 * 60 * 1000;
+
+	static class Entry {
+		final long vaultLength, vaultModified, dropboxLength, dropboxModified;
+		// Dropbox content hash of the note file when synced, or empty.
+		final String hash;
+		// Sync time written to meta, 0 if none.
+		final long synced;
+
+		Entry(long vaultLength, long vaultModified, long dropboxLength, long dropboxModified, String hash, long synced) {
+			this.vaultLength = vaultLength;
+			this.vaultModified = vaultModified;
+			this.dropboxLength = dropboxLength;
+			this.dropboxModified = dropboxModified;
+			this.hash = hash;
+			this.synced = synced;
+		}
+
+		// Both sides still as recorded?
+		boolean matches(File vaultFile, File dropboxFile) {
+			return vaultFile.lastModified() == vaultModified && vaultFile.length() == vaultLength && dropboxFile.lastModified() == dropboxModified
+					&& dropboxFile.length() == dropboxLength && vaultModified != 0 && dropboxModified != 0;
+		}
+	}
+
+	// Attachment file of a note as of last sync, on the side it was copied from.
+	static class Attachment {
+		final long length, modified;
+		// Dropbox content hash, or empty if not computed.
+		final String hash;
+
+		Attachment(long length, long modified, String hash) {
+			this.length = length;
+			this.modified = modified;
+			this.hash = hash;
+		}
+
+		boolean matches(File f) {
+			return f.length() == length && f.lastModified() == modified;
+		}
+	}
+
+	// Notes and notebooks changed since changes were last taken.
+	static class Changes {
+		final Set<String> notes = Factory.newHashSet();
+		final Set<String> notebooks = Factory.newHashSet();
+
+		Set<String> notesIn(String notebook) {
+			Set<String> names = Factory.newHashSet();
+			String prefix = notebook + "/";
+			for (String key : notes) {
+				if (key.startsWith(prefix)) {
+					names.add(key.substring(prefix.length()));
+				}
+			}
+			return names;
+		}
+	}
+
+	private volatile File home, journalFile;
+	private volatile File dropboxHome;
+
+	// Keyed by "notebook/note file name"
+	private final Map<String, Entry> entries = Factory.newConcurrentHashMap();
+	// Attachments of a note, keyed like entries, then by path relative to
+	// the .attachments folder, '/' separated.
+	private final Map<String, Map<String, Attachment>> attachments = Factory.newConcurrentHashMap();
+	// Notebooks listed by a sync pass, later passes can rely on change feed.
+	private final Set<String> knownNotebooks = Factory.newConcurrentHashSet();
+
+	private final Set<String> changedNotes = Factory.newConcurrentHashSet();
+	private final Set<String> changedNotebooks = Factory.newConcurrentHashSet();
+
+	private volatile long lastFullScan = 0;
+	private volatile boolean scannedThisSession = false;
+	private volatile boolean indexChanged = true;
+	private volatile boolean dirty = false;
+
+	SyncJournal() {
+		Elephant.eventBus.registerData(this);
+	}
+
+	static String key(String notebook, String name) {
+		return notebook + "/" + name;
+	}
+
+	public synchronized void load(File vaultHome) {
+		if (vaultHome.equals(home)) {
+			return;
+		}
+
+		home = vaultHome;
+		journalFile = new File(home, ".syncjournal");
+		clear();
+		scannedThisSession = false;
+
+		if (!journalFile.exists()) {
+			return;
+		}
+
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(journalFile));
+			try {
+				read(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			LOG.severe("Fail: " + e + " file: " + journalFile);
+			clear();
+		}
+	}
+
+	public synchronized void save() {
+		if (!dirty || journalFile == null) {
+			return;
+		}
+		dirty = false;
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			write(bytes);
+			NoteSaveQueue.write(journalFile, bytes.toByteArray());
+		} catch (IOException e) {
+			LOG.severe("Fail: " + e + " file: " + journalFile);
+		}
+	}
+
+	private void clear() {
+		entries.clear();
+		attachments.clear();
+		knownNotebooks.clear();
+		lastFullScan = 0;
+	}
+
+	// Replace contents with a journal written by write(). A journal of
+	// another version is ignored, leaving this one empty.
+	synchronized void read(InputStream is) throws IOException {
+		clear();
+
+		DataInputStream in = new DataInputStream(new GZIPInputStream(is));
+		if (in.readInt() != VERSION) {
+			return;
+		}
+		lastFullScan = in.readLong();
+		for (int count = in.readInt(); count > 0; count--) {
+			knownNotebooks.add(in.readUTF());
+		}
+		for (int count = in.readInt(); count > 0; count--) {
+			String key = in.readUTF();
+			long vaultLength = in.readLong();
+			long vaultModified = in.readLong();
+			long dropboxLength = in.readLong();
+			long dropboxModified = in.readLong();
+			String hash = in.readUTF();
+			long synced = in.readLong();
+			entries.put(key, new Entry(vaultLength, vaultModified, dropboxLength, dropboxModified, hash, synced));
+		}
+		for (int count = in.readInt(); count > 0; count--) {
+			String key = in.readUTF();
+			Map<String, Attachment> files = Factory.newHashMap();
+			for (int n = in.readInt(); n > 0; n--) {
+				String path = in.readUTF();
+				long length = in.readLong();
+				long modified = in.readLong();
+				String hash = in.readUTF();
+				files.put(path, new Attachment(length, modified, hash));
+			}
+			attachments.put(key, files);
+		}
+	}
+
+	// Contents in the .syncjournal format, gzipped.
+	synchronized void write(OutputStream os) throws IOException {
+		GZIPOutputStream gzip = new GZIPOutputStream(os);
+		DataOutputStream out = new DataOutputStream(gzip);
+
+		Map<String, Entry> copy = Factory.newHashMap();
+		copy.putAll(entries);
+		Set<String> notebooks = Factory.newHashSet();
+		notebooks.addAll(knownNotebooks);
+
+		out.writeInt(VERSION);
+		out.writeLong(lastFullScan);
+		out.writeInt(notebooks.size());
+		for (String nb : notebooks) {
+			out.writeUTF(nb);
+		}
+		out.writeInt(copy.size());
+		for (Map.Entry<String, Entry> e : copy.entrySet()) {
+			Entry en = e.getValue();
+			out.writeUTF(e.getKey());
+			out.writeLong(en.vaultLength);
+			out.writeLong(en.vaultModified);
+			out.writeLong(en.dropboxLength);
+			out.writeLong(en.dropboxModified);
+			out.writeUTF(en.hash);
+			out.writeLong(en.synced);
+		}
+
+		Map<String, Map<String, Attachment>> attachmentsCopy = Factory.newHashMap();
+		attachmentsCopy.putAll(attachments);
+		out.writeInt(attachmentsCopy.size());
+		for (Map.Entry<String, Map<String, Attachment>> e : attachmentsCopy.entrySet()) {
+			out.writeUTF(e.getKey());
+			out.writeInt(e.getValue().size());
+			for (Map.Entry<String, Attachment> a : e.getValue().entrySet()) {
+				out.writeUTF(a.getKey());
+				out.writeLong(a.getValue().length);
+				out.writeLong(a.getValue().modified);
+				out.writeUTF(a.getValue().hash);
+			}
+		}
+		out.flush();
+		gzip.finish();
+	}
+
+	boolean needsFullScan() {
+		return !scannedThisSession || System.currentTimeMillis() - lastFullScan > FULL_SCAN_INTERVAL_MS;
+	}
+
+	void fullScanDone() {
+		scannedThisSession = true;
+		lastFullScan = System.currentTimeMillis();
+		dirty = true;
+	}
+
+	// Next pass scans everything, eg. after a failed pass.
+	void requestFullScan() {
+		scannedThisSession = false;
+	}
+
+	boolean isKnownNotebook(String notebook) {
+		return knownNotebooks.contains(notebook);
+	}
+
+	void notebookListed(String notebook) {
+		if (knownNotebooks.add(notebook)) {
+			dirty = true;
+		}
+	}
+
+	// Changes since last call.
+	synchronized Changes takeChanges() {
+		Changes c = new Changes();
+		for (String s : changedNotes.toArray(new String[0])) {
+			changedNotes.remove(s);
+			c.notes.add(s);
+		}
+		for (String s : changedNotebooks.toArray(new String[0])) {
+			changedNotebooks.remove(s);
+			c.notebooks.add(s);
+		}
+		return c;
+	}
+
+	// True if vault side changed since last call, ie. exported search index is out of date.
+	boolean takeIndexChanged() {
+		boolean b = indexChanged;
+		indexChanged = false;
+		return b;
+	}
+
+	Entry get(String notebook, String name) {
+		return entries.get(key(notebook, name));
+	}
+
+	void record(String notebook, String name, File vaultFile, File dropboxFile, String hash, long synced) {
+		entries.put(key(notebook, name),
+				new Entry(vaultFile.length(), vaultFile.lastModified(), dropboxFile.length(), dropboxFile.lastModified(), hash, synced));
+		dirty = true;
+	}
+
+	void forget(String notebook, String name) {
+		if (entries.remove(key(notebook, name)) != null) {
+			dirty = true;
+		}
+		if (attachments.remove(key(notebook, name)) != null) {
+			dirty = true;
+		}
+	}
+
+	// Attachments of note as of last sync, empty if none recorded.
+	Map<String, Attachment> getAttachments(String notebook, String name) {
+		Map<String, Attachment> files = attachments.get(key(notebook, name));
+		if (files == null) {
+			files = Factory.newHashMap();
+		}
+		return files;
+	}
+
+	void recordAttachments(String notebook, String name, Map<String, Attachment> files) {
+		if (files.isEmpty()) {
+			attachments.remove(key(notebook, name));
+		} else {
+			attachments.put(key(notebook, name), files);
+		}
+		dirty = true;
+	}
+
+	// Start watching Dropbox side for changes, if not already.
+	synchronized void watchDropbox(final File dbHome) {
+		if (dbHome.equals(dropboxHome)) {
+			return;
+		}
+
+		if (dropboxHome != null) {
+			// Events from the previous folder would be mixed in.
+			requestFullScan();
+		}
+		dropboxHome = dbHome;
+
+		Thread t = new Thread("Elephant sync watcher") {
+			@Override
+			public void run() {
+				try {
+					new WatchDir(dbHome.getAbsolutePath(), true, SyncJournal.this).processEvents();
+				} catch (IOException e) {
+					LOG.severe("Fail: " + e);
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+
+	// Dropbox watcher
+	@Override
+	public void watchEvent(String kind, String file) {
+		File root = dropboxHome;
+		if (root != null) {
+			changed(root, new File(file));
+		}
+	}
+
+	// Report note again on the next incremental pass, eg. after a conflict
+	// left it uncopied. Doesn't touch the exported search index.
+	void requeue(String notebook, String noteFile) {
+		changedNotes.add(key(notebook, noteFile));
+	}
+
+	// Vault watcher, and note events below.
+	void vaultChanged(File f) {
+		File root = home;
+		if (root != null && f != null && changed(root, f)) {
+			indexChanged = true;
+		}
+	}
+
+	// Mark note or notebook changed from a path under root.
+	private boolean changed(File root, File f) {
+		String base = root.getAbsolutePath() + File.separator;
+		String path = f.getAbsolutePath();
+		if (!path.startsWith(base)) {
+			return false;
+		}
+
+		String[] parts = path.substring(base.length()).split(Pattern.quote(File.separator));
+		if (parts.length == 0 || parts[0].isEmpty() || parts[0].charAt(0) == '.') {
+			return false;
+		}
+
+		if (parts.length == 1) {
+			changedNotebooks.add(parts[0]);
+		} else {
+			String name = parts[1];
+			if (name.endsWith(".attachments")) {
+				name = name.substring(0, name.length() - ".attachments".length());
+			}
+			changedNotes.add(key(parts[0], name));
+		}
+		return true;
+	}
+
+	@Subscribe
+	public void handleNoteChanged(NoteChangedEvent event) {
+		vaultChanged(event.note.file());
+	}
+
+	@Subscribe
+	public void handleNotebookEvent(NotebookEvent event) {
+		vaultChanged(event.source);
+		vaultChanged(event.dest);
+	}
+}
@@ -0,0 +1,203 @@
+package com.pinktwins.elephant.data;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.pinktwins.elephant.util.Factory;
+
+// What a sync pass is going to do, decided before anything is copied.
+//
+// Sync.plan() makes one without touching any files, as a dry run. Sync.run()
+// writes the plan to the vault as '.syncplan' while executing it, and removes
+// it when done. A plan left behind means the pass didn't finish, and its notes
+// are looked at again by the next pass.
+
+public class SyncPlan {
+
+	private static final Logger LOG = Logger.getLogger(SyncPlan.class.getName());
+
+	private static final int VERSION = 1;
+
+	public static enum Action {
+		// Same on both sides, record in journal
+		none,
+		// Gone from both sides, remove from journal
+		forget, updateVaultToDropbox, updateDropboxToVault
+	};
+
+	public static class Item {
+		public final String notebook, noteFile;
+		public final Action action;
+		// Bytes to copy: note, meta and attachments. Attachments already
+		// at destination aren't copied, so this is an upper bound.
+		public final long bytes;
+		// Note was modified on both sides since last sync, won't be copied.
+		public final boolean conflict;
+
+		Item(String notebook, String noteFile, Action action, long bytes, boolean conflict) {
+			this.notebook = notebook;
+			this.noteFile = noteFile;
+			this.action = action;
+			this.bytes = bytes;
+			this.conflict = conflict;
+		}
+
+		public boolean isCopy() {
+			return (action == Action.updateVaultToDropbox || action == Action.updateDropboxToVault) && !conflict;
+		}
+	}
+
+	private final List<Item> items = Factory.newArrayList();
+	private final Set<String> listedNotebooks = Factory.newHashSet();
+	private int inSync;
+
+	synchronized void add(Item item) {
+		items.add(item);
+	}
+
+	synchronized void addAll(SyncPlan other) {
+		synchronized (other) {
+			items.addAll(other.items);
+			listedNotebooks.addAll(other.listedNotebooks);
+			inSync += other.inSync;
+		}
+	}
+
+	synchronized void inSync() {
+		inSync++;
+	}
+
+	synchronized void listed(String notebook) {
+		listedNotebooks.add(notebook);
+	}
+
+	public synchronized List<Item> getItems() {
+		return Collections.unmodifiableList(new ArrayList<Item>(items));
+	}
+
+	synchronized Set<String> getListedNotebooks() {
+		return Collections.unmodifiableSet(new HashSet<String>(listedNotebooks));
+	}
+
+	// Notes found unchanged from last sync, not in items.
+	public synchronized int getInSync() {
+		return inSync;
+	}
+
+	public synchronized int count(Action action) {
+		int n = 0;
+		for (Item item : items) {
+			if (item.action == action && !item.conflict) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	public synchronized long bytes(Action action) {
+		long n = 0;
+		for (Item item : items) {
+			if (item.action == action && !item.conflict) {
+				n += item.bytes;
+			}
+		}
+		return n;
+	}
+
+	public synchronized int conflicts() {
+		int n = 0;
+		for (Item item : items) {
+			if (item.conflict) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	void save(File file) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+
+			synchronized (this) {
+				out.writeInt(VERSION);
+				out.writeInt(inSync);
+				out.writeInt(listedNotebooks.size());
+				for (String nb : listedNotebooks) {
+					out.writeUTF(nb);
+				}
+				out.writeInt(items.size());
+				for (Item item : items) {
+					out.writeUTF(item.notebook);
+					out.writeUTF(item.noteFile);
+					out.writeUTF(item.action.name());
+					out.writeLong(item.bytes);
+					out.writeBoolean(item.conflict);
+				}
+			}
+			out.close();
+
+			NoteSaveQueue.write(file, bytes.toByteArray());
+		} catch (IOException e) {
+			LOG.severe("Fail: " + e + " file: " + file);
+		}
+	}
+
+	// Plan saved to file, or null if none or unreadable.
+	static SyncPlan load(File file) {
+		if (!file.exists()) {
+			return null;
+		}
+
+		SyncPlan plan = new SyncPlan();
+		try {
+			DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))));
+			try {
+				if (in.readInt() != VERSION) {
+					return null;
+				}
+				plan.inSync = in.readInt();
+				for (int count = in.readInt(); count > 0; count--) {
+					plan.listedNotebooks.add(in.readUTF());
+				}
+				for (int count = in.readInt(); count > 0; count--) {
+					String notebook = in.readUTF();
+					String noteFile = in.readUTF();
+					Action action = Action.valueOf(in.readUTF());
+					long bytes = in.readLong();
+					boolean conflict = in.readBoolean();
+					plan.items.add(new Item(notebook, noteFile, action, bytes, conflict));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			LOG.severe("Fail: " + e + " file: " + file);
+			return null;
+		} catch (IllegalArgumentException e) {
+			LOG.severe("Fail: " + e + " file: " + file);
+			return null;
+		}
+		return plan;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("SyncPlan: %d to Dropbox (%d KB), %d to vault (%d KB), %d conflicts, %d in sync", count(Action.updateVaultToDropbox),
+				bytes(Action.updateVaultToDropbox) / 1024, count(Action.updateDropboxToVault), bytes(Action.updateDropboxToVault) / 1024, conflicts(),
+				inSync + count(Action.none));
+	}
+}
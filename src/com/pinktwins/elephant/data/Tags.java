@@ -5,11 +5,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
-import org.apache.commons.collections4.CollectionUtils;
-import org.apache.commons.collections4.Predicate;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -23,12 +23,43 @@ public class Tags {
 
 	private List<Tag> flatList = Factory.newArrayList();
 
+	// Lookup indexes over flatList, rebuilt whenever it changes.
+	// byName keys are lowercased and map to the first tag with that name.
+	private Map<String, Tag> byId = Factory.newHashMap();
+	private Map<String, Tag> byName = Factory.newHashMap();
+	private Map<Tag, Integer> position = Factory.newHashMap();
+
 	private String fileLoaded;
+	private long loadedModified, loadedLength;
+
+	private void reindex() {
+		byId.clear();
+		byName.clear();
+		position.clear();
+
+		for (int n = 0, len = flatList.size(); n < len; n++) {
+			Tag t = flatList.get(n);
+			if (!byId.containsKey(t.id)) {
+				byId.put(t.id, t);
+			}
+			String lo = t.name.toLowerCase();
+			if (!byName.containsKey(lo)) {
+				byName.put(lo, t);
+			}
+			position.put(t, n);
+		}
+	}
 
-	public void reload(String path) {
+	private void markLoaded(File f) {
+		loadedModified = f.lastModified();
+		loadedLength = f.length();
+	}
+
+	public synchronized void reload(String path) {
 		flatList.clear();
 
-		JSONObject o = IOUtil.loadJson(new File(path));
+		File f = new File(path);
+		JSONObject o = IOUtil.loadJson(f);
 
 		if (o.has("tags")) {
 			try {
@@ -43,18 +74,41 @@ public class Tags {
 			}
 		}
 
+		reindex();
+
 		fileLoaded = path;
+		markLoaded(f);
 	}
 
-	public void refresh() {
+	// Load path, unless it's already loaded and unchanged on disk since.
+	// True if it was (re)loaded.
+	public synchronized boolean load(String path) {
+		if (path.equals(fileLoaded)) {
+			File f = new File(path);
+			if (f.lastModified() == loadedModified && f.length() == loadedLength) {
+				return false;
+			}
+		}
+
+		reload(path);
+		return true;
+	}
+
+	// Reload only if .tags changed on disk since we last read or wrote it.
+	public synchronized void refresh() {
 		if (fileLoaded == null) {
 			return;
 		}
 
+		File f = new File(fileLoaded);
+		if (f.lastModified() == loadedModified && f.length() == loadedLength) {
+			return;
+		}
+
 		reload(fileLoaded);
 	}
 
-	public void save() {
+	public synchronized void save() {
 		if (fileLoaded == null) {
 			throw new IllegalStateException();
 		}
@@ -67,7 +121,9 @@ public class Tags {
 		JSONObject o = new JSONObject();
 		try {
 			o.put("tags", arr);
-			IOUtil.writeFile(new File(fileLoaded), o.toString(4));
+			File f = new File(fileLoaded);
+			IOUtil.writeFile(f, o.toString(4));
+			markLoaded(f);
 		} catch (JSONException e) {
 			LOG.severe("Fail: " + e);
 		} catch (IOException e) {
@@ -75,70 +131,121 @@ public class Tags {
 		}
 	}
 
-	public List<String> resolveNames(List<String> tagNames) {
+	public synchronized List<String> resolveNames(List<String> tagNames) {
 		List<String> ids = Factory.newArrayList();
+		if (resolveNamesInto(tagNames, ids)) {
+			Collections.sort(flatList);
+			reindex();
+			save();
+		}
+		return ids;
+	}
 
+	// Returns true if new tags were created.
+	private boolean resolveNamesInto(List<String> tagNames, List<String> ids) {
 		boolean newTags = false;
 
 		for (final String tagName : tagNames) {
+			// XXX if more than one tag has this name, the first one is used.
+			// Ask user which tag to use?
+			Tag tag = byName.get(tagName.toLowerCase());
 
-			final String tagNameLo = tagName.toLowerCase();
-			Collection<Tag> t = CollectionUtils.select(flatList, new Predicate<Tag>() {
-				@Override
-				public boolean evaluate(Tag t) {
-					return tagNameLo.equals(t.name.toLowerCase());
-				}
-			});
-
-			if (t.isEmpty()) {
-				Tag tag = new Tag(tagName);
+			if (tag == null) {
+				tag = new Tag(tagName);
 				flatList.add(tag);
+				byId.put(tag.id, tag);
+				byName.put(tagName.toLowerCase(), tag);
 				newTags = true;
-				ids.add(tag.id);
-			} else {
-				if (t.size() > 1) {
-					// XXX more than one tag found by name. Ask user which tag
-					// to use.
-				}
-				// XXX now using first found tag, resolve if multiple found
-				for (Tag tag : t) {
-					ids.add(tag.id);
-					break;
-				}
 			}
+
+			ids.add(tag.id);
+		}
+
+		return newTags;
+	}
+
+	// Resolve names for many notes at once. New tags are saved once at the end.
+	public synchronized List<List<String>> resolveNameLists(Collection<List<String>> tagNameLists) {
+		List<List<String>> result = Factory.newArrayList();
+		boolean newTags = false;
+
+		for (List<String> tagNames : tagNameLists) {
+			List<String> ids = Factory.newArrayList();
+			newTags |= resolveNamesInto(tagNames, ids);
+			result.add(ids);
 		}
 
 		if (newTags) {
 			Collections.sort(flatList);
+			reindex();
 			save();
 		}
 
-		return ids;
+		return result;
 	}
 
-	public List<String> resolveIds(List<String> tagIds) {
+	// Names come out in tag list order, like they always have.
+	public synchronized List<String> resolveIds(List<String> tagIds) {
 		List<String> names = Factory.newArrayList();
+		if (tagIds.isEmpty()) {
+			return names;
+		}
 
-		for (Tag t : flatList) {
-			if (tagIds.contains(t.id)) {
-				names.add(t.name());
+		List<Tag> found = Factory.newArrayList();
+		for (String id : tagIds) {
+			Tag t = byId.get(id);
+			if (t != null && !found.contains(t)) {
+				found.add(t);
 			}
 		}
 
+		if (found.size() > 1) {
+			Collections.sort(found, byPosition);
+		}
+
+		for (Tag t : found) {
+			names.add(t.name());
+		}
+
 		return names;
 	}
 
-	public List<Tag> asList() {
+	// Resolve ids for many notes at once.
+	public synchronized List<List<String>> resolveIdLists(Collection<List<String>> tagIdLists) {
+		List<List<String>> result = Factory.newArrayList();
+		for (List<String> tagIds : tagIdLists) {
+			result.add(resolveIds(tagIds));
+		}
+		return result;
+	}
+
+	private final Comparator<Tag> byPosition = new Comparator<Tag>() {
+		@Override
+		public int compare(Tag a, Tag b) {
+			return position.get(a) - position.get(b);
+		}
+	};
+
+	public synchronized Tag findById(String id) {
+		return byId.get(id);
+	}
+
+	public synchronized Tag findByName(String name) {
+		return byName.get(name.toLowerCase());
+	}
+
+	public synchronized List<Tag> asList() {
 		return new ArrayList<Tag>(flatList);
 	}
 
-	public void saveTag(final Tag t) {
+	public synchronized void saveTag(final Tag t) {
 		flatList.add(t);
 		Collections.sort(flatList);
+		reindex();
 		save();
 	}
 
-	public void deleteTag(final String id, final String name) {
+	public synchronized void deleteTag(final String id, final String name) {
 		if (fileLoaded == null) {
 			throw new IllegalStateException();
 		}
@@ -152,6 +259,7 @@ public class Tags {
 		}
 		if (toDelete != null) {
 			flatList.remove(toDelete);
+			reindex();
 			save();
 		}
 	}
@@ -39,9 +39,21 @@ public class Vault implements WatchDirListener {
 	private File home;
 	private File trash;
 
-	private List<Notebook> notebooks = Factory.newArrayList();
+	private List<Notebook> notebooks = Factory.newCopyOnWriteArrayList();
+
+	// folder -> Notebook, kept in step with 'notebooks'
+	private Map<File, Notebook> notebookIndex = Factory.newConcurrentHashMap();
+
 	private Tags tags = new Tags();
 
+	private final NoteRegistry noteRegistry = new NoteRegistry();
+
+	private final SnippetStore snippets = new SnippetStore();
+	private final SyncJournal syncJournal = new SyncJournal();
+	private final ContentHashCache hashCache = new ContentHashCache();
+
+	private final Object populateLock = new Object();
+
 	WatchDir watchDir;
 
 	public static Vault getInstance() {
@@ -52,7 +64,9 @@ public class Vault implements WatchDirListener {
 	}
 
 	private Vault() {
-		Elephant.eventBus.register(this);
+		// Notebook list is updated on the data thread, UI refreshes when
+		// notebookListUpdated follows.
+		Elephant.eventBus.registerData(new NotebookChanges());
 
 		String def = Elephant.settings.getString(Settings.Keys.DEFAULT_NOTEBOOK);
 		if (!def.isEmpty()) {
@@ -106,17 +120,30 @@ public class Vault implements WatchDirListener {
 		return trash;
 	}
 
-	public void populate() {
+	// Runs on the data thread for vault and notebook events.
+	// True if notebooks were added.
+	public boolean populate() {
+		synchronized (populateLock) {
+			return populateLocked();
+		}
+	}
+
+	private boolean populateLocked() {
 		home = new File(HOME);
 
 		trash = new File(home.getAbsolutePath() + File.separator + "Trash");
 		trash.mkdirs();
 
+		List<Notebook> added = Factory.newArrayList();
+
 		synchronized (Search.lockObject) {
 			for (File f : home.listFiles()) {
 				if (f.isDirectory() && f.getName().charAt(0) != '.') {
 					if (findNotebook(f) == null) {
-						notebooks.add(new Notebook(f));
+						Notebook nb = new Notebook(f);
+						notebooks.add(nb);
+						notebookIndex.put(f, nb);
+						added.add(nb);
 					}
 				}
 			}
@@ -124,8 +151,20 @@ public class Vault implements WatchDirListener {
 
 		Collections.sort(notebooks);
 
-		tags.reload(home.getAbsolutePath() + File.separator + ".tags");
-		new TagsChangedEvent().post();
+		if (tags.load(home.getAbsolutePath() + File.separator + ".tags")) {
+			new TagsChangedEvent().post();
+		}
+
+		// Whole vault once, when the store is loaded. After that only new
+		// notebooks here, and those named in note events.
+		if (snippets.load(home)) {
+			snippets.refreshAll(notebooks);
+		} else if (!added.isEmpty()) {
+			snippets.refreshAll(added);
+		}
+
+		syncJournal.load(home);
+		hashCache.load(home);
 
 		if (watchDir == null) {
 			new Thread() {
@@ -146,6 +185,7 @@ public class Vault implements WatchDirListener {
 				}
 			}.start();
 		}
+		return !added.isEmpty();
 	}
 
 	public List<Notebook> getNotebooks() {
@@ -194,14 +234,78 @@ public class Vault implements WatchDirListener {
 		});
 	}
 
-	@SuppressWarnings("unlikely-arg-type")
 	public Notebook findNotebook(File f) {
-		for (Notebook n : notebooks) {
-			if (n.equals(f)) {
-				return n;
+		if (f == null) {
+			return null;
+		}
+		return notebookIndex.get(f);
+	}
+
+	// Resolve notebooks for many folders at once. Folders without a notebook are left out.
+	public Map<File, Notebook> findNotebooks(Collection<File> folders) {
+		Map<File, Notebook> map = Factory.newHashMap();
+		for (File f : folders) {
+			Notebook nb = findNotebook(f);
+			if (nb != null) {
+				map.put(f, nb);
+			}
+		}
+		return map;
+	}
+
+	// Resolve containing notebooks for many note files at once.
+	public Map<File, Notebook> findContainingNotebooks(Collection<File> noteFiles) {
+		Map<File, Notebook> byFolder = Factory.newHashMap();
+		Map<File, Notebook> map = Factory.newHashMap();
+		for (File f : noteFiles) {
+			File folder = f.getParentFile();
+			Notebook nb = byFolder.get(folder);
+			if (nb == null && !byFolder.containsKey(folder)) {
+				nb = findNotebook(folder);
+				byFolder.put(folder, nb);
+			}
+			if (nb != null) {
+				map.put(f, nb);
 			}
 		}
-		return null;
+		return map;
+	}
+
+	void notebookRenamed(Notebook nb, File oldFolder) {
+		notebookIndex.remove(oldFolder);
+		notebookIndex.put(nb.folder(), nb);
+	}
+
+	// Canonical Note for a file. Same file gives the same instance for as
+	// long as someone holds on to it.
+	public Note getNote(File f) {
+		return noteRegistry.get(f);
+	}
+
+	// Note file is gone for good, drop its instance.
+	void forgetNote(File f) {
+		noteRegistry.forget(f);
+	}
+
+	void relocateNote(Note n, File oldFile) {
+		noteRegistry.relocate(n, oldFile);
+
+		Notebook nb = findNotebook(oldFile.getParentFile());
+		if (nb != null) {
+			nb.noteRelocated(n, oldFile);
+		}
+	}
+
+	SyncJournal getSyncJournal() {
+		return syncJournal;
+	}
+
+	ContentHashCache getContentHashCache() {
+		return hashCache;
+	}
+
+	public SnippetStore.Snippet getSnippet(Note n) {
+		return snippets.get(n);
 	}
 
 	public List<String> resolveTagNames(List<String> tagNames) {
@@ -212,6 +316,14 @@ public class Vault implements WatchDirListener {
 		return tags.resolveIds(tagIds);
 	}
 
+	public List<List<String>> resolveTagNameLists(Collection<List<String>> tagNameLists) {
+		return tags.resolveNameLists(tagNameLists);
+	}
+
+	public List<List<String>> resolveTagIdLists(Collection<List<String>> tagIdLists) {
+		return tags.resolveIdLists(tagIdLists);
+	}
+
 	public String getLuceneIndexPath() {
 		return Elephant.settings.userHomePath() + File.separator + ".com.pinktwins.elephant.searchIndex";
 	}
@@ -312,33 +424,50 @@ public class Vault implements WatchDirListener {
 		}
 
 		notebooks.remove(nb);
+		if (nb.folder() != null) {
+			notebookIndex.remove(nb.folder());
+		}
 
 		new VaultEvent(VaultEvent.Kind.notebookListChanged, nb).post();
 	}
 
-	@Subscribe
-	public void handleNotebookEvent(NotebookEvent event) {
-		populate();
-	}
+	private class NotebookChanges {
+		@Subscribe
+		public void handleNotebookEvent(NotebookEvent event) {
+			if (populate()) {
+				new VaultEvent(VaultEvent.Kind.notebookListUpdated, null).post();
+			}
 
-	@Subscribe
-	public void handleVaultEvent(VaultEvent event) {
-		switch (event.kind) {
-		case notebookCreated:
-			populate();
-			break;
-		case notebookListChanged:
-			populate();
-			break;
-		case notebookRefreshed:
-			break;
-		default:
-			break;
+			List<Notebook> changed = Factory.newArrayList();
+			for (File f : new File[] { event.source, event.dest }) {
+				Notebook nb = f != null ? findNotebook(f.getParentFile()) : null;
+				if (nb != null && !changed.contains(nb)) {
+					changed.add(nb);
+				}
+			}
+			if (!changed.isEmpty()) {
+				snippets.refreshAll(changed);
+			}
+		}
+
+		@Subscribe
+		public void handleVaultEvent(VaultEvent event) {
+			switch (event.kind) {
+			case notebookCreated:
+			case notebookListChanged:
+				populate();
+				new VaultEvent(VaultEvent.Kind.notebookListUpdated, null).post();
+				break;
+			default:
+				break;
+			}
 		}
 	}
 
 	@Override
 	public void watchEvent(final String kind, final String file) {
+		syncJournal.vaultChanged(new File(file));
+
 		if ("ENTRY_MODIFY".equals(kind)) {
 			File f = new File(file);
 			if (f.isFile()) {
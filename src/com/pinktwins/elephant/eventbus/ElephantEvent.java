@@ -6,4 +6,10 @@ public class ElephantEvent {
 	public void post() {
 		Elephant.eventBus.post(this);
 	}
+
+	// Events with equal keys waiting for delivery are delivered only once.
+	// null means every posted event is delivered.
+	Object coalesceKey() {
+		return null;
+	}
 }
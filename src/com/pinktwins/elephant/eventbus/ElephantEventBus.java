@@ -0,0 +1,251 @@
+package com.pinktwins.elephant.eventbus;
+
+import java.awt.EventQueue;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import com.google.common.eventbus.Subscribe;
+import com.pinktwins.elephant.util.Factory;
+import com.pinktwins.elephant.util.Histogram;
+import com.pinktwins.elephant.util.Metrics;
+
+// Event dispatch for Elephant. Handlers are found by Guava's @Subscribe.
+//
+// UI subscribers (register) get events on the EDT. Events that can be
+// coalesced (see ElephantEvent.coalesceKey) are handed to the EDT to run
+// later, also when posted on the EDT, and duplicates still waiting there are
+// dropped: N refreshes of a notebook in one go become one. Other events posted
+// on the EDT are delivered immediately, as before.
+//
+// Data subscribers (registerData) get events on a single background thread,
+// in posting order, so indexing and disk work stays off the EDT. Duplicates
+// waiting for that thread are dropped as well.
+//
+// Events posted while a handler runs are queued and delivered after the current
+// event has reached all subscribers on that thread.
+
+public class ElephantEventBus {
+
+	private static final Logger LOG = Logger.getLogger(ElephantEventBus.class.getName());
+
+	private static class Handler {
+		final Object target;
+		final Method method;
+		final Class<?> eventType;
+		final Histogram stats;
+
+		Handler(Object target, Method method, Histogram stats) {
+			this.target = target;
+			this.method = method;
+			this.eventType = method.getParameterTypes()[0];
+			this.stats = stats;
+		}
+	}
+
+	private static class Delivery {
+		final List<Handler> handlers;
+		final Object event;
+
+		Delivery(List<Handler> handlers, Object event) {
+			this.handlers = handlers;
+			this.event = event;
+		}
+	}
+
+	private final List<Handler> uiHandlers = new CopyOnWriteArrayList<Handler>();
+	private final List<Handler> dataHandlers = new CopyOnWriteArrayList<Handler>();
+
+	// Handler timings, also in Metrics as eventbus.handler.<Class.method>.
+	private final Map<String, Histogram> stats = Factory.newConcurrentHashMap();
+
+	// Coalescing keys of events waiting for delivery.
+	private final Set<Object> pendingUi = Factory.newConcurrentHashSet();
+	private final Set<Object> pendingData = Factory.newConcurrentHashSet();
+
+	private final ThreadLocal<Queue<Delivery>> queue = new ThreadLocal<Queue<Delivery>>() {
+		@Override
+		protected Queue<Delivery> initialValue() {
+			return new ArrayDeque<Delivery>();
+		}
+	};
+
+	private final ThreadLocal<Boolean> dispatching = new ThreadLocal<Boolean>() {
+		@Override
+		protected Boolean initialValue() {
+			return Boolean.FALSE;
+		}
+	};
+
+	private final ExecutorService dataExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Elephant data events");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	public ElephantEventBus() {
+		Metrics.source("eventbus.handlers", new Object() {
+			@Override
+			public String toString() {
+				return slowestHandlers(5);
+			}
+		});
+	}
+
+	// Handlers with most total time, for diagnostics.
+	public String slowestHandlers(int count) {
+		List<Histogram> list = Factory.newArrayList();
+		list.addAll(stats.values());
+		Collections.sort(list, new Comparator<Histogram>() {
+			@Override
+			public int compare(Histogram a, Histogram b) {
+				return Double.compare(b.totalMillis(), a.totalMillis());
+			}
+		});
+
+		StringBuilder sb = new StringBuilder();
+		for (int n = 0; n < Math.min(count, list.size()); n++) {
+			Histogram h = list.get(n);
+			sb.append(n == 0 ? "" : "; ").append(String.format("%s: %d calls, total %.1f ms", h.name, h.count(), h.totalMillis()));
+		}
+		return sb.toString();
+	}
+
+	public void register(Object subscriber) {
+		addHandlers(uiHandlers, subscriber);
+	}
+
+	public void registerData(Object subscriber) {
+		addHandlers(dataHandlers, subscriber);
+	}
+
+	public void unregister(Object subscriber) {
+		removeHandlers(uiHandlers, subscriber);
+		removeHandlers(dataHandlers, subscriber);
+	}
+
+	private void addHandlers(List<Handler> handlers, Object subscriber) {
+		List<Handler> found = Factory.newArrayList();
+
+		for (Class<?> c = subscriber.getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Method m : c.getDeclaredMethods()) {
+				if (m.isAnnotationPresent(Subscribe.class) && m.getParameterTypes().length == 1) {
+					m.setAccessible(true);
+					found.add(new Handler(subscriber, m, statsFor(c.getSimpleName() + "." + m.getName())));
+				}
+			}
+		}
+
+		handlers.addAll(found);
+	}
+
+	private void removeHandlers(List<Handler> handlers, Object subscriber) {
+		List<Handler> remove = Factory.newArrayList();
+		for (Handler h : handlers) {
+			if (h.target == subscriber) {
+				remove.add(h);
+			}
+		}
+		handlers.removeAll(remove);
+	}
+
+	private Histogram statsFor(String name) {
+		Histogram h = stats.get(name);
+		if (h == null) {
+			h = Metrics.histogram("eventbus.handler." + name);
+			stats.put(name, h);
+		}
+		return h;
+	}
+
+	private static Object coalesceKey(Object event) {
+		if (event instanceof ElephantEvent) {
+			return ((ElephantEvent) event).coalesceKey();
+		}
+		return null;
+	}
+
+	public void post(final Object event) {
+		final Object key = coalesceKey(event);
+
+		if (!dataHandlers.isEmpty() && (key == null || pendingData.add(key))) {
+			dataExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (key != null) {
+						pendingData.remove(key);
+					}
+					dispatch(dataHandlers, event);
+				}
+			});
+		}
+
+		if (key == null && EventQueue.isDispatchThread()) {
+			dispatch(uiHandlers, event);
+		} else if (key == null || pendingUi.add(key)) {
+			EventQueue.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					if (key != null) {
+						pendingUi.remove(key);
+					}
+					dispatch(uiHandlers, event);
+				}
+			});
+		}
+	}
+
+	private void dispatch(List<Handler> handlers, Object event) {
+		Queue<Delivery> q = queue.get();
+		q.add(new Delivery(handlers, event));
+
+		if (dispatching.get()) {
+			return;
+		}
+
+		dispatching.set(Boolean.TRUE);
+		try {
+			Delivery d;
+			while ((d = q.poll()) != null) {
+				long start = System.nanoTime();
+				deliver(d.handlers, d.event);
+				Metrics.time("eventbus.dispatch", start);
+			}
+		} finally {
+			dispatching.remove();
+		}
+	}
+
+	private void deliver(List<Handler> handlers, Object event) {
+		for (Handler h : handlers) {
+			if (!h.eventType.isInstance(event)) {
+				continue;
+			}
+
+			long start = System.nanoTime();
+			try {
+				h.method.invoke(h.target, event);
+			} catch (InvocationTargetException e) {
+				LOG.severe("Fail: " + h.stats.name + " threw " + e.getCause());
+			} catch (IllegalAccessException e) {
+				LOG.severe("Fail: " + e);
+			} finally {
+				h.stats.recordNanos(System.nanoTime() - start);
+			}
+		}
+	}
+}
@@ -1,4 +1,8 @@
 package com.pinktwins.elephant.eventbus;
 
 public class FontChangedEvent extends ElephantEvent {
+	@Override
+	Object coalesceKey() {
+		return getClass();
+	}
 }
@@ -1,5 +1,7 @@
 package com.pinktwins.elephant.eventbus;
 
+import java.util.Arrays;
+
 import com.pinktwins.elephant.data.Note;
 
 public class NoteChangedEvent extends ElephantEvent {
@@ -10,4 +12,9 @@ public class NoteChangedEvent extends ElephantEvent {
 		this.note = note;
 		this.contentChanged = contentChanged;
 	}
+
+	@Override
+	Object coalesceKey() {
+		return Arrays.asList(getClass(), note, contentChanged);
+	}
 }
@@ -1,4 +1,8 @@
 package com.pinktwins.elephant.eventbus;
 
 public class SearchIndexChangedEvent extends ElephantEvent {
+	@Override
+	Object coalesceKey() {
+		return getClass();
+	}
 }
@@ -1,4 +1,8 @@
 package com.pinktwins.elephant.eventbus;
 
 public class TagsChangedEvent extends ElephantEvent {
+	@Override
+	Object coalesceKey() {
+		return getClass();
+	}
 }
@@ -1,10 +1,15 @@
 package com.pinktwins.elephant.eventbus;
 
+import java.util.Arrays;
+
 import com.pinktwins.elephant.data.Notebook;
 
 public class VaultEvent extends ElephantEvent {
 	public static enum Kind {
-		notebookCreated, notebookListChanged, notebookRefreshed
+		notebookCreated, notebookListChanged, notebookRefreshed,
+		// Vault has updated its notebook list, posted by Vault after
+		// notebookCreated and notebookListChanged.
+		notebookListUpdated
 	}
 
 	public final Kind kind;
@@ -14,4 +19,9 @@ public class VaultEvent extends ElephantEvent {
 		this.kind = kind;
 		this.ref = ref;
 	}
+
+	@Override
+	Object coalesceKey() {
+		return Arrays.asList(getClass(), kind, ref);
+	}
 }
@@ -1,35 +1,160 @@
 package com.pinktwins.elephant.util;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.security.spec.KeySpec;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Base64InputStream;
+import org.apache.commons.codec.binary.Base64OutputStream;
+import org.apache.commons.io.IOUtils;
+
+// Password encryption of text: "encv0:salt:iv:data\n", each part base64.
+//
+// Deriving the key from a password takes 65536 rounds of PBKDF2, so derived
+// keys are kept for the session, by salt and password: decrypting the same
+// text again, or several texts encrypted together, derives only once. Every
+// encrypt() has a new random salt and iv; encryptAll() uses one new salt
+// for the whole batch, with a random iv for each text. Keys are dropped
+// after KEY_TIMEOUT_MS without use, or right away by lock().
 
 public class CryptoUtil {
 	final String transform = "AES/CBC/PKCS5Padding";
 
+	private static final String VERSION = "encv0";
+
+	private static final int ITERATIONS = 65536;
+
+	private static final long KEY_TIMEOUT_MS = 15 * 60 * 1000;
+	private static final int MAX_KEYS = 64;
+
+	private static class CachedKey {
+		final SecretKeySpec key;
+		long used;
+
+		CachedKey(SecretKeySpec key) {
+			this.key = key;
+		}
+	}
+
+	// Keyed by digest of salt and password
+	private static final LinkedHashMap<String, CachedKey> keys = new LinkedHashMap<String, CachedKey>(16, 0.75f, true);
+
+	private static long derived, hits;
+
+	static {
+		Metrics.source("crypto", new Object() {
+			@Override
+			public String toString() {
+				return stats();
+			}
+		});
+	}
+
+	// Forget all derived keys.
+	public static void lock() {
+		synchronized (keys) {
+			keys.clear();
+		}
+	}
+
+	private static String digest(byte[] salt, String password) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		if (salt != null) {
+			md.update(salt);
+		}
+		md.update(password.getBytes("UTF-8"));
+		return Base64.encodeBase64String(md.digest());
+	}
+
+	private static void expire(long now) {
+		Iterator<CachedKey> i = keys.values().iterator();
+		while (i.hasNext()) {
+			CachedKey k = i.next();
+			if (now - k.used > KEY_TIMEOUT_MS || keys.size() > MAX_KEYS) {
+				i.remove();
+			}
+		}
+	}
+
+	private static SecretKeySpec key(String password, byte[] salt) throws Exception {
+		String id = digest(salt, password);
+		long now = System.currentTimeMillis();
+
+		synchronized (keys) {
+			expire(now);
+			CachedKey k = keys.get(id);
+			if (k != null) {
+				k.used = now;
+				hits++;
+				return k.key;
+			}
+		}
+
+		// Derive outside the lock, other passwords needn't wait.
+		KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, ITERATIONS, 128);
+		SecretKeyFactory f = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+		byte[] key = f.generateSecret(spec).getEncoded();
+		SecretKeySpec skeySpec = new SecretKeySpec(key, "AES");
+
+		synchronized (keys) {
+			CachedKey k = new CachedKey(skeySpec);
+			k.used = now;
+			keys.put(id, k);
+			derived++;
+		}
+		return skeySpec;
+	}
+
+	private static byte[] newSalt() {
+		// Create encryption key from password + random salt
+		SecureRandom random = new SecureRandom();
+		byte[] salt = new byte[16];
+		random.nextBytes(salt);
+		return salt;
+	}
+
+	private static Cipher encryptCipher(String password, byte[] salt) throws Exception {
+		Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+		cipher.init(Cipher.ENCRYPT_MODE, key(password, salt));
+		return cipher;
+	}
+
+	private static Cipher decryptCipher(String password, byte[] salt, byte[] iv) throws Exception {
+		Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+		cipher.init(Cipher.DECRYPT_MODE, key(password, salt), new IvParameterSpec(iv));
+		return cipher;
+	}
+
 	public static String encrypt(String password, String input) {
-		try {
-			// Create encryption key from password + random salt
-			SecureRandom random = new SecureRandom();
-			byte[] salt = new byte[16];
-			random.nextBytes(salt);
+		return encrypt(password, newSalt(), input);
+	}
 
-			KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, 65536, 128);
-			SecretKeyFactory f = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-			byte[] key = f.generateSecret(spec).getEncoded();
-			SecretKeySpec skeySpec = new SecretKeySpec(key, "AES");
+	private static String encrypt(String password, byte[] salt, String input) {
+		try {
 
 			// Encrypt
-			Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
-			cipher.init(Cipher.ENCRYPT_MODE, skeySpec);
+			Cipher cipher = encryptCipher(password, salt);
 			byte[] iv = cipher.getParameters().getParameterSpec(IvParameterSpec.class).getIV();
 			byte[] encrypted = cipher.doFinal(input.getBytes());
 
@@ -39,9 +164,9 @@ public class CryptoUtil {
 			String enc64 = Base64.encodeBase64String(encrypted);
 
 			// Encoded string contains salt, iv + enc data.
-			// Salt and IV are randomized for each encryption, and need not be kept secret.
+			// Salt and IV need not be kept secret.
 
-			return "encv0" + ":" + salt64 + ":" + iv64 + ":" + enc64 + "\n";
+			return VERSION + ":" + salt64 + ":" + iv64 + ":" + enc64 + "\n";
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		}
@@ -58,20 +183,8 @@ public class CryptoUtil {
 				String iv = a[2];
 				String enc = a[3];
 
-				if (version.equals("encv0")) {
-					byte[] bSalt = Base64.decodeBase64(salt);
-
-					byte[] ivBytes = Base64.decodeBase64(iv);
-					IvParameterSpec ivParam = new IvParameterSpec(ivBytes);
-
-					KeySpec spec = new PBEKeySpec(password.toCharArray(), bSalt, 65536, 128);
-					SecretKeyFactory f = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-					byte[] key = f.generateSecret(spec).getEncoded();
-
-					SecretKeySpec skeySpec = new SecretKeySpec(key, "AES");
-
-					Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
-					cipher.init(Cipher.DECRYPT_MODE, skeySpec, ivParam);
+				if (version.equals(VERSION)) {
+					Cipher cipher = decryptCipher(password, Base64.decodeBase64(salt), Base64.decodeBase64(iv));
 
 					byte[] original = cipher.doFinal(Base64.decodeBase64(enc));
 					return new String(original);
@@ -83,6 +196,125 @@ public class CryptoUtil {
 		return null;
 	}
 
+	// Encrypt many texts in parallel. Result has null for inputs that failed.
+	public static List<String> encryptAll(final String password, List<String> inputs) throws Exception {
+		// Derive once up front, not on every thread.
+		final byte[] salt = newSalt();
+		key(password, salt);
+
+		List<Callable<String>> tasks = Factory.newArrayList();
+		for (final String input : inputs) {
+			tasks.add(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return encrypt(password, salt, input);
+				}
+			});
+		}
+		return invokeAll(tasks);
+	}
+
+	// Decrypt many texts in parallel. Result has null for inputs that
+	// weren't encrypted; throws if any failed, eg. on wrong password.
+	public static List<String> decryptAll(final String password, List<String> inputs) throws Exception {
+		List<Callable<String>> tasks = Factory.newArrayList();
+		for (final String input : inputs) {
+			tasks.add(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return decrypt(password, input);
+				}
+			});
+		}
+		return invokeAll(tasks);
+	}
+
+	private static List<String> invokeAll(List<Callable<String>> tasks) throws Exception {
+		List<String> results = Factory.newArrayList();
+		for (Future<String> f : ForkJoinPool.commonPool().invokeAll(tasks)) {
+			try {
+				results.add(f.get());
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				throw cause instanceof Exception ? (Exception) cause : e;
+			}
+		}
+		return results;
+	}
+
+	// Streaming encrypt of large texts and files, same format as encrypt().
+	// Data goes through the cipher in blocks, without whole copies in memory.
+	public static void encrypt(String password, InputStream in, OutputStream out) throws Exception {
+		byte[] salt = newSalt();
+		Cipher cipher = encryptCipher(password, salt);
+		byte[] iv = cipher.getParameters().getParameterSpec(IvParameterSpec.class).getIV();
+
+		String header = VERSION + ":" + Base64.encodeBase64String(salt) + ":" + Base64.encodeBase64String(iv) + ":";
+		out.write(header.getBytes("US-ASCII"));
+
+		// Closing these would close out too, finish them instead.
+		Base64OutputStream b64 = new Base64OutputStream(new NonClosing(out), true, 0, null);
+		CipherOutputStream enc = new CipherOutputStream(b64, cipher);
+		IOUtils.copy(in, enc);
+		enc.close();
+
+		out.write('\n');
+		out.flush();
+	}
+
+	// Streaming decrypt of data written by either encrypt().
+	public static void decrypt(String password, InputStream in, OutputStream out) throws Exception {
+		String[] header = new String[3];
+		for (int n = 0; n < 3; n++) {
+			header[n] = readField(in);
+		}
+
+		if (!header[0].equals(VERSION)) {
+			throw new IOException("Not encrypted data");
+		}
+
+		Cipher cipher = decryptCipher(password, Base64.decodeBase64(header[1]), Base64.decodeBase64(header[2]));
+		CipherInputStream dec = new CipherInputStream(new Base64InputStream(in), cipher);
+		IOUtils.copy(dec, out);
+		out.flush();
+	}
+
+	private static String readField(InputStream in) throws IOException {
+		ByteArrayOutputStream field = new ByteArrayOutputStream();
+		while (true) {
+			int c = in.read();
+			if (c < 0 || field.size() > 1024) {
+				throw new IOException("Not encrypted data");
+			}
+			if (c == ':') {
+				return field.toString("US-ASCII");
+			}
+			field.write(c);
+		}
+	}
+
+	private static class NonClosing extends FilterOutputStream {
+		NonClosing(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+	public static String stats() {
+		synchronized (keys) {
+			return String.format("CryptoUtil: %d keys cached, %d derived, %d cache hits", keys.size(), derived, hits);
+		}
+	}
+
 	public String encryptToBase64(String password, String input) throws IOException {
 		return encrypt(password, input);
 	}
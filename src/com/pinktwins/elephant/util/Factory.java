@@ -1,6 +1,7 @@
 package com.pinktwins.elephant.util;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -9,6 +10,7 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Factory {
 
@@ -19,6 +21,10 @@ public class Factory {
 		return new HashSet<T>();
 	}
 
+	public static <T> Set<T> newConcurrentHashSet() {
+		return Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+	}
+
 	public static <T> SortedSet<T> newSortedSet() {
 		return new TreeSet<T>();
 	}
@@ -27,6 +33,10 @@ public class Factory {
 		return new ArrayList<T>();
 	}
 
+	public static <T> List<T> newCopyOnWriteArrayList() {
+		return new CopyOnWriteArrayList<T>();
+	}
+
 	public static <K, V> Map<K, V> newHashMap() {
 		return new HashMap<K, V>();
 	}
@@ -0,0 +1,89 @@
+package com.pinktwins.elephant.util;
+
+// Counts of millisecond timings in power of two buckets: <1, <2, <4 .. ms,
+// last bucket takes everything above. Good enough for percentiles of
+// things like note load times without keeping every sample. Total and max
+// are kept in nanoseconds, so averages of sub-millisecond timings hold up.
+
+public class Histogram {
+
+	private static final int BUCKETS = 16;
+
+	public final String name;
+
+	private final long[] counts = new long[BUCKETS];
+	private long count, totalNanos, maxNanos;
+
+	public Histogram(String name) {
+		this.name = name;
+	}
+
+	private static int bucket(long millis) {
+		int b = 0;
+		while (b < BUCKETS - 1 && millis >= (1L << b)) {
+			b++;
+		}
+		return b;
+	}
+
+	public synchronized void record(long millis) {
+		recordNanos(millis * 1000000);
+	}
+
+	public synchronized void recordNanos(long nanos) {
+		nanos = Math.max(0, nanos);
+		counts[bucket(nanos / 1000000)]++;
+		count++;
+		totalNanos += nanos;
+		if (nanos > maxNanos) {
+			maxNanos = nanos;
+		}
+	}
+
+	public synchronized long count() {
+		return count;
+	}
+
+	public synchronized double totalMillis() {
+		return totalNanos / 1000000.0;
+	}
+
+	public synchronized double averageMillis() {
+		return count == 0 ? 0 : totalNanos / (double) count / 1000000.0;
+	}
+
+	public synchronized long maxMillis() {
+		return maxNanos / 1000000;
+	}
+
+	// Upper bound of the bucket holding the p:th percentile (0-100).
+	public synchronized long percentile(double p) {
+		if (count == 0) {
+			return 0;
+		}
+
+		long target = (long) Math.ceil(count * p / 100.0);
+		long seen = 0;
+		for (int b = 0; b < BUCKETS - 1; b++) {
+			seen += counts[b];
+			if (seen >= target) {
+				return 1L << b;
+			}
+		}
+		return maxMillis();
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%s: %d, avg %.2f ms, p50 <%d ms, p95 <%d ms, max %.2f ms [", name, count, averageMillis(), percentile(50),
+				percentile(95), maxNanos / 1000000.0));
+		for (int b = 0; b < BUCKETS; b++) {
+			if (b > 0) {
+				sb.append(' ');
+			}
+			sb.append(counts[b]);
+		}
+		return sb.append(']').toString();
+	}
+}
@@ -1,9 +1,12 @@
 package com.pinktwins.elephant.util;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.logging.Logger;
 
@@ -85,6 +88,38 @@ public class IOUtil {
 		Files.write(text, file, IOUtil.getCharset());
 	}
 
+	// Copy with FileChannel.transferTo, which lets the OS move the bytes
+	// without going through the Java heap. Keeps source modification time.
+	public static void transferFile(File source, File dest) throws IOException {
+		File parent = dest.getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Cannot create folder " + parent);
+		}
+
+		FileInputStream in = new FileInputStream(source);
+		try {
+			FileOutputStream out = new FileOutputStream(dest);
+			try {
+				FileChannel src = in.getChannel();
+				FileChannel dst = out.getChannel();
+				long size = src.size();
+				long pos = 0;
+				while (pos < size) {
+					pos += src.transferTo(pos, size - pos, dst);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+
+		if (dest.length() != source.length()) {
+			throw new IOException("Failed to copy full contents from " + source + " to " + dest);
+		}
+		dest.setLastModified(source.lastModified());
+	}
+
 	public static JSONObject loadJson(File file) {
 		try {
 			String json = null;
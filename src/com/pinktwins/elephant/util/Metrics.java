@@ -0,0 +1,258 @@
+package com.pinktwins.elephant.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+// Counters, gauges and latency histograms by name, plus named sources whose
+// toString() is a stats summary (executors, caches, ...).
+//
+// Names are dotted, eg. "search.term.memory". Everything is visible over JMX
+// as com.pinktwins.elephant:type=Metrics, in the diagnostics window
+// (Cmd/Ctrl+Alt+Shift+D), and is logged every N seconds when started with
+// -Delephant.metrics.log=N.
+
+public class Metrics {
+
+	private static final Logger LOG = Logger.getLogger(Metrics.class.getName());
+
+	public interface Gauge {
+		public long value();
+	}
+
+	public static class Counter {
+		private final AtomicLong value = new AtomicLong();
+
+		public void inc() {
+			value.incrementAndGet();
+		}
+
+		public void add(long n) {
+			value.addAndGet(n);
+		}
+
+		public long get() {
+			return value.get();
+		}
+	}
+
+	private static final Map<String, Counter> counters = Factory.newConcurrentHashMap();
+	private static final Map<String, Gauge> gauges = Factory.newConcurrentHashMap();
+	private static final Map<String, Histogram> histograms = Factory.newConcurrentHashMap();
+	private static final Map<String, Object> sources = Factory.newConcurrentHashMap();
+
+	static {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(), new ObjectName("com.pinktwins.elephant:type=Metrics"));
+		} catch (Exception e) {
+			LOG.severe("Fail: " + e);
+		}
+
+		long interval = Long.getLong("elephant.metrics.log", 0);
+		if (interval > 0) {
+			ScheduledExecutorService logger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Elephant metrics log");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			logger.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					LOG.info(dump());
+				}
+			}, interval, interval, TimeUnit.SECONDS);
+		}
+	}
+
+	private Metrics() {
+	}
+
+	public static Counter counter(String name) {
+		Counter c = counters.get(name);
+		if (c == null) {
+			Counter created = new Counter();
+			c = counters.putIfAbsent(name, created);
+			if (c == null) {
+				c = created;
+			}
+		}
+		return c;
+	}
+
+	public static Histogram histogram(String name) {
+		Histogram h = histograms.get(name);
+		if (h == null) {
+			Histogram created = new Histogram(name);
+			h = histograms.putIfAbsent(name, created);
+			if (h == null) {
+				h = created;
+			}
+		}
+		return h;
+	}
+
+	// Record time since startNanos (from System.nanoTime()) into histogram name.
+	public static void time(String name, long startNanos) {
+		histogram(name).recordNanos(System.nanoTime() - startNanos);
+	}
+
+	public static void gauge(String name, Gauge g) {
+		gauges.put(name, g);
+	}
+
+	public static void source(String name, Object o) {
+		sources.put(name, o);
+	}
+
+	// All metrics as text, one per line, sorted by name.
+	public static String dump() {
+		SortedMap<String, String> lines = new TreeMap<String, String>();
+		for (Map.Entry<String, Counter> e : counters.entrySet()) {
+			lines.put(e.getKey(), e.getKey() + ": " + e.getValue().get());
+		}
+		for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+			lines.put(e.getKey(), e.getKey() + ": " + e.getValue().value());
+		}
+		for (Histogram h : histograms.values()) {
+			lines.put(h.name, h.toString());
+		}
+		for (Map.Entry<String, Object> e : sources.entrySet()) {
+			lines.put(e.getKey(), e.getKey() + ": " + e.getValue());
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (String line : lines.values()) {
+			sb.append(line).append('\n');
+		}
+		return sb.toString();
+	}
+
+	// Every metric as JMX attributes. Histograms are split into count, avg,
+	// p50, p95 and max attributes.
+	private static class MetricsBean implements DynamicMBean {
+
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException, MBeanException, ReflectionException {
+			Counter c = counters.get(attribute);
+			if (c != null) {
+				return c.get();
+			}
+
+			Gauge g = gauges.get(attribute);
+			if (g != null) {
+				return g.value();
+			}
+
+			Object o = sources.get(attribute);
+			if (o != null) {
+				return o.toString();
+			}
+
+			int dot = attribute.lastIndexOf('.');
+			if (dot > 0) {
+				Histogram h = histograms.get(attribute.substring(0, dot));
+				if (h != null) {
+					String part = attribute.substring(dot + 1);
+					if (part.equals("count")) {
+						return h.count();
+					}
+					if (part.equals("avg")) {
+						return h.averageMillis();
+					}
+					if (part.equals("p50")) {
+						return h.percentile(50);
+					}
+					if (part.equals("p95")) {
+						return h.percentile(95);
+					}
+					if (part.equals("max")) {
+						return h.maxMillis();
+					}
+				}
+			}
+
+			throw new AttributeNotFoundException(attribute);
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			AttributeList list = new AttributeList();
+			for (String a : attributes) {
+				try {
+					list.add(new Attribute(a, getAttribute(a)));
+				} catch (Exception e) {
+					// Left out, as JMX expects.
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException("Metrics are read only");
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException, ReflectionException {
+			if (actionName.equals("dump")) {
+				return dump();
+			}
+			throw new ReflectionException(new NoSuchMethodException(actionName));
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			List<MBeanAttributeInfo> attrs = Factory.newArrayList();
+			for (String name : new TreeMap<String, Counter>(counters).keySet()) {
+				attrs.add(new MBeanAttributeInfo(name, "java.lang.Long", "counter", true, false, false));
+			}
+			for (String name : new TreeMap<String, Gauge>(gauges).keySet()) {
+				attrs.add(new MBeanAttributeInfo(name, "java.lang.Long", "gauge", true, false, false));
+			}
+			for (String name : new TreeMap<String, Histogram>(histograms).keySet()) {
+				attrs.add(new MBeanAttributeInfo(name + ".count", "java.lang.Long", "samples", true, false, false));
+				attrs.add(new MBeanAttributeInfo(name + ".avg", "java.lang.Double", "average ms", true, false, false));
+				attrs.add(new MBeanAttributeInfo(name + ".p50", "java.lang.Long", "median ms, bucket upper bound", true, false, false));
+				attrs.add(new MBeanAttributeInfo(name + ".p95", "java.lang.Long", "95th percentile ms, bucket upper bound", true, false, false));
+				attrs.add(new MBeanAttributeInfo(name + ".max", "java.lang.Long", "max ms", true, false, false));
+			}
+			for (String name : new TreeMap<String, Object>(sources).keySet()) {
+				attrs.add(new MBeanAttributeInfo(name, "java.lang.String", "stats", true, false, false));
+			}
+
+			MBeanOperationInfo dump = new MBeanOperationInfo("dump", "All metrics as text", new MBeanParameterInfo[0], "java.lang.String",
+					MBeanOperationInfo.INFO);
+
+			return new MBeanInfo(Metrics.class.getName(), "Elephant metrics", attrs.toArray(new MBeanAttributeInfo[attrs.size()]), null,
+					new MBeanOperationInfo[] { dump }, null);
+		}
+	}
+}
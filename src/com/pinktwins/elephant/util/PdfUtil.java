@@ -30,6 +30,7 @@ public class PdfUtil {
 	PDDocument pdfDoc;
 	PDFRenderer pdfRenderer;
 	int numPages;
+	boolean closed;
 
 	private static final int screenDpi = Toolkit.getDefaultToolkit().getScreenResolution();
 
@@ -56,17 +57,38 @@ public class PdfUtil {
 		}
 	}
 
-	public int numPages() {
+	// Calls are serialized, a document may be shared between threads.
+
+	public synchronized int numPages() {
 		return numPages;
 	}
 
-	public Dimension pageSize(int n) {
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	public synchronized Dimension pageSize(int n) {
+		if (pdfDoc == null || closed) {
+			return new Dimension(100, 100);
+		}
 		PDPage page = pdfDoc.getPage(n - 1);
 		return new Dimension((int) page.getBBox().getWidth(), (int) page.getBBox().getHeight());
 	}
 
-	public long getPageBBoxWidth() {
-		if (pdfDoc == null) {
+	// Sizes of all pages, in one call instead of one per page.
+	public synchronized Dimension[] pageSizes() {
+		if (pdfDoc == null || closed) {
+			return new Dimension[0];
+		}
+		Dimension[] sizes = new Dimension[numPages];
+		for (int n = 0; n < numPages; n++) {
+			sizes[n] = pageSize(n + 1);
+		}
+		return sizes;
+	}
+
+	public synchronized long getPageBBoxWidth() {
+		if (pdfDoc == null || closed) {
 			return -1;
 		}
 		if (pdfDoc.getNumberOfPages() <= 0) {
@@ -75,9 +97,13 @@ public class PdfUtil {
 		return (long) pdfDoc.getPage(0).getBBox().getWidth();
 	}
 
-	public Image writePage(int n, File outPath, int minimumWidth) {
+	public synchronized Image writePage(int n, File outPath, int minimumWidth) {
 		BufferedImage bImg = null;
 
+		if (pdfDoc == null || closed) {
+			return null;
+		}
+
 		try {
 			PDPage page = pdfDoc.getPage(n - 1);
 
@@ -101,7 +127,11 @@ public class PdfUtil {
 		return bImg;
 	}
 
-	public void close() {
+	public synchronized void close() {
+		if (pdfDoc == null || closed) {
+			return;
+		}
+		closed = true;
 		try {
 			pdfDoc.close();
 		} catch (IOException e) {
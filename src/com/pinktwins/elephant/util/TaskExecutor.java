@@ -0,0 +1,229 @@
+package com.pinktwins.elephant.util;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+// Named, bounded background executors, one per kind of work.
+//
+// Queued tasks run in priority order (lower first, then in submit order).
+// A task submitted with a key replaces a queued task with the same key, so
+// eg. loading note after note only leaves the last load waiting. Cancelling
+// the returned Future takes a queued task off the queue; a running task is
+// interrupted only if cancel(true) is used, and should otherwise check for
+// cancellation itself.
+
+public class TaskExecutor {
+
+	private static final Logger LOG = Logger.getLogger(TaskExecutor.class.getName());
+
+	public static final int HIGH = 0;
+	public static final int NORMAL = 100;
+	public static final int LOW = 200;
+
+	// Note list items ahead of scrolling.
+	public static final TaskExecutor LIST = new TaskExecutor("list", 2);
+
+	// Loading notes into the editor. Single thread, newer loads replace queued ones.
+	public static final TaskExecutor EDITOR = new TaskExecutor("editor", 1);
+
+	// Attachment previews, eg. pdf pages.
+	public static final TaskExecutor PREVIEW = new TaskExecutor("preview", 2);
+
+	// Sync file copies. Copying many small notes is latency bound, a few
+	// threads keep the disk busy without flooding it.
+	public static final TaskExecutor SYNC = new TaskExecutor("sync", 4);
+
+	// Content hashing, cpu bound.
+	public static final TaskExecutor HASH = new TaskExecutor("hash", Runtime.getRuntime().availableProcessors());
+
+	// Search index warm up and notebook refreshes. Two threads so a refresh
+	// doesn't wait for the long warm up at startup.
+	public static final TaskExecutor INDEX = new TaskExecutor("index", 2);
+
+	private final String name;
+	private final ThreadPoolExecutor executor;
+	private final Map<String, Task<?>> keyed = Factory.newHashMap();
+	private final AtomicLong seq = new AtomicLong();
+
+	private long submitted, completed, cancelled, coalesced, failed;
+	private int maxQueueDepth;
+	private long waitNanos, maxWaitNanos, runNanos, maxRunNanos;
+
+	private class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+		final String key;
+		final int priority;
+		final long order = seq.getAndIncrement();
+		final long queuedAt = System.nanoTime();
+
+		Task(Callable<T> c, String key, int priority) {
+			super(c);
+			this.key = key;
+			this.priority = priority;
+		}
+
+		@Override
+		public void run() {
+			unkey(this);
+			if (isCancelled()) {
+				return;
+			}
+
+			long start = System.nanoTime();
+			try {
+				super.run();
+			} finally {
+				ran(start - queuedAt, System.nanoTime() - start);
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean result = super.cancel(mayInterruptIfRunning);
+			if (result) {
+				unkey(this);
+				executor.remove(this);
+				synchronized (TaskExecutor.this) {
+					cancelled++;
+				}
+			}
+			return result;
+		}
+
+		@Override
+		protected void setException(Throwable t) {
+			super.setException(t);
+			synchronized (TaskExecutor.this) {
+				failed++;
+			}
+			LOG.severe("Fail: " + name + ": " + t);
+		}
+
+		@Override
+		public int compareTo(Task<?> o) {
+			if (priority != o.priority) {
+				return priority < o.priority ? -1 : 1;
+			}
+			return order < o.order ? -1 : (order == o.order ? 0 : 1);
+		}
+	}
+
+	public TaskExecutor(final String name, int threads) {
+		this.name = name;
+
+		executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Elephant " + name + " " + count.getAndIncrement());
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+
+		Metrics.source("executor." + name, this);
+		Metrics.gauge("executor." + name + ".queue", new Metrics.Gauge() {
+			@Override
+			public long value() {
+				return queueDepth();
+			}
+		});
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Future<?> submit(Runnable r) {
+		return submit(null, NORMAL, r);
+	}
+
+	public Future<?> submit(int priority, Runnable r) {
+		return submit(null, priority, r);
+	}
+
+	// key may be null. A queued task with the same key is cancelled.
+	public Future<?> submit(String key, int priority, final Runnable r) {
+		return submit(key, priority, new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				r.run();
+				return null;
+			}
+		});
+	}
+
+	public <T> Future<T> submit(String key, int priority, Callable<T> c) {
+		Task<T> task = new Task<T>(c, key, priority);
+
+		Task<?> replaced = null;
+		synchronized (this) {
+			submitted++;
+			if (key != null) {
+				replaced = keyed.put(key, task);
+			}
+		}
+
+		if (replaced != null && replaced.cancel(false)) {
+			synchronized (this) {
+				coalesced++;
+			}
+		}
+
+		executor.execute(task);
+
+		synchronized (this) {
+			maxQueueDepth = Math.max(maxQueueDepth, executor.getQueue().size());
+		}
+
+		return task;
+	}
+
+	private synchronized void unkey(Task<?> task) {
+		if (task.key != null && keyed.get(task.key) == task) {
+			keyed.remove(task.key);
+		}
+	}
+
+	private synchronized void ran(long wait, long run) {
+		completed++;
+		waitNanos += wait;
+		maxWaitNanos = Math.max(maxWaitNanos, wait);
+		runNanos += run;
+		maxRunNanos = Math.max(maxRunNanos, run);
+	}
+
+	public int queueDepth() {
+		return executor.getQueue().size();
+	}
+
+	public int activeCount() {
+		return executor.getActiveCount();
+	}
+
+	public synchronized double averageWaitMillis() {
+		return completed == 0 ? 0 : waitNanos / (double) completed / 1000000.0;
+	}
+
+	public synchronized double averageRunMillis() {
+		return completed == 0 ? 0 : runNanos / (double) completed / 1000000.0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("TaskExecutor %s: %d queued (max %d), %d active, %d submitted, %d completed, %d cancelled (%d coalesced), %d failed, "
+				+ "wait avg %.2f ms max %.2f ms, run avg %.2f ms max %.2f ms", name, queueDepth(), maxQueueDepth, activeCount(), submitted, completed,
+				cancelled, coalesced, failed, averageWaitMillis(), maxWaitNanos / 1000000.0, averageRunMillis(), maxRunNanos / 1000000.0);
+	}
+}
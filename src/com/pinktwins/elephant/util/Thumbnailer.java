@@ -0,0 +1,169 @@
+package com.pinktwins.elephant.util;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+// Image downscaling for thumbnails and editor images.
+//
+// Decodes with ImageReader subsampling so a large photo is never decoded at
+// full resolution when only a thumbnail is needed, then halves the size with
+// bilinear steps and does the last step bicubic. Intermediate steps draw into
+// per-thread scratch buffers that are reused between calls, up to a size;
+// larger steps use buffers of their own.
+
+public class Thumbnailer {
+
+	// Subsample no further than this many times the target size,
+	// leaving the rest to the (better looking) scaling steps.
+	private static final int SUBSAMPLE_HEADROOM = 2;
+
+	// Largest scratch buffer kept per thread, 4 MB of int pixels. Every LIST,
+	// EDITOR and thumbnail thread has two.
+	private static final long MAX_SCRATCH_PIXELS = 1024 * 1024;
+
+	private static final ThreadLocal<BufferedImage[]> scratch = new ThreadLocal<BufferedImage[]>() {
+		@Override
+		protected BufferedImage[] initialValue() {
+			return new BufferedImage[2];
+		}
+	};
+
+	// Scale image file to w x h. Either may be -1 to keep aspect ratio,
+	// as with Image.getScaledInstance(). Returns null if file can't be decoded.
+	public static BufferedImage thumbnail(File f, int w, int h) throws IOException {
+		ImageInputStream in = ImageIO.createImageInputStream(f);
+		if (in == null) {
+			return null;
+		}
+
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()) {
+				return null;
+			}
+
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+
+				int sw = reader.getWidth(0), sh = reader.getHeight(0);
+				int[] size = targetSize(sw, sh, w, h);
+
+				ImageReadParam param = reader.getDefaultReadParam();
+				int sub = Math.max(1, Math.min(sw / (size[0] * SUBSAMPLE_HEADROOM), sh / (size[1] * SUBSAMPLE_HEADROOM)));
+				if (sub > 1) {
+					param.setSourceSubsampling(sub, sub, 0, 0);
+				}
+
+				BufferedImage decoded = reader.read(0, param);
+				return scale(decoded, size[0], size[1]);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	public static BufferedImage scale(Image img, int w, int h) {
+		BufferedImage src = toBufferedImage(img);
+		int[] size = targetSize(src.getWidth(), src.getHeight(), w, h);
+		w = size[0];
+		h = size[1];
+
+		boolean alpha = src.getColorModel().hasAlpha();
+		int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+		BufferedImage[] buffers = scratch.get();
+		int cw = src.getWidth(), ch = src.getHeight();
+		BufferedImage current = src;
+		int next = 0;
+
+		// Halve while more than twice the target size.
+		while (cw / 2 >= w && ch / 2 >= h) {
+			int nw = cw / 2, nh = ch / 2;
+
+			BufferedImage buf = scratchBuffer(buffers, next, nw, nh, type);
+			draw(current, cw, ch, buf, nw, nh, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+
+			current = buf;
+			cw = nw;
+			ch = nh;
+			next = 1 - next;
+		}
+
+		BufferedImage result = new BufferedImage(w, h, type);
+		draw(current, cw, ch, result, w, h, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+		return result;
+	}
+
+	private static BufferedImage scratchBuffer(BufferedImage[] buffers, int index, int w, int h, int type) {
+		// Steps of large images get buffers of their own, not kept by the
+		// thread after the call.
+		if ((long) w * h > MAX_SCRATCH_PIXELS) {
+			return new BufferedImage(w, h, type);
+		}
+
+		BufferedImage b = buffers[index];
+		if (b == null || b.getType() != type || b.getWidth() < w || b.getHeight() < h) {
+			// Grow generously so the next large image fits too.
+			int bw = Math.max(w, b != null ? b.getWidth() : 0);
+			int bh = Math.max(h, b != null ? b.getHeight() : 0);
+			if ((long) bw * bh > MAX_SCRATCH_PIXELS) {
+				bw = w;
+				bh = h;
+			}
+			b = new BufferedImage(bw, bh, type);
+			buffers[index] = b;
+		}
+		return b;
+	}
+
+	private static void draw(BufferedImage src, int sw, int sh, BufferedImage dest, int dw, int dh, Object interpolation) {
+		Graphics2D g = dest.createGraphics();
+		try {
+			// Src composite: scratch buffers may hold pixels of previous images.
+			g.setComposite(AlphaComposite.Src);
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g.drawImage(src, 0, 0, dw, dh, 0, 0, sw, sh, null);
+		} finally {
+			g.dispose();
+		}
+	}
+
+	static int[] targetSize(int sw, int sh, int w, int h) {
+		if (w <= 0 && h <= 0) {
+			w = sw;
+			h = sh;
+		} else if (w <= 0) {
+			w = (int) Math.round(sw * (h / (double) sh));
+		} else if (h <= 0) {
+			h = (int) Math.round(sh * (w / (double) sw));
+		}
+		return new int[] { Math.max(1, w), Math.max(1, h) };
+	}
+
+	private static BufferedImage toBufferedImage(Image img) {
+		if (img instanceof BufferedImage) {
+			return (BufferedImage) img;
+		}
+
+		BufferedImage b = new BufferedImage(img.getWidth(null), img.getHeight(null), BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = b.createGraphics();
+		g.drawImage(img, 0, 0, null);
+		g.dispose();
+		return b;
+	}
+}